@@ -0,0 +1,6 @@
+package com.jeraff.patricia.client;
+
+import java.util.LinkedHashMap;
+
+public class BatchGetResponse extends LinkedHashMap<String, GetResponse> {
+}
@@ -0,0 +1,54 @@
+package com.jeraff.patricia.client;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks through the pages of a prefix or range query, handing the cursor of each page to the request for the next
+ * one. The first page is always fetched, even if it comes back empty.
+ */
+public class PageIterator implements Iterator<PageResponse> {
+    private final PatriciaClient client;
+    private final String core;
+    private final String from;
+    private final String to;
+    private final boolean prefix;
+    private final int limit;
+
+    private String cursor;
+    private boolean done = false;
+
+    PageIterator(PatriciaClient client, String core, String from, String to, boolean prefix, int limit) {
+        this.client = client;
+        this.core = core;
+        this.from = from;
+        this.to = to;
+        this.prefix = prefix;
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !done;
+    }
+
+    @Override
+    public PageResponse next() {
+        if (done) {
+            throw new NoSuchElementException();
+        }
+
+        final PageResponse page = prefix
+                ? client.getPage(core, from, cursor, limit)
+                : client.getRange(core, from, to, cursor, limit);
+
+        cursor = page.getNext();
+        done = (cursor == null);
+        return page;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,34 @@
+package com.jeraff.patricia.client;
+
+import com.jeraff.patricia.server.ops.Entry;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PageResponse {
+    @JsonProperty
+    private List<Entry> entries = new ArrayList<Entry>();
+    @JsonProperty
+    private String next;
+
+    public PageResponse() {
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /** @return the cursor for the following page, or null if this is the last one */
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+}
@@ -139,6 +139,70 @@ public class PatriciaClient {
         }
     }
 
+    public BatchGetResponse get(String core, String... prefixes) {
+        if (!core.startsWith("/")) {
+            core = String.format("/%s", core);
+        }
+
+        try {
+            final URIBuilder builder = new URIBuilder(getApiUriForCore(core) + ApiHandler.PATH_BATCH);
+            for (String prefix : prefixes) {
+                builder.addParameter(Params.PARAM_S, prefix);
+            }
+
+            final HttpGet httpget = new HttpGet(builder.build());
+            return executeHttpMethod(httpget, BatchGetResponse.class);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public PageResponse getPage(String core, String prefix, String cursor, int limit) {
+        return getPage(core, Params.PARAM_S, prefix, null, cursor, limit);
+    }
+
+    public PageResponse getRange(String core, String from, String to, String cursor, int limit) {
+        return getPage(core, Params.PARAM_FROM, from, to, cursor, limit);
+    }
+
+    private PageResponse getPage(String core, String param, String value, String to, String cursor, int limit) {
+        if (!core.startsWith("/")) {
+            core = String.format("/%s", core);
+        }
+
+        try {
+            final URIBuilder builder = new URIBuilder(getApiUriForCore(core) + ApiHandler.PATH_PAGE)
+                    .setParameter(param, value)
+                    .setParameter(Params.PARAM_LIMIT, String.valueOf(limit));
+
+            if (to != null) {
+                builder.setParameter(Params.PARAM_TO, to);
+            }
+
+            if (cursor != null) {
+                builder.setParameter(Params.PARAM_CURSOR, cursor);
+            }
+
+            return executeHttpMethod(new HttpGet(builder.build()), PageResponse.class);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Iterates over all the matches for the prefix, {@code limit} at a time. */
+    public PageIterator pages(String prefix, int limit) {
+        return pages(DEFAULT_CORE, prefix, limit);
+    }
+
+    public PageIterator pages(String core, String prefix, int limit) {
+        return new PageIterator(this, core, prefix, null, true, limit);
+    }
+
+    /** Iterates over everything from {@code from} up to and including {@code to}, {@code limit} at a time. */
+    public PageIterator pages(String core, String from, String to, int limit) {
+        return new PageIterator(this, core, from, to, false, limit);
+    }
+
     public boolean put(String string) {
         return put(new String[]{string});
     }
@@ -204,6 +268,64 @@ public class PatriciaClient {
         }
     }
 
+    public GetResponse getByHash(String hash) {
+        return getByHash(DEFAULT_CORE, hash);
+    }
+
+    public GetResponse getByHash(String core, String hash) {
+        if (!core.startsWith("/")) {
+            core = String.format("/%s", core);
+        }
+
+        try {
+            final URIBuilder builder = new URIBuilder(getApiUriForCore(core)).setParameter(Params.PARAM_H, hash);
+            return executeHttpMethod(new HttpGet(builder.build()), GetResponse.class);
+        } catch (HttpNotFoundException e) {
+            return new GetResponse();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public HashMap<String, String> deleteByHash(String hash) {
+        return deleteByHash(DEFAULT_CORE, new String[]{hash});
+    }
+
+    public HashMap<String, String> deleteByHash(String core, String... hashes) {
+        if (!core.startsWith("/")) {
+            core = String.format("/%s", core);
+        }
+
+        try {
+            final URIBuilder builder = new URIBuilder(getApiUriForCore(core));
+            for (String hash : hashes) {
+                builder.addParameter(Params.PARAM_H, hash);
+            }
+
+            return executeHttpMethod(new HttpDelete(builder.build()), DeleteResponseBody.class);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Removes every key starting with the prefix in one go, returning how many there were. */
+    public int purge(String prefix) {
+        return purge(DEFAULT_CORE, prefix);
+    }
+
+    public int purge(String core, String prefix) {
+        if (!core.startsWith("/")) {
+            core = String.format("/%s", core);
+        }
+
+        try {
+            final URIBuilder builder = new URIBuilder(getApiUriForCore(core)).setParameter(Params.PARAM_PREFIX, prefix);
+            return executeHttpMethod(new HttpDelete(builder.build()), PurgeResponse.class).getRemoved();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public HeadResponse head(String string) {
         return head(DEFAULT_CORE, string);
     }
@@ -0,0 +1,13 @@
+package com.jeraff.patricia.client;
+
+import com.jeraff.patricia.server.handler.ApiHandler;
+
+import java.util.HashMap;
+
+public class PurgeResponse extends HashMap<String, Integer> {
+
+    public int getRemoved() {
+        final Integer removed = get(ApiHandler.REMOVED);
+        return (removed == null) ? 0 : removed;
+    }
+}
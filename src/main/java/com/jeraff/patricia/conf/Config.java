@@ -1,5 +1,7 @@
 package com.jeraff.patricia.conf;
 
+import com.jeraff.patricia.server.analyzer.PatriciaStringAnalyzer;
+import com.jeraff.patricia.server.ops.TrieEngine;
 import org.apache.commons.beanutils.BeanMap;
 import org.apache.commons.beanutils.BeanUtils;
 import org.apache.commons.lang.StringUtils;
@@ -33,6 +35,7 @@ public class Config {
     private long time = System.currentTimeMillis();
     private String confFile;
     private boolean indexHandler;
+    private Scheduler scheduler = new Scheduler();
     private String configContextPath = DEFAULT_CONFIG_CONTEXT_PATH;
 
     public Config() {
@@ -62,6 +65,13 @@ public class Config {
     }
 
     private void setupCores() {
+        if (scheduler.getThreads() < 0 || scheduler.getQuota() < 0 || scheduler.getQueue() < 0) {
+            throw new RuntimeException("Scheduler limits can't be negative");
+        } else if (!Scheduler.MODE_PLATFORM.equals(scheduler.getMode())
+                && !Scheduler.MODE_VIRTUAL.equals(scheduler.getMode())) {
+            throw new RuntimeException("Unknown scheduler mode: " + scheduler.getMode());
+        }
+
         if (cores == null) {
             cores = new ArrayList<Core>();
             cores.add(new Core());
@@ -76,6 +86,33 @@ public class Config {
                 throw new RuntimeException("Invalid core config. Following path is shared by 2 cores: " + path);
             } else if (core.getJdbc() != null && core.getDirCat() != null) {
                 throw new RuntimeException("Can't have both dirCat and JDBC bootstrap: " + path);
+            } else if (!Lsm.INDEX_ARRAY.equals(core.getLsm().getIndex())
+                    && !Lsm.INDEX_FRONT_CODED.equals(core.getLsm().getIndex())
+                    && !Lsm.INDEX_MAPPED.equals(core.getLsm().getIndex())) {
+                throw new RuntimeException("Unknown lsm index: " + core.getLsm().getIndex() + " in " + path);
+            } else if (Lsm.INDEX_MAPPED.equals(core.getLsm().getIndex()) && core.getLsm().getDirectory() == null) {
+                throw new RuntimeException("A mapped lsm index needs a directory: " + path);
+            } else if (!Loading.POLICY_SERVE.equals(core.getLoading().getPolicy())
+                    && !Loading.POLICY_UNAVAILABLE.equals(core.getLoading().getPolicy())) {
+                throw new RuntimeException("Unknown loading policy: " + core.getLoading().getPolicy() + " in " + path);
+            } else if (core.getWarmup().getSampleRate() < 0 || core.getWarmup().getSampleRate() > 1) {
+                throw new RuntimeException("A warm-up sample rate has to be between 0 and 1: " + path);
+            } else if (core.getWarmup().getMaxQueries() < 0 || core.getWarmup().getFlushMillis() < 0
+                    || core.getWarmup().getBudgetMillis() < 0 || core.getWarmup().getRounds() < 0) {
+                throw new RuntimeException("Warm-up limits can't be negative: " + path);
+            }
+
+            if (!PatriciaStringAnalyzer.class.isAssignableFrom(core.getAnalyzer())) {
+                throw new RuntimeException("Not a " + PatriciaStringAnalyzer.class.getSimpleName() + ": "
+                        + core.getAnalyzer().getCanonicalName() + " in " + path);
+            } else if (core.getExpansion().getMaxSuffixes() < 0 || core.getExpansion().getMinGramLength() < 0) {
+                throw new RuntimeException("Expansion limits can't be negative: " + path);
+            }
+
+            try {
+                TrieEngine.forName(core.getEngine());
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException(e.getMessage() + " in " + path, e);
             }
 
             paths.add(path);
@@ -234,6 +271,14 @@ public class Config {
         this.confFile = confFile;
     }
 
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
     public boolean isIndexHandler() {
         return indexHandler;
     }
@@ -11,10 +11,22 @@ import javax.management.ObjectName;
 
 @JsonAutoDetect
 public class Core {
+    public static final String ENGINE_PATRICIA = "patricia";
+    public static final String ENGINE_ADAPTIVE_RADIX = "adaptiveRadix";
+
     private String path = "/";
     private Class analyzer = PartialMatchAnalyzer.class;
     private JDBC jdbc;
     private DirectoryCat dirCat;
+    private Async async = new Async();
+    private Ingest ingest = new Ingest();
+    private int shards = 1;
+    private Tombstones tombstones = new Tombstones();
+    private Lsm lsm = new Lsm();
+    private String engine = ENGINE_PATRICIA;
+    private Expansion expansion = new Expansion();
+    private Loading loading = new Loading();
+    private Warmup warmup = new Warmup();
 
     public Core() {
     }
@@ -37,6 +49,10 @@ public class Core {
         return analyzer;
     }
 
+    public void setAnalyzer(Class<?> analyzer) {
+        this.analyzer = analyzer;
+    }
+
     private String makeUrl(String path) {
         final String strip = StringUtils.strip(this.path, "/");
         if (StringUtils.isBlank(strip)) {
@@ -54,6 +70,14 @@ public class Core {
         return makeUrl("api");
     }
 
+    public String getBatchUrl() {
+        return makeUrl("api/batch");
+    }
+
+    public String getPageUrl() {
+        return makeUrl("api/page");
+    }
+
     public String getStatusUrl() {
         return makeUrl("status");
     }
@@ -92,6 +116,100 @@ public class Core {
         this.dirCat = dirCat;
     }
 
+    public Async getAsync() {
+        return async;
+    }
+
+    public void setAsync(Async async) {
+        this.async = async;
+    }
+
+    public Ingest getIngest() {
+        return ingest;
+    }
+
+    public void setIngest(Ingest ingest) {
+        this.ingest = ingest;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public Tombstones getTombstones() {
+        return tombstones;
+    }
+
+    public void setTombstones(Tombstones tombstones) {
+        this.tombstones = tombstones;
+    }
+
+    public Lsm getLsm() {
+        return lsm;
+    }
+
+    public void setLsm(Lsm lsm) {
+        this.lsm = lsm;
+    }
+
+    public Expansion getExpansion() {
+        return expansion;
+    }
+
+    public void setExpansion(Expansion expansion) {
+        this.expansion = expansion;
+    }
+
+    public Loading getLoading() {
+        return loading;
+    }
+
+    public void setLoading(Loading loading) {
+        this.loading = loading;
+    }
+
+    public Warmup getWarmup() {
+        return warmup;
+    }
+
+    public void setWarmup(Warmup warmup) {
+        this.warmup = warmup;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return a core with the same settings, and its own {@link Expansion} so that can be changed without touching this
+     *         one's
+     */
+    public Core copy() {
+        final Core copy = new Core();
+        copy.path = path;
+        copy.analyzer = analyzer;
+        copy.jdbc = jdbc;
+        copy.dirCat = dirCat;
+        copy.async = async;
+        copy.ingest = ingest;
+        copy.shards = shards;
+        copy.tombstones = tombstones;
+        copy.lsm = lsm;
+        copy.engine = engine;
+        copy.expansion = expansion.copy();
+        copy.loading = loading;
+        copy.warmup = warmup;
+        return copy;
+    }
+
     @Override
     public String toString() {
         return String.format("%s:Core=%s", getClass().getCanonicalName(), path);
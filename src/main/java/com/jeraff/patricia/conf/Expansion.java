@@ -0,0 +1,43 @@
+package com.jeraff.patricia.conf;
+
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+
+@JsonAutoDetect
+public class Expansion {
+    private int maxSuffixes = 0;
+    private boolean stopWordVariants = true;
+    private int minGramLength = 1;
+
+    /** @return how many token suffixes a string is indexed under per variant, the whole string included; 0 for all */
+    public int getMaxSuffixes() {
+        return maxSuffixes;
+    }
+
+    public void setMaxSuffixes(int maxSuffixes) {
+        this.maxSuffixes = maxSuffixes;
+    }
+
+    public boolean isStopWordVariants() {
+        return stopWordVariants;
+    }
+
+    public void setStopWordVariants(boolean stopWordVariants) {
+        this.stopWordVariants = stopWordVariants;
+    }
+
+    public int getMinGramLength() {
+        return minGramLength;
+    }
+
+    public void setMinGramLength(int minGramLength) {
+        this.minGramLength = minGramLength;
+    }
+
+    public Expansion copy() {
+        final Expansion copy = new Expansion();
+        copy.maxSuffixes = maxSuffixes;
+        copy.stopWordVariants = stopWordVariants;
+        copy.minGramLength = minGramLength;
+        return copy;
+    }
+}
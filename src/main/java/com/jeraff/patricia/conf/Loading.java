@@ -0,0 +1,30 @@
+package com.jeraff.patricia.conf;
+
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+
+@JsonAutoDetect
+public class Loading {
+    public static final String POLICY_SERVE = "serve";
+    public static final String POLICY_UNAVAILABLE = "unavailable";
+
+    private String policy = POLICY_SERVE;
+    private int retryAfter = 5;
+
+    /** @return what the api does while the core's bootstrap is running: answers from what's loaded, or a 503 */
+    public String getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(String policy) {
+        this.policy = policy;
+    }
+
+    /** @return the seconds a 503 tells clients to wait before trying again */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+}
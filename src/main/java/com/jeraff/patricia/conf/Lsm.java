@@ -0,0 +1,56 @@
+package com.jeraff.patricia.conf;
+
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+
+@JsonAutoDetect
+public class Lsm {
+    public static final String INDEX_ARRAY = "array";
+    public static final String INDEX_FRONT_CODED = "frontCoded";
+    public static final String INDEX_MAPPED = "mapped";
+
+    private boolean enabled = false;
+    private int maxDelta = 50000;
+    private long intervalMillis = 30000;
+    private String index = INDEX_ARRAY;
+    private String directory;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxDelta() {
+        return maxDelta;
+    }
+
+    public void setMaxDelta(int maxDelta) {
+        this.maxDelta = maxDelta;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public void setIndex(String index) {
+        this.index = index;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+}
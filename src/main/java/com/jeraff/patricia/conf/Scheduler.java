@@ -0,0 +1,56 @@
+package com.jeraff.patricia.conf;
+
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+
+@JsonAutoDetect
+public class Scheduler {
+    public static final String MODE_PLATFORM = "platform";
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private String mode = MODE_PLATFORM;
+    private int threads = 0;
+    private int quota = 0;
+    private int queue = 0;
+
+    /**
+     * @return whether tasks run on a shared pool of platform threads, or each on a virtual thread of its own where the
+     *         runtime has them
+     */
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @return how many tasks the cores can have running at once for ingest and persistence: the size of the pool, or
+     *         the permits in virtual mode; 0 for twice the cpus, or 256 in virtual mode
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /** @return how many of those threads one core may have at once; 0 for half of them */
+    public int getQuota() {
+        return quota;
+    }
+
+    public void setQuota(int quota) {
+        this.quota = quota;
+    }
+
+    /** @return how many tasks a core may have waiting before more are turned away; 0 for no limit */
+    public int getQueue() {
+        return queue;
+    }
+
+    public void setQueue(int queue) {
+        this.queue = queue;
+    }
+}
@@ -5,18 +5,18 @@ import com.jeraff.patricia.conf.Core;
 import com.jeraff.patricia.server.handler.ConfigHandler;
 import com.jeraff.patricia.server.handler.CoreHandler;
 import com.jeraff.patricia.server.handler.IndexHandler;
+import com.jeraff.patricia.server.handler.SchedulerData;
+import com.jeraff.patricia.server.ops.WorkScheduler;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.nio.SelectChannelConnector;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,24 +35,21 @@ public class PatriciaServer {
         final Config config = Config.instance(System.getProperties());
         final SelectChannelConnector connector0 = new SelectChannelConnector();
 
-        final List<Future> bootstrapFutures = new ArrayList<Future>();
-        final ContextHandlerCollection contexts = getContexts(config);
-        final ExecutorService pool = Executors.newFixedThreadPool(contexts.getHandlers().length);
+        final WorkScheduler scheduler = new WorkScheduler(config.getScheduler());
+        final ContextHandlerCollection contexts = getContexts(config, scheduler);
 
-        for (ContextHandler handler : (ContextHandler[]) contexts.getHandlers()) {
-            if (handler.getHandler() instanceof CoreHandler) {
-                final CoreHandler coreHandler = (CoreHandler) handler.getHandler();
-                final FutureTask bootstrapFuture = coreHandler.getBootstrapFuture();
-                if (bootstrapFuture != null) {
-                    final Future<?> future = pool.submit(bootstrapFuture);
-                    bootstrapFutures.add(future);
-                }
-            }
+        try {
+            final ObjectName name = new ObjectName(WorkScheduler.class.getCanonicalName() + ":type=Scheduler");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new SchedulerData(scheduler), name);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Couldn't register mbean for the scheduler", e);
         }
 
-        if (!bootstrapFutures.isEmpty()) {
-            for (Future future : bootstrapFutures) {
-                future.get();
+        // the cores load in the background and answer from what they've got in the meantime, so one slow
+        // bootstrap doesn't keep the others offline
+        for (ContextHandler handler : (ContextHandler[]) contexts.getHandlers()) {
+            if (handler.getHandler() instanceof CoreHandler) {
+                ((CoreHandler) handler.getHandler()).startBootstrap();
             }
         }
 
@@ -63,7 +60,7 @@ public class PatriciaServer {
         server.join();
     }
 
-    private static ContextHandlerCollection getContexts(Config config) {
+    private static ContextHandlerCollection getContexts(Config config, WorkScheduler scheduler) {
         final List<ContextHandler> contextHandlers = new ArrayList<ContextHandler>();
         final List<Core> cores = config.getCores();
 
@@ -71,7 +68,7 @@ public class PatriciaServer {
         for (Core core : cores) {
             final ContextHandler apiHandler = new ContextHandler(core.getPath());
             apiHandler.setResourceBase(".");
-            apiHandler.setHandler(new CoreHandler(core, config));
+            apiHandler.setHandler(new CoreHandler(core, config, scheduler));
             apiHandler.setClassLoader(Thread.currentThread().getContextClassLoader());
             contextHandlers.add(apiHandler);
         }
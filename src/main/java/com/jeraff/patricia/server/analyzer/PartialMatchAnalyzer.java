@@ -1,11 +1,28 @@
 package com.jeraff.patricia.server.analyzer;
 
+import com.jeraff.patricia.conf.Expansion;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 
 import java.util.*;
 
+/**
+ * Indexes a string under every run of its tokens that reaches the end, once as it is and once with the stop words
+ * after the first token taken out, plus a {@code ^} key for the whole string if it starts with a stop word. How many
+ * of those keys a string gets can be cut down with an {@link Expansion}, at the price of some lookups that don't
+ * find it anymore.
+ */
 public class PartialMatchAnalyzer implements PatriciaStringAnalyzer {
+    private final Expansion expansion;
+
+    public PartialMatchAnalyzer() {
+        this(new Expansion());
+    }
+
+    public PartialMatchAnalyzer(Expansion expansion) {
+        this.expansion = expansion;
+    }
+
     @Override
     public Set<Map.Entry<String, String>> getIndexEntry(String s) {
         final HashMap<String, String> rtn = new HashMap<String, String>();
@@ -75,7 +92,9 @@ public class PartialMatchAnalyzer implements PatriciaStringAnalyzer {
 
     private HashSet<String> getPartialStrings(String s) {
         final HashSet<String> rtn = new HashSet<String>();
-        rtn.addAll(getPartialsForCleanedString(clean(s, true)));
+        if (expansion.isStopWordVariants()) {
+            rtn.addAll(getPartialsForCleanedString(clean(s, true)));
+        }
 
         final HashSet<String> cleansStopWordsInTact = getPartialsForCleanedString(clean(s, false));
         rtn.addAll(cleansStopWordsInTact);
@@ -133,17 +152,24 @@ public class PartialMatchAnalyzer implements PatriciaStringAnalyzer {
         final ArrayList<String> list = new ArrayList<String>(Arrays.asList(st));
         final HashSet<String> res = new HashSet<String>();
         final Iterator<String> iterator = list.iterator();
+        final int maxSuffixes = expansion.getMaxSuffixes();
+
+        // the whole string always counts as the first suffix, however short it is. It goes in as it was cleaned and
+        // single spaced, which differ when punctuation between words left a double space
+        res.add(cleanedString);
+        int suffixes = 0;
 
-        while (iterator.hasNext()) {
-            if (!list.isEmpty()) {
-                res.add(StringUtils.join(list, " "));
+        while (iterator.hasNext() && (maxSuffixes <= 0 || suffixes < maxSuffixes)) {
+            final String suffix = StringUtils.join(list, " ");
+            if (suffixes == 0 || suffix.length() >= expansion.getMinGramLength()) {
+                res.add(suffix);
+                suffixes++;
             }
 
             iterator.next();
             iterator.remove();
         }
 
-        res.add(cleanedString);
         return res;
     }
 
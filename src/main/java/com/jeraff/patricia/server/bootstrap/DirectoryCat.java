@@ -1,13 +1,16 @@
 package com.jeraff.patricia.server.bootstrap;
 
 import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.server.ops.LoadProgress;
 import com.jeraff.patricia.server.ops.PatriciaOps;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.LineIterator;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.apache.commons.io.input.CountingInputStream;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,10 +19,12 @@ public class DirectoryCat implements Bootstrap {
 
     private Core core;
     private PatriciaOps patriciaTrieOps;
+    private LoadProgress progress;
 
-    public DirectoryCat(Core core, PatriciaOps patriciaTrieOps) {
+    public DirectoryCat(Core core, PatriciaOps patriciaTrieOps, LoadProgress progress) {
         this.core = core;
         this.patriciaTrieOps = patriciaTrieOps;
+        this.progress = progress;
     }
 
     @Override
@@ -29,17 +34,33 @@ public class DirectoryCat implements Bootstrap {
         final FileFilter fileFilter = new WildcardFileFilter(dirCat.getPattern());
         final File[] files = dir.listFiles(fileFilter);
 
+        // progress is counted in bytes, which is what we know the total of
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        progress.setTotal(total);
+
         int i = 0;
         for (File file : files) {
-            final LineIterator iterator = FileUtils.lineIterator(file, dirCat.getEncoding());
-            while (iterator.hasNext()) {
-                final String string = iterator.next();
-                patriciaTrieOps.put(new String[]{string}, core.getJdbc() != null);
-                i++;
-
-                if (log.isLoggable(Level.INFO)) {
-                    log.log(Level.INFO, "Bootstrap: {0} in {1}", new Object[]{string, core});
+            final CountingInputStream in = new CountingInputStream(new FileInputStream(file));
+            final LineIterator iterator = new LineIterator(new InputStreamReader(in, dirCat.getEncoding()));
+            try {
+                long read = 0;
+                while (iterator.hasNext()) {
+                    final String string = iterator.next();
+                    patriciaTrieOps.put(new String[]{string}, core.getJdbc() != null);
+                    i++;
+
+                    progress.advance(1, in.getByteCount() - read);
+                    read = in.getByteCount();
+
+                    if (log.isLoggable(Level.INFO)) {
+                        log.log(Level.INFO, "Bootstrap: {0} in {1}", new Object[]{string, core});
+                    }
                 }
+            } finally {
+                LineIterator.closeQuietly(iterator);
             }
         }
 
@@ -1,6 +1,7 @@
 package com.jeraff.patricia.server.bootstrap;
 
 import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.server.ops.LoadProgress;
 import com.jeraff.patricia.server.ops.PatriciaOps;
 
 import java.sql.*;
@@ -14,10 +15,12 @@ public class JDBC implements Bootstrap {
 
     private Core core;
     private PatriciaOps ops;
+    private LoadProgress progress;
 
-    public JDBC(Core core, PatriciaOps ops) {
+    public JDBC(Core core, PatriciaOps ops, LoadProgress progress) {
         this.core = core;
         this.ops = ops;
+        this.progress = progress;
     }
 
     public Connection getJdbcConnection() {
@@ -39,6 +42,10 @@ public class JDBC implements Bootstrap {
         }
     }
 
+    /**
+     * @return false if there's no database to load from
+     * @throws SQLException if loading fails part of the way through, since what's loaded so far isn't the table
+     */
     public boolean bootstrap() throws Exception {
         Connection connection = null;
         int numInserted = 0;
@@ -57,6 +64,8 @@ public class JDBC implements Bootstrap {
             final Statement statement = connection.createStatement();
             int columnIndex = 0;
 
+            progress.setTotal(countRows(statement, core.getJdbc().getTable()));
+
             int offset = 0;
             ResultSet rs = statement.executeQuery(
                     createSelectQuery(
@@ -81,6 +90,7 @@ public class JDBC implements Bootstrap {
                 String string = rs.getString(columnIndex);
                 ops.put(new String[]{string}, false);
                 numInserted++;
+                progress.advance(1, 1);
 
                 if (log.isLoggable(Level.INFO)) {
                     log.log(Level.INFO, "Bootstrap: {0} in {1}", new Object[]{string, core});
@@ -97,8 +107,6 @@ public class JDBC implements Bootstrap {
                     rs.previous();
                 }
             }
-        } catch (SQLException e) {
-            log.log(Level.SEVERE, "Bootstrap error", e);
         } finally {
             if (connection != null) {
                 try {
@@ -113,6 +121,21 @@ public class JDBC implements Bootstrap {
         return true;
     }
 
+    /** @return how many rows the table has, or -1 if it won't say */
+    private long countRows(Statement statement, String table) {
+        try {
+            final ResultSet rs = statement.executeQuery(String.format("SELECT COUNT(*) FROM %s", table));
+            try {
+                return rs.next() ? rs.getLong(1) : -1;
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            log.log(Level.WARNING, "Couldn't count the rows in " + table, e);
+            return -1;
+        }
+    }
+
     private String createSelectQuery(String table, String stringColumn, String orderColumn, int offset) {
         String sql = String.format("SELECT %s from %s ORDER BY %s ASC LIMIT %d OFFSET %d",
                                    stringColumn, table, orderColumn, LIMIT, offset);
@@ -1,24 +1,46 @@
 package com.jeraff.patricia.server.handler;
 
 import com.jeraff.patricia.client.IndexEntry;
+import com.jeraff.patricia.client.PageResponse;
+import com.jeraff.patricia.conf.Async;
 import com.jeraff.patricia.conf.Config;
 import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.conf.Loading;
+import com.jeraff.patricia.server.ops.CoreStorage;
 import com.jeraff.patricia.server.ops.Entry;
+import com.jeraff.patricia.server.ops.LoadProgress;
+import com.jeraff.patricia.server.ops.PatriciaOps;
+import com.jeraff.patricia.server.ops.QueryLog;
+import com.jeraff.patricia.server.ops.Reindexer;
 import com.jeraff.patricia.util.Method;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonNode;
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.server.Request;
-import org.limewire.collection.PatriciaTrie;
 
-import javax.management.MBeanServer;
-import javax.management.ObjectName;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.lang.management.ManagementFactory;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 public class ApiHandler extends BaseHandler {
@@ -29,27 +51,65 @@ public class ApiHandler extends BaseHandler {
     public static final String HEADER_CONNECTION = "Connection";
     public static final String HEADER_CONNECTION_KEEP_ALIVE = "Keep-Alive";
     public static final String HEADER_HASH = "X-Patricia-HASH";
+    public static final String HEADER_LOADING = "X-Patricia-Loading";
 
     public static final String GZIP = "gzip";
     public static final String UTF_8 = "UTF-8";
     public static final String QUEUED = "queued";
+    public static final String REMOVED = "removed";
+    public static final String HEADER_RETRY_AFTER = "Retry-After";
+    public static final String ATTR_ASYNC_RESPONDED = ApiHandler.class.getCanonicalName() + ".responded";
+    public static final String ATTR_ASYNC_STARTED = ApiHandler.class.getCanonicalName() + ".started";
+    public static final String ATTR_ASYNC_PARAMS = ApiHandler.class.getCanonicalName() + ".params";
 
-    public ApiHandler(PatriciaTrie<String, String> patriciaTrie, Core core, Config config) {
-        super(patriciaTrie, core, config);
+    public static final String PATH_BATCH = "batch";
+    public static final String TARGET_BATCH = CoreHandler.TARGET_API + "/" + PATH_BATCH;
+    public static final String PATH_PAGE = "page";
+    public static final String TARGET_PAGE = CoreHandler.TARGET_API + "/" + PATH_PAGE;
+    public static final String PATH_INGEST = "ingest";
+    public static final String TARGET_INGEST = CoreHandler.TARGET_API + "/" + PATH_INGEST;
+    public static final String PATH_REINDEX = "reindex";
+    public static final String TARGET_REINDEX = CoreHandler.TARGET_API + "/" + PATH_REINDEX;
+    public static final String PATH_READY = "ready";
+    public static final String TARGET_READY = CoreHandler.TARGET_API + "/" + PATH_READY;
 
-        try {
-            final ObjectName name = core.getMBeanName();
-            final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
-            mbs.registerMBean(new CoreData(patriciaTrie, core), name);
-        } catch (Exception e) {
-            log.log(Level.WARNING, "Couldn't register mbean for core: " + core.getPath(), e);
-        }
+    public static final String CONTENT_TYPE_NDJSON = "application/x-ndjson";
+    public static final int DEFAULT_INGEST_BATCH_SIZE = 500;
+    public static final int MAX_INGEST_BATCH_SIZE = 10000;
+    public static final int MAX_INGEST_LINE_LENGTH = 64 * 1024;
+
+    private ExecutorService asyncExecutor;
+    private Reindexer reindexer;
+    private LoadProgress progress;
+    private QueryLog queryLog;
+
+    public ApiHandler(PatriciaOps patriciaTrieOps, Reindexer reindexer, LoadProgress progress, QueryLog queryLog,
+                      Core core, Config config) {
+        super(patriciaTrieOps, core, config);
+        this.reindexer = reindexer;
+        this.progress = progress;
+        this.queryLog = queryLog;
+
+        final Async async = core.getAsync();
+        final String canonicalCoreName = core.canonicalName();
+        this.asyncExecutor = new ThreadPoolExecutor(async.getThreads(), async.getThreads(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(async.getQueue()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "ApiHandler.AsyncPool." + canonicalCoreName);
+            }
+        });
     }
 
     public ApiHandler() {
     }
 
     public ApiMethodResult get(Params params) throws IOException {
+        if (params.getHashes() != null) {
+            return getByHash(params);
+        }
+
+        queryLog.record(params.getFirstKey());
         final List<Entry> prefixedBy = patriciaTrieOps.getPrefixedBy(params.getFirstKey());
         final ApiMethodResult apiMethodResult = new ApiMethodResult(prefixedBy);
 
@@ -60,6 +120,191 @@ public class ApiHandler extends BaseHandler {
         return apiMethodResult;
     }
 
+    public ApiMethodResult getByHash(Params params) throws IOException {
+        final Entry entry = patriciaTrieOps.getByHash(params.getHashes()[0]);
+        final List<Entry> result = new ArrayList<Entry>(1);
+        final ApiMethodResult apiMethodResult = new ApiMethodResult(result);
+
+        if (entry == null) {
+            apiMethodResult.setStatus(HttpServletResponse.SC_NOT_FOUND);
+        } else {
+            result.add(entry);
+        }
+
+        return apiMethodResult;
+    }
+
+    public ApiMethodResult batch(Params params) throws IOException {
+        for (String string : params.getStrings()) {
+            queryLog.record(string);
+        }
+        return new ApiMethodResult(patriciaTrieOps.getPrefixedBy(params.getStrings()));
+    }
+
+    public ApiMethodResult page(Params params) throws IOException {
+        final PageResponse page = (params.getFrom() != null)
+                ? patriciaTrieOps.getRange(params.getFrom(), params.getTo(), params.getCursor(), params.getOffset(),
+                        params.getLimit())
+                : patriciaTrieOps.getPrefixedBy(params.getFirstKey(), params.getCursor(), params.getOffset(),
+                        params.getLimit());
+
+        return new ApiMethodResult(page);
+    }
+
+    /**
+     * Reads the request body one line at a time and feeds it to the trie in batches, so memory stays flat
+     * no matter how big the upload is. Lines are plain strings unless the body is NDJSON, in which case each
+     * line is either a JSON string or an object with an "s" field. A line longer than
+     * {@link #MAX_INGEST_LINE_LENGTH} is skipped rather than held on to.
+     * <p>
+     * Whatever's been added stays added if the upload breaks off, so the answer says how far it got rather than
+     * just that it failed.
+     */
+    public ApiMethodResult ingest(HttpServletRequest request) throws IOException {
+        final long start = System.currentTimeMillis();
+        final boolean ndjson = isNdjson(request);
+        final int batchSize = getIngestBatchSize(request);
+        final String encoding = (request.getCharacterEncoding() != null) ? request.getCharacterEncoding() : UTF_8;
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), encoding));
+        final List<String> batch = new ArrayList<String>(batchSize);
+        final StringBuilder line = new StringBuilder();
+
+        long lines = 0, strings = 0, skipped = 0, errors = 0, tooLong = 0, batches = 0;
+        Exception failure = null;
+
+        try {
+            int length;
+            while ((length = readLine(reader, line, MAX_INGEST_LINE_LENGTH)) >= 0) {
+                lines++;
+
+                if (length > MAX_INGEST_LINE_LENGTH) {
+                    tooLong++;
+                    continue;
+                }
+
+                final String string = ndjson ? parseNdjsonLine(line.toString()) : StringUtils.trim(line.toString());
+                if (string == null) {
+                    errors++;
+                    continue;
+                } else if (string.length() == 0) {
+                    skipped++;
+                    continue;
+                }
+
+                batch.add(string);
+                if (batch.size() == batchSize) {
+                    patriciaTrieOps.put(batch.toArray(new String[batch.size()]));
+                    strings += batch.size();
+                    batches++;
+                    batch.clear();
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                patriciaTrieOps.put(batch.toArray(new String[batch.size()]));
+                strings += batch.size();
+                batches++;
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Ingest broke off after " + lines + " lines for core: " + core.getPath(), e);
+            failure = e;
+        }
+
+        final long millis = System.currentTimeMillis() - start;
+        final LinkedHashMap<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("lines", lines);
+        result.put("strings", strings);
+        result.put("skipped", skipped);
+        result.put("errors", errors);
+        result.put("tooLong", tooLong);
+        result.put("batches", batches);
+        result.put("millis", millis);
+        result.put("perSecond", (millis == 0) ? strings * 1000 : strings * 1000 / millis);
+
+        final ApiMethodResult apiMethodResult = new ApiMethodResult(result);
+        if (failure != null) {
+            result.put("error", String.valueOf(failure.getMessage()));
+            if (strings == 0) {
+                apiMethodResult.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        }
+        return apiMethodResult;
+    }
+
+    /**
+     * Reads the next line, ended by "\n", "\r" or "\r\n", into {@code line}, keeping at most {@code max} chars of it.
+     * The rest of a longer line is read past and dropped.
+     *
+     * @return how long the whole line was, or -1 at the end of the stream
+     */
+    private static int readLine(BufferedReader reader, StringBuilder line, int max) throws IOException {
+        line.setLength(0);
+
+        int length = 0;
+        int c;
+        while ((c = reader.read()) >= 0) {
+            if (c == '\n') {
+                return length;
+            } else if (c == '\r') {
+                reader.mark(1);
+                if (reader.read() != '\n') {
+                    reader.reset();
+                }
+                return length;
+            }
+
+            if (length < max) {
+                line.append((char) c);
+            }
+            length++;
+        }
+
+        return (length == 0) ? -1 : length;
+    }
+
+    private String parseNdjsonLine(String line) {
+        if (StringUtils.isBlank(line)) {
+            return "";
+        }
+
+        try {
+            final JsonNode node = objectMapper.readTree(line);
+            if (node.isTextual()) {
+                return StringUtils.trim(node.getTextValue());
+            } else if (node.isObject() && node.has(Params.PARAM_S) && node.get(Params.PARAM_S).isTextual()) {
+                return StringUtils.trim(node.get(Params.PARAM_S).getTextValue());
+            }
+        } catch (IOException e) {
+            log.log(Level.FINE, "Unparseable NDJSON line", e);
+        }
+
+        return null;
+    }
+
+    private static boolean isNdjson(HttpServletRequest request) {
+        final String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase().startsWith(CONTENT_TYPE_NDJSON);
+    }
+
+    /**
+     * Reads the batch size off the query string by hand: {@link HttpServletRequest#getParameter(String)} would have
+     * the container read a form encoded body into memory before the stream's handed over, which is the whole upload.
+     */
+    private static int getIngestBatchSize(HttpServletRequest request) throws IOException {
+        for (String pair : StringUtils.split(StringUtils.defaultString(request.getQueryString()), '&')) {
+            try {
+                if (Params.PARAM_BATCH_SIZE.equals(URLDecoder.decode(StringUtils.substringBefore(pair, "="), UTF_8))) {
+                    final String batchSize = URLDecoder.decode(StringUtils.substringAfter(pair, "="), UTF_8);
+                    return Math.max(1, Math.min(MAX_INGEST_BATCH_SIZE, Integer.parseInt(batchSize)));
+                }
+            } catch (IllegalArgumentException iae) {
+                // a bad escape or not a number, same as leaving it off
+            }
+        }
+
+        return DEFAULT_INGEST_BATCH_SIZE;
+    }
+
     public ApiMethodResult post(Params params) throws IOException {
         final HashMap<String,IndexEntry> result = patriciaTrieOps.put(params.getStrings());
         return new ApiMethodResult(result);
@@ -67,7 +312,12 @@ public class ApiHandler extends BaseHandler {
 
     public ApiMethodResult put(Params params) throws IOException {
         final String[] strings = params.getStrings();
-        patriciaTrieOps.enqueue(strings);
+        if (!patriciaTrieOps.enqueue(strings)) {
+            final ApiMethodResult apiMethodResult = new ApiMethodResult();
+            apiMethodResult.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            apiMethodResult.addHeader(HEADER_RETRY_AFTER, 1);
+            return apiMethodResult;
+        }
 
         final HashMap<String, Integer> result = new HashMap<String, Integer>();
         result.put(QUEUED, strings.length);
@@ -76,9 +326,99 @@ public class ApiHandler extends BaseHandler {
     }
 
     public ApiMethodResult delete(Params params) throws IOException {
+        if (params.getHashes() != null) {
+            return new ApiMethodResult(patriciaTrieOps.removeByHash(params.getHashes()));
+        }
+
         return new ApiMethodResult(patriciaTrieOps.remove(params.getStrings()));
     }
 
+    public ApiMethodResult purge(Params params) throws IOException {
+        final HashMap<String, Integer> result = new HashMap<String, Integer>();
+        result.put(REMOVED, patriciaTrieOps.purge(params.getPrefix()));
+
+        return new ApiMethodResult(result);
+    }
+
+    /** 200 once the core's loaded and warmed up, 503 until then, for a load balancer to wait on. */
+    public ApiMethodResult ready() {
+        final LinkedHashMap<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("ready", progress.isReady());
+        result.put("state", progress.getState());
+        result.put("percent", progress.getPercent());
+        if (queryLog.isEnabled()) {
+            result.put("warmed", queryLog.getWarmed());
+            result.put("warmupMillis", queryLog.getWarmupMillis());
+        }
+
+        final ApiMethodResult apiMethodResult = new ApiMethodResult(result);
+        if (!progress.isReady()) {
+            apiMethodResult.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        return apiMethodResult;
+    }
+
+    /**
+     * Starts rebuilding the core in the background from {@code source}, with whichever of the analyzer, expansion
+     * and engine settings are given in place of the core's own. The core keeps serving from what it has until the
+     * new storage is swapped in.
+     */
+    public ApiMethodResult reindex(HttpServletRequest request) throws ParamValidationError {
+        if (CoreStorage.isMapped(core)) {
+            throw new ParamValidationError(HttpServletResponse.SC_CONFLICT,
+                    "A core with a mapped lsm index can't be reindexed");
+        } else if (progress.isLoading()) {
+            throw new ParamValidationError(HttpServletResponse.SC_CONFLICT, "The core is still loading");
+        }
+
+        final Core target = reindexer.newTarget();
+        try {
+            final String analyzer = getParameter(request, Params.PARAM_ANALYZER);
+            if (analyzer != null) {
+                target.setAnalyzer(Class.forName(analyzer));
+            }
+
+            final String maxSuffixes = getParameter(request, Params.PARAM_MAX_SUFFIXES);
+            if (maxSuffixes != null) {
+                target.getExpansion().setMaxSuffixes(Integer.parseInt(maxSuffixes));
+            }
+
+            final String stopWordVariants = getParameter(request, Params.PARAM_STOP_WORD_VARIANTS);
+            if (stopWordVariants != null) {
+                target.getExpansion().setStopWordVariants(Boolean.parseBoolean(stopWordVariants));
+            }
+
+            final String minGramLength = getParameter(request, Params.PARAM_MIN_GRAM_LENGTH);
+            if (minGramLength != null) {
+                target.getExpansion().setMinGramLength(Integer.parseInt(minGramLength));
+            }
+
+            final String engine = getParameter(request, Params.PARAM_ENGINE);
+            if (engine != null) {
+                target.setEngine(engine);
+            }
+        } catch (ClassNotFoundException e) {
+            throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, "Unknown analyzer: " + e.getMessage());
+        } catch (NumberFormatException e) {
+            throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, "Not a number: " + e.getMessage());
+        }
+
+        final boolean started;
+        try {
+            started = reindexer.start(target, getParameter(request, Params.PARAM_SOURCE));
+        } catch (IllegalArgumentException e) {
+            throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+        }
+
+        final ApiMethodResult apiMethodResult = new ApiMethodResult(reindexer.getStatus());
+        apiMethodResult.setStatus(started ? HttpServletResponse.SC_ACCEPTED : HttpServletResponse.SC_CONFLICT);
+        return apiMethodResult;
+    }
+
+    private static String getParameter(HttpServletRequest request, String name) {
+        return StringUtils.trimToNull(request.getParameter(name));
+    }
+
     public ApiMethodResult head(Params params) throws IOException {
         final ApiMethodResult apiMethodResult = new ApiMethodResult();
         final String firstKey = params.getFirstKey();
@@ -86,7 +426,7 @@ public class ApiHandler extends BaseHandler {
 
         if (count == 0 && firstKey != null) {
             apiMethodResult.setStatus(HttpServletResponse.SC_NOT_FOUND);
-        } else {
+        } else if (firstKey != null) {
             apiMethodResult.addHeader(HEADER_HASH, patriciaTrieOps.getHash(firstKey));
         }
 
@@ -97,9 +437,66 @@ public class ApiHandler extends BaseHandler {
     @Override
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
             throws IOException, ServletException {
-        final Params params = new Params(request);
+        final Continuation continuation = ContinuationSupport.getContinuation(request);
+        if (continuation.isExpired()) {
+            handleAsyncTimeout(request, response);
+            baseRequest.setHandled(true);
+            return;
+        }
+
+        final String action = StringUtils.strip(target, "/");
         final Method method = Method.valueOf(baseRequest.getMethod());
 
+        if (TARGET_REINDEX.equals(action)) {
+            handleReindex(method, request, response);
+            baseRequest.setHandled(true);
+            return;
+        }
+
+        if (TARGET_READY.equals(action)) {
+            if (method == Method.GET || method == Method.HEAD) {
+                writeApiResponse(request, response, ready());
+            } else {
+                response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            }
+            baseRequest.setHandled(true);
+            return;
+        }
+
+        if (progress.isLoading()) {
+            if (Loading.POLICY_UNAVAILABLE.equals(core.getLoading().getPolicy())) {
+                final ApiMethodResult apiMethodResult = new ApiMethodResult();
+                apiMethodResult.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                apiMethodResult.addHeader(HEADER_RETRY_AFTER, core.getLoading().getRetryAfter());
+                apiMethodResult.addHeader(HEADER_LOADING, getLoadingPercent());
+                writeApiResponse(request, response, apiMethodResult);
+                baseRequest.setHandled(true);
+                return;
+            }
+
+            // whatever's answered from here on only covers what's been loaded so far
+            response.setHeader(HEADER_LOADING, getLoadingPercent());
+        }
+
+        if (TARGET_INGEST.equals(action)) {
+            handleIngest(method, continuation, request, response);
+            baseRequest.setHandled(true);
+            return;
+        }
+
+        final Params params = new Params(request);
+        if (TARGET_BATCH.equals(action)) {
+            handleBatch(method, params, request, response);
+            baseRequest.setHandled(true);
+            return;
+        }
+
+        if (TARGET_PAGE.equals(action)) {
+            handlePage(method, params, request, response);
+            baseRequest.setHandled(true);
+            return;
+        }
+
         try {
             params.validate(method);
         } catch (ParamValidationError validationError) {
@@ -108,13 +505,25 @@ public class ApiHandler extends BaseHandler {
             return;
         }
 
+        if (isAsync(method, params)) {
+            request.setAttribute(ATTR_ASYNC_PARAMS, params);
+            dispatchAsync(method, new Callable<ApiMethodResult>() {
+                @Override
+                public ApiMethodResult call() throws Exception {
+                    return (method == Method.POST) ? post(params) : delete(params);
+                }
+            }, core.getAsync().getTimeout(), continuation, request, response);
+            baseRequest.setHandled(true);
+            return;
+        }
+
         ApiMethodResult apiMethodResult = null;
         switch (method) {
             case GET:
                 apiMethodResult = get(params);
                 break;
             case DELETE:
-                apiMethodResult = delete(params);
+                apiMethodResult = (params.getPrefix() != null) ? purge(params) : delete(params);
                 break;
             case HEAD:
                 apiMethodResult = head(params);
@@ -131,6 +540,186 @@ public class ApiHandler extends BaseHandler {
         baseRequest.setHandled(true);
     }
 
+    /**
+     * Bulk mutations don't get to hold on to a Jetty thread while they churn through the trie.
+     * Once a POST or DELETE carries at least {@link Async#getThreshold()} strings the request is
+     * suspended and finished on the core's async pool, which leaves the request threads to the lookups.
+     */
+    private boolean isAsync(Method method, Params params) {
+        return asyncExecutor != null
+                && (method == Method.POST || method == Method.DELETE)
+                && params.getStrings() != null
+                && params.getStrings().length >= core.getAsync().getThreshold();
+    }
+
+    /**
+     * Suspends the request and finishes it on the async pool.
+     *
+     * @param timeout how long the client waits for an answer, in milliseconds, or 0 for as long as it takes
+     */
+    private void dispatchAsync(final Method method, final Callable<ApiMethodResult> work, long timeout,
+                               final Continuation continuation, final HttpServletRequest request,
+                               final HttpServletResponse response) throws IOException {
+        final AtomicBoolean responded = new AtomicBoolean(false);
+        final AtomicBoolean started = new AtomicBoolean(false);
+        request.setAttribute(ATTR_ASYNC_RESPONDED, responded);
+        request.setAttribute(ATTR_ASYNC_STARTED, started);
+
+        continuation.setTimeout(timeout);
+        continuation.suspend();
+
+        try {
+            asyncExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // the timeout got there first and the client's been told to send it again
+                    if (!started.compareAndSet(false, true)) {
+                        return;
+                    }
+
+                    try {
+                        final ApiMethodResult apiMethodResult = work.call();
+
+                        if (responded.compareAndSet(false, true)) {
+                            writeApiResponse(request, response, apiMethodResult);
+                            continuation.complete();
+                        }
+                    } catch (Exception e) {
+                        log.log(Level.SEVERE, "Async " + method + " failed for core: " + core.getPath(), e);
+                        if (responded.compareAndSet(false, true)) {
+                            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                            continuation.complete();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (responded.compareAndSet(false, true)) {
+                final ApiMethodResult apiMethodResult = new ApiMethodResult();
+                apiMethodResult.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                apiMethodResult.addHeader(HEADER_RETRY_AFTER, 1);
+                writeApiResponse(request, response, apiMethodResult);
+                continuation.complete();
+            }
+        }
+    }
+
+    /**
+     * An upload takes as long as the client takes to send it, and it's being added all the while, so it isn't timed
+     * out: the client would be told it failed while the strings kept going in.
+     */
+    private void handleIngest(Method method, Continuation continuation, final HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        if (method != Method.POST && method != Method.PUT) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        dispatchAsync(method, new Callable<ApiMethodResult>() {
+            @Override
+            public ApiMethodResult call() throws Exception {
+                return ingest(request);
+            }
+        }, 0, continuation, request, response);
+    }
+
+    /**
+     * Work that hasn't started by the time it's up is cancelled, and the client's told to try again. Work that has
+     * started is left to finish, since stopping a write half way helps nobody, and the client's told it's been
+     * accepted instead, with the hashes to look the strings up by once it's done.
+     */
+    private void handleAsyncTimeout(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final AtomicBoolean responded = (AtomicBoolean) request.getAttribute(ATTR_ASYNC_RESPONDED);
+        if (responded != null && !responded.compareAndSet(false, true)) {
+            return;
+        }
+
+        final AtomicBoolean started = (AtomicBoolean) request.getAttribute(ATTR_ASYNC_STARTED);
+        if (started != null && !started.compareAndSet(false, true)) {
+            writeApiResponse(request, response, accepted((Params) request.getAttribute(ATTR_ASYNC_PARAMS)));
+            return;
+        }
+
+        final ApiMethodResult apiMethodResult = new ApiMethodResult();
+        apiMethodResult.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        apiMethodResult.addHeader(HEADER_RETRY_AFTER, 1);
+        writeApiResponse(request, response, apiMethodResult);
+    }
+
+    /** @return a 202 for a POST or DELETE that's still going, with the hashes of the strings it's writing */
+    private ApiMethodResult accepted(Params params) {
+        final LinkedHashMap<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("status", "running");
+
+        if (params != null && params.getHashes() != null) {
+            result.put("hashes", Arrays.asList(params.getHashes()));
+        } else if (params != null && params.getStrings() != null) {
+            final List<String> hashes = new ArrayList<String>(params.getStrings().length);
+            for (String string : params.getStrings()) {
+                hashes.add(patriciaTrieOps.getHash(string));
+            }
+            result.put("hashes", hashes);
+        }
+
+        final ApiMethodResult apiMethodResult = new ApiMethodResult(result);
+        apiMethodResult.setStatus(HttpServletResponse.SC_ACCEPTED);
+        return apiMethodResult;
+    }
+
+    private void handleBatch(Method method, Params params, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        if (method != Method.GET && method != Method.POST) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        try {
+            params.validateBatch();
+        } catch (ParamValidationError validationError) {
+            handleValidationError(validationError, response);
+            return;
+        }
+
+        writeApiResponse(request, response, batch(params));
+    }
+
+    /** @return how much of the bootstrap's done, as a whole percentage, or -1 if it can't tell */
+    private String getLoadingPercent() {
+        return String.valueOf((long) Math.floor(progress.getPercent()));
+    }
+
+    private void handleReindex(Method method, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        if (method == Method.GET) {
+            writeApiResponse(request, response, new ApiMethodResult(reindexer.getStatus()));
+        } else if (method == Method.POST) {
+            try {
+                writeApiResponse(request, response, reindex(request));
+            } catch (ParamValidationError validationError) {
+                handleValidationError(validationError, response);
+            }
+        } else {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+        }
+    }
+
+    private void handlePage(Method method, Params params, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        if (method != Method.GET) {
+            response.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        try {
+            params.validatePage();
+            writeApiResponse(request, response, page(params));
+        } catch (ParamValidationError validationError) {
+            handleValidationError(validationError, response);
+        } catch (IllegalArgumentException e) {
+            handleValidationError(new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage()), response);
+        }
+    }
+
     public void writeApiResponse(HttpServletRequest request, HttpServletResponse response, ApiMethodResult apiMethodResult) throws IOException {
         Object body = apiMethodResult.getBody();
         final String acceptEncodingHeader = request.getHeader(HEADER_ACCEPT_ENCODING);
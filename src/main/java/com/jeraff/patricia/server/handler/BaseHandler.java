@@ -8,7 +8,6 @@ import freemarker.template.Template;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.SerializationConfig;
 import org.eclipse.jetty.server.handler.AbstractHandler;
-import org.limewire.collection.PatriciaTrie;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.PrintWriter;
@@ -48,11 +47,11 @@ public abstract class BaseHandler extends AbstractHandler {
     protected BaseHandler() {
     }
 
-    public BaseHandler(PatriciaTrie<String, String> patriciaTrie, Core core, Config config) {
+    public BaseHandler(PatriciaOps patriciaTrieOps, Core core, Config config) {
         super();
         this.core = core;
         this.config = config;
-        this.patriciaTrieOps = new PatriciaOps(core, patriciaTrie);
+        this.patriciaTrieOps = patriciaTrieOps;
         setupFreemarker();
     }
 
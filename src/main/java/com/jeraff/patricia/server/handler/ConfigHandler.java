@@ -23,6 +23,8 @@ public class ConfigHandler extends ApiHandler {
             map.put("path", c.getPath());
             map.put("addUrl", c.getAddUrl());
             map.put("apiUrl", c.getApiUrl());
+            map.put("batchUrl", c.getBatchUrl());
+            map.put("pageUrl", c.getPageUrl());
             map.put("statusUrl", c.getStatusUrl());
             this.cores.put(c.getPath(), map);
         }
@@ -1,30 +1,196 @@
 package com.jeraff.patricia.server.handler;
 
 import com.jeraff.patricia.conf.Core;
-import org.limewire.collection.PatriciaTrie;
+import com.jeraff.patricia.server.ops.CoreStorage;
+import com.jeraff.patricia.server.ops.LiveStorage;
+import com.jeraff.patricia.server.ops.LoadProgress;
+import com.jeraff.patricia.server.ops.QueryLog;
+import com.jeraff.patricia.server.ops.Reindexer;
+import com.jeraff.patricia.server.ops.IngestQueue;
+import com.jeraff.patricia.server.ops.WorkScheduler;
+
+import java.util.Arrays;
 
 public class CoreData implements CoreDataMBean {
-    private PatriciaTrie<String, String> patriciaTrie;
+    private LiveStorage live;
+    private IngestQueue ingestQueue;
+    private Reindexer reindexer;
+    private LoadProgress progress;
+    private QueryLog queryLog;
+    private WorkScheduler.Lane lane;
     private Core core;
 
     public CoreData() {
     }
 
-    public CoreData(PatriciaTrie<String, String> patriciaTrie, Core core) {
-        this.patriciaTrie = patriciaTrie;
+    public CoreData(LiveStorage live, IngestQueue ingestQueue, Reindexer reindexer, LoadProgress progress,
+                    QueryLog queryLog, WorkScheduler.Lane lane, Core core) {
+        this.live = live;
+        this.ingestQueue = ingestQueue;
+        this.reindexer = reindexer;
+        this.progress = progress;
+        this.queryLog = queryLog;
+        this.lane = lane;
         this.core = core;
     }
 
+    private CoreStorage storage() {
+        return live.get();
+    }
+
     public String getContextPath() {
         return core.getPath();
     }
 
     public String getAnalyzerClass() {
-        return core.getAnalyzer().getCanonicalName();
+        return storage().getCore().getAnalyzer().getCanonicalName();
     }
 
     public int getTrieSize() {
-        return patriciaTrie.size();
+        return storage().size();
+    }
+
+    public int getShardCount() {
+        return storage().getShardCount();
+    }
+
+    public String getShardSizes() {
+        return Arrays.toString(storage().getShardSizes());
+    }
+
+    public int getHashIndexSize() {
+        return storage().getHashIndex().size();
+    }
+
+    public int getTombstones() {
+        return storage().getTombstones();
+    }
+
+    public long getTombstonesCompacted() {
+        return storage().getCompacted();
+    }
+
+    public int getBaseSize() {
+        return storage().getBaseSize();
+    }
+
+    public int getDeltaSize() {
+        return storage().getDeltaSize();
+    }
+
+    public long getFolds() {
+        return storage().getFolds();
+    }
+
+    public int getIngestQueueDepth() {
+        return ingestQueue.getDepth();
+    }
+
+    public int getIngestQueueCapacity() {
+        return ingestQueue.getCapacity();
+    }
+
+    public long getIngestQueueLagMillis() {
+        return ingestQueue.getLagMillis();
+    }
+
+    public long getIngestAccepted() {
+        return ingestQueue.getAccepted();
+    }
+
+    public long getIngestCoalesced() {
+        return ingestQueue.getCoalesced();
+    }
+
+    public long getIngestRejected() {
+        return ingestQueue.getRejected();
+    }
+
+    public long getIngestApplied() {
+        return ingestQueue.getApplied();
+    }
+
+    public long getIndexedStrings() {
+        return storage().getExpansionStats().getStrings();
+    }
+
+    public long getIndexedKeys() {
+        return storage().getExpansionStats().getKeys();
     }
 
+    public double getKeysPerString() {
+        return storage().getExpansionStats().getKeysPerString();
+    }
+
+    public long getMaxKeysPerString() {
+        return storage().getExpansionStats().getMaxKeysPerString();
+    }
+
+    public String getKeysPerStringHistogram() {
+        return storage().getExpansionStats().getHistogram();
+    }
+
+    public String getReindexState() {
+        return reindexer.getState();
+    }
+
+    public String getLoadState() {
+        return progress.getState();
+    }
+
+    public long getLoadedStrings() {
+        return progress.getStrings();
+    }
+
+    public double getLoadRowsPerSecond() {
+        return progress.getRowsPerSecond();
+    }
+
+    public double getLoadPercent() {
+        return progress.getPercent();
+    }
+
+    public long getLoadEtaSeconds() {
+        return progress.getEtaSeconds();
+    }
+
+    public int getQuerySampleSize() {
+        return queryLog.getSampleSize();
+    }
+
+    public long getWarmupQueries() {
+        return queryLog.getWarmed();
+    }
+
+    public long getWarmupMillis() {
+        return queryLog.getWarmupMillis();
+    }
+
+    public int getSchedulerQueued() {
+        return lane.getQueued();
+    }
+
+    public int getSchedulerRunning() {
+        return lane.getRunning();
+    }
+
+    public long getSchedulerCompleted() {
+        return lane.getCompleted();
+    }
+
+    public long getSchedulerFailed() {
+        return lane.getFailed();
+    }
+
+    public long getSchedulerRejected() {
+        return lane.getRejected();
+    }
+
+    public long getSchedulerBusyMillis() {
+        return lane.getBusyMillis();
+    }
+
+    public double getSchedulerShare() {
+        return lane.getShare();
+    }
 }
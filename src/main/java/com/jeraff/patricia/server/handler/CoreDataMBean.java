@@ -6,4 +6,76 @@ public interface CoreDataMBean {
     public String getAnalyzerClass();
 
     public int getTrieSize();
+
+    public int getShardCount();
+
+    public String getShardSizes();
+
+    public int getHashIndexSize();
+
+    public int getTombstones();
+
+    public long getTombstonesCompacted();
+
+    public int getBaseSize();
+
+    public int getDeltaSize();
+
+    public long getFolds();
+
+    public int getIngestQueueDepth();
+
+    public int getIngestQueueCapacity();
+
+    public long getIngestQueueLagMillis();
+
+    public long getIngestAccepted();
+
+    public long getIngestCoalesced();
+
+    public long getIngestRejected();
+
+    public long getIngestApplied();
+
+    public long getIndexedStrings();
+
+    public long getIndexedKeys();
+
+    public double getKeysPerString();
+
+    public long getMaxKeysPerString();
+
+    public String getKeysPerStringHistogram();
+
+    public String getReindexState();
+
+    public String getLoadState();
+
+    public long getLoadedStrings();
+
+    public double getLoadRowsPerSecond();
+
+    public double getLoadPercent();
+
+    public long getLoadEtaSeconds();
+
+    public int getQuerySampleSize();
+
+    public long getWarmupQueries();
+
+    public long getWarmupMillis();
+
+    public int getSchedulerQueued();
+
+    public int getSchedulerRunning();
+
+    public long getSchedulerCompleted();
+
+    public long getSchedulerFailed();
+
+    public long getSchedulerRejected();
+
+    public long getSchedulerBusyMillis();
+
+    public double getSchedulerShare();
 }
@@ -1,67 +1,138 @@
 package com.jeraff.patricia.server.handler;
 
+import com.jeraff.patricia.server.bootstrap.Bootstrap;
 import com.jeraff.patricia.server.bootstrap.DirectoryCat;
 import com.jeraff.patricia.server.bootstrap.JDBC;
 import com.jeraff.patricia.conf.Config;
 import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.server.ops.CoreStorage;
+import com.jeraff.patricia.server.ops.LiveStorage;
+import com.jeraff.patricia.server.ops.LoadProgress;
 import com.jeraff.patricia.server.ops.PatriciaOps;
+import com.jeraff.patricia.server.ops.QueryLog;
+import com.jeraff.patricia.server.ops.Reindexer;
+import com.jeraff.patricia.server.ops.WorkScheduler;
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.jetty.server.Request;
-import org.limewire.collection.CharSequenceKeyAnalyzer;
-import org.limewire.collection.PatriciaTrie;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.Callable;
 import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
 
 public class CoreHandler extends BaseHandler {
     public static final String TARGET_API = "api";
 
     private final WebHandler web;
     private final ApiHandler api;
-    private final PatriciaTrie<String, String> patriciaTrie;
+    private final LiveStorage live;
+    private final WorkScheduler.Lane lane;
+    private final LoadProgress progress = new LoadProgress();
+    private final QueryLog queryLog;
 
-    public CoreHandler(Core core, Config config) {
-        this.patriciaTrie = new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
-        this.patriciaTrieOps = new PatriciaOps(core, patriciaTrie);
+    public CoreHandler(Core core, Config config, WorkScheduler scheduler) {
+        this.live = new LiveStorage(new CoreStorage(core));
+        this.lane = scheduler.lane(core.canonicalName());
+        this.patriciaTrieOps = new PatriciaOps(core, live, lane);
         this.core = core;
-        this.web = new WebHandler(patriciaTrie, core, config);
-        this.api = new ApiHandler(patriciaTrie, core, config);
+        this.queryLog = new QueryLog(core);
+
+        final Reindexer reindexer = new Reindexer(core, live);
+        this.web = new WebHandler(patriciaTrieOps, progress, queryLog, core, config);
+        this.api = new ApiHandler(patriciaTrieOps, reindexer, progress, queryLog, core, config);
+
+        try {
+            final ObjectName name = core.getMBeanName();
+            final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.registerMBean(new CoreData(live, patriciaTrieOps.getIngestQueue(), reindexer, progress, queryLog, lane,
+                    core), name);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Couldn't register mbean for core: " + core.getPath(), e);
+        }
     }
 
     @Override
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
             throws IOException, ServletException {
 
-        if (StringUtils.strip(target, "/").equals(TARGET_API)) {
+        final String action = StringUtils.strip(target, "/");
+        if (action.equals(TARGET_API)
+                || action.equals(ApiHandler.TARGET_BATCH)
+                || action.equals(ApiHandler.TARGET_PAGE)
+                || action.equals(ApiHandler.TARGET_INGEST)
+                || action.equals(ApiHandler.TARGET_REINDEX)
+                || action.equals(ApiHandler.TARGET_READY)) {
             api.handle(target, baseRequest, request, response);
         } else {
             web.handle(target, baseRequest, request, response);
         }
     }
 
-    public FutureTask getBootstrapFuture() {
+    /**
+     * Starts the core's bootstrap and warm-up, if it has either, on a thread of their own, so the scheduler's threads
+     * are left for the cores' ingest and database writes meanwhile. The core isn't ready from here on, so this has to
+     * be called before the server starts taking requests.
+     *
+     * @return the bootstrap, or null if there isn't one
+     */
+    public FutureTask startBootstrap() {
+        final FutureTask future = getBootstrapFuture();
+        if (future != null) {
+            lane.executeLong(future);
+        }
+        return future;
+    }
+
+    /** @return the core's bootstrap and warm-up, or null if it has neither */
+    private FutureTask getBootstrapFuture() {
+        final Bootstrap bootstrap;
         if (core.getDirCat() != null) {
-            return new FutureTask(new Callable() {
-                @Override
-                public Object call() throws Exception {
-                    return new DirectoryCat(core, patriciaTrieOps).bootstrap();
-                }
-            });
+            bootstrap = new DirectoryCat(core, patriciaTrieOps, progress);
+        } else if (core.getJdbc() != null) {
+            bootstrap = new JDBC(core, patriciaTrieOps, progress);
+        } else if (queryLog.isEnabled()) {
+            bootstrap = null;
+        } else {
+            return null;
         }
 
-        if (core.getJdbc() != null) {
-            return new FutureTask(new Callable() {
-                @Override
-                public Object call() throws Exception {
-                    return new JDBC(core, patriciaTrieOps).bootstrap();
-                }
-            });
+        if (bootstrap != null) {
+            progress.start();
+        } else {
+            progress.warming();
         }
 
-        return null;
+        return new FutureTask(new Callable() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    if (bootstrap != null) {
+                        // an empty core isn't ready just because there was nothing to load it from
+                        if (!bootstrap.bootstrap()) {
+                            throw new IllegalStateException("Couldn't get at the strings to bootstrap from");
+                        }
+                        live.get().fold();
+                    }
+
+                    if (queryLog.isEnabled()) {
+                        progress.warming();
+                        queryLog.warm(patriciaTrieOps);
+                    }
+
+                    progress.finish();
+                    return true;
+                } catch (Exception e) {
+                    log.log(Level.SEVERE, "Bootstrap failed for core: " + core.getPath(), e);
+                    progress.fail(e);
+                    throw e;
+                }
+            }
+        });
     }
 }
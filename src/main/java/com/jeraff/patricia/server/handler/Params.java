@@ -2,9 +2,11 @@ package com.jeraff.patricia.server.handler;
 
 import com.jeraff.patricia.util.Method;
 import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.map.ObjectMapper;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.Map;
 
 public class Params {
@@ -12,15 +14,44 @@ public class Params {
     public static final String PARAM_LIMIT = "limit";
     public static final String PARAM_S = "s";
     public static final String PARAM_T = "t";
+    public static final String PARAM_BATCH_SIZE = "batchSize";
+    public static final String PARAM_CURSOR = "cursor";
+    public static final String PARAM_FROM = "from";
+    public static final String PARAM_TO = "to";
+    public static final String PARAM_PREFIX = "prefix";
+    public static final String PARAM_H = "h";
+    public static final String PARAM_SOURCE = "source";
+    public static final String PARAM_ANALYZER = "analyzer";
+    public static final String PARAM_MAX_SUFFIXES = "maxSuffixes";
+    public static final String PARAM_STOP_WORD_VARIANTS = "stopWordVariants";
+    public static final String PARAM_MIN_GRAM_LENGTH = "minGramLength";
+    public static final String PARAM_ENGINE = "engine";
 
     public static final int DEFAULT_LIMIT = 25;
+    public static final int MAX_BATCH_SIZE = 50;
+    public static final int MAX_LIMIT = 1000;
 
+    private static final String CONTENT_TYPE_JSON = "application/json";
     private static final String ERROR_MESSAGE_S_REQUIRED = "\"s\" is a required parameter";
     private static final String ERROR_MESSAGE_S_SINGLE = "Method only accepts a single \"s\" parameter";
+    private static final String ERROR_MESSAGE_S_BATCH = "Batch accepts at most " + MAX_BATCH_SIZE + " \"s\" parameters";
+    private static final String ERROR_MESSAGE_JSON = "Request body must be a JSON array of strings";
+    private static final String ERROR_MESSAGE_PAGE = "Page takes either a single \"s\" parameter or a \"from\" parameter";
+    private static final String ERROR_MESSAGE_DELETE = "Delete takes either \"s\" parameters, \"h\" parameters or a single \"prefix\"";
+    private static final String ERROR_MESSAGE_GET = "Get takes either a single \"s\" or a single \"h\" parameter";
+    private static final String ERROR_MESSAGE_LIMIT = "\"limit\" must be between 1 and " + MAX_LIMIT;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
 
     private String[] strings;
     private int offset = 0;
     private int limit = DEFAULT_LIMIT;
+    private String cursor;
+    private String from;
+    private String to;
+    private String prefix;
+    private String[] hashes;
+    private boolean malformedBody = false;
 
     public Params(HttpServletRequest request) {
         final Map<String, String[]> parameterMap = request.getParameterMap();
@@ -32,6 +63,12 @@ public class Params {
             }
         } else if (parameterMap.containsKey(PARAM_S)) {
             setStrings(parameterMap.get(PARAM_S));
+        } else if (isJson(request)) {
+            try {
+                setStrings(objectMapper.readValue(request.getInputStream(), String[].class));
+            } catch (IOException e) {
+                malformedBody = true;
+            }
         }
 
         final String[] offsets = parameterMap.get(PARAM_OFFSET);
@@ -49,6 +86,21 @@ public class Params {
             } catch (NumberFormatException nfe) {
             }
         }
+
+        cursor = getFirstParameter(parameterMap, PARAM_CURSOR);
+        from = getFirstParameter(parameterMap, PARAM_FROM);
+        to = getFirstParameter(parameterMap, PARAM_TO);
+        prefix = getFirstParameter(parameterMap, PARAM_PREFIX);
+
+        final String[] hashes = parameterMap.get(PARAM_H);
+        if (hashes != null && hashes.length != 0) {
+            this.hashes = hashes;
+        }
+    }
+
+    private static String getFirstParameter(Map<String, String[]> parameterMap, String name) {
+        final String[] values = parameterMap.get(name);
+        return (values != null && values.length != 0 && !values[0].isEmpty()) ? values[0] : null;
     }
 
     public void validate(Method method) throws ParamValidationError {
@@ -68,6 +120,27 @@ public class Params {
         }
     }
 
+    public void validateBatch() throws ParamValidationError {
+        if (malformedBody) {
+            throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_JSON);
+        } else if (strings == null || strings.length == 0) {
+            throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_S_REQUIRED);
+        } else if (strings.length > MAX_BATCH_SIZE) {
+            throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_S_BATCH);
+        }
+    }
+
+    public void validatePage() throws ParamValidationError {
+        final boolean prefix = strings != null && strings.length == 1;
+        if (prefix == (from != null) || (strings != null && strings.length > 1)) {
+            throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_PAGE);
+        } else if (limit < 1 || limit > MAX_LIMIT) {
+            throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_LIMIT);
+        } else if (offset < 0) {
+            offset = 0;
+        }
+    }
+
     private void validatePutPost() throws ParamValidationError {
         if (strings == null || strings.length == 0) {
             throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_S_REQUIRED);
@@ -75,7 +148,11 @@ public class Params {
     }
 
     private void validateGet() throws ParamValidationError {
-        if (strings == null || strings.length == 0) {
+        if (hashes != null) {
+            if (strings != null || hashes.length != 1) {
+                throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_GET);
+            }
+        } else if (strings == null || strings.length == 0) {
             throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_S_REQUIRED);
         } else if (strings.length != 1) {
             throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_S_SINGLE);
@@ -83,7 +160,10 @@ public class Params {
     }
 
     private void validateDelete() throws ParamValidationError {
-        if (strings == null || strings.length == 0) {
+        final int given = ((strings != null) ? 1 : 0) + ((hashes != null) ? 1 : 0) + ((prefix != null) ? 1 : 0);
+        if (given > 1) {
+            throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_DELETE);
+        } else if (given == 0) {
             throw new ParamValidationError(HttpServletResponse.SC_BAD_REQUEST, ERROR_MESSAGE_S_REQUIRED);
         }
     }
@@ -94,6 +174,11 @@ public class Params {
         }
     }
 
+    private static boolean isJson(HttpServletRequest request) {
+        final String contentType = request.getContentType();
+        return contentType != null && contentType.toLowerCase().startsWith(CONTENT_TYPE_JSON);
+    }
+
     public String[] getStrings() {
         return strings;
     }
@@ -128,4 +213,24 @@ public class Params {
     public void setLimit(int limit) {
         this.limit = limit;
     }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getTo() {
+        return to;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String[] getHashes() {
+        return hashes;
+    }
 }
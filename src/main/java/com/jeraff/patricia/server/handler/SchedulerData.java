@@ -0,0 +1,38 @@
+package com.jeraff.patricia.server.handler;
+
+import com.jeraff.patricia.server.ops.WorkScheduler;
+
+public class SchedulerData implements SchedulerDataMBean {
+    private WorkScheduler scheduler;
+
+    public SchedulerData() {
+    }
+
+    public SchedulerData(WorkScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public int getThreads() {
+        return scheduler.getThreads();
+    }
+
+    public int getQuota() {
+        return scheduler.getQuota();
+    }
+
+    public int getStartedThreads() {
+        return scheduler.getStarted();
+    }
+
+    public int getQueued() {
+        return scheduler.getQueued();
+    }
+
+    public int getRunning() {
+        return scheduler.getRunning();
+    }
+
+    public double getUtilization() {
+        return scheduler.getUtilization();
+    }
+}
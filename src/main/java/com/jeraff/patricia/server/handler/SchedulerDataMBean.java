@@ -0,0 +1,15 @@
+package com.jeraff.patricia.server.handler;
+
+public interface SchedulerDataMBean {
+    public int getThreads();
+
+    public int getQuota();
+
+    public int getStartedThreads();
+
+    public int getQueued();
+
+    public int getRunning();
+
+    public double getUtilization();
+}
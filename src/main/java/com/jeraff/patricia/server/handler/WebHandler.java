@@ -3,11 +3,13 @@ package com.jeraff.patricia.server.handler;
 import com.jeraff.patricia.client.IndexEntry;
 import com.jeraff.patricia.conf.Config;
 import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.server.ops.LoadProgress;
+import com.jeraff.patricia.server.ops.PatriciaOps;
+import com.jeraff.patricia.server.ops.QueryLog;
 import com.jeraff.patricia.util.Method;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.SerializationConfig;
 import org.eclipse.jetty.server.Request;
-import org.limewire.collection.PatriciaTrie;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -40,8 +42,13 @@ public class WebHandler extends BaseHandler {
         }
     }
 
-    public WebHandler(PatriciaTrie<String, String> patriciaTrie, Core core, Config config) {
-        super(patriciaTrie, core, config);
+    private LoadProgress progress;
+    private QueryLog queryLog;
+
+    public WebHandler(PatriciaOps patriciaTrieOps, LoadProgress progress, QueryLog queryLog, Core core, Config config) {
+        super(patriciaTrieOps, core, config);
+        this.progress = progress;
+        this.queryLog = queryLog;
     }
 
     @Override
@@ -108,6 +115,9 @@ public class WebHandler extends BaseHandler {
         final Date dateUp = new Date(config.getTime());
 
         rootMap.put("size", size);
+        rootMap.put("expansion", patriciaTrieOps.getExpansionStats());
+        rootMap.put("load", progress);
+        rootMap.put("queryLog", queryLog);
         rootMap.put("upSec", (System.currentTimeMillis() - config.getTime()) / 1000L);
         rootMap.put("upAgo", ago(dateUp));
         rootMap.put("upDate", sdf.format(dateUp));
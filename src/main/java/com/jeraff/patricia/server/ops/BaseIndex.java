@@ -0,0 +1,31 @@
+package com.jeraff.patricia.server.ops;
+
+import java.util.Iterator;
+
+/**
+ * An immutable, sorted set of keys and their values that can be read by position. Shards use one as the base under
+ * their mutable trie, so it only has to be good at being read.
+ */
+public interface BaseIndex {
+    public int size();
+
+    public String keyAt(int index);
+
+    public String valueAt(int index);
+
+    /** @return the position of the first key that isn't less than the given one, or {@link #size()} if there's none */
+    public int ceiling(String key);
+
+    /** @return the key's position, or {@code -(insertion point) - 1} if it isn't there */
+    public int indexOf(String key);
+
+    /** @return the keys from the position on, in order; cheaper than calling {@link #keyAt(int)} for each one */
+    public Iterator<String> keysFrom(int index);
+
+    /** Collects entries for a new index; they have to be added in key order. */
+    public static interface Builder {
+        public void add(String key, String value);
+
+        public BaseIndex build();
+    }
+}
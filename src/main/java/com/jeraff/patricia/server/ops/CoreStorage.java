@@ -0,0 +1,646 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.conf.Expansion;
+import com.jeraff.patricia.conf.Lsm;
+import com.jeraff.patricia.conf.Tombstones;
+import com.jeraff.patricia.server.analyzer.PatriciaStringAnalyzer;
+import org.limewire.collection.Trie;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The tries behind a core. Keys are split across {@code shards} tries by their leading characters, each with its
+ * own read/write lock, so writes to different ranges don't contend and lookups whose prefix spans several shards
+ * run on all of them at once. With a single shard this is just a locked trie, made by the core's {@link TrieEngine}.
+ * <p>
+ * With {@code tombstones} enabled a removal only swaps the value for a marker, which never changes the shape of the
+ * trie. Reads skip the marked keys and a background thread takes them out for real, a batch per write lock.
+ * <p>
+ * With {@code lsm} enabled each shard's trie only holds recent writes: the same background thread folds it into an
+ * immutable sorted index underneath once it reaches {@code maxDelta} keys or every {@code intervalMillis}, merging
+ * outside the shard's lock and swapping the result in under it. See {@link Shard}.
+ */
+public class CoreStorage {
+    public static final int MAX_SHARDS = 256;
+
+    private static final Logger log = Logger.getLogger(CoreStorage.class.getCanonicalName());
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static final String ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    private final Core core;
+    private final Shard[] shards;
+    private final String[] boundaries;
+    private final PatriciaStringAnalyzer analyzer;
+    private final HashIndex hashIndex = new HashIndex();
+    private final ExpansionStats expansionStats = new ExpansionStats();
+    private final ExecutorService fanOutExecutor;
+
+    private final Tombstones tombstones;
+    private final Lsm lsm;
+    private ScheduledExecutorService compactor;
+    private final AtomicLong compacted = new AtomicLong();
+    private final AtomicLong folds = new AtomicLong();
+
+    public CoreStorage(Core core) {
+        final int count = Math.max(1, Math.min(core.getShards(), MAX_SHARDS));
+
+        this.core = core;
+        this.analyzer = newAnalyzer(core);
+
+        final TrieEngine engine = TrieEngine.forName(core.getEngine());
+        final ValueLog values = valueLog(core);
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            final File file = (values == null) ? null : indexFile(core, i, count);
+            shards[i] = new Shard(engine, core.getTombstones().isEnabled(), core.getLsm().getIndex(), file, values);
+        }
+
+        this.boundaries = makeBoundaries(count);
+
+        // threads are only started as they're needed, so a single shard core that's never walked in parallel
+        // doesn't get any
+        final String canonicalCoreName = core.canonicalName();
+        this.fanOutExecutor = Executors.newFixedThreadPool(Math.max(count, PARALLELISM), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "CoreStorage.FanOutPool." + canonicalCoreName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        this.tombstones = core.getTombstones();
+        this.lsm = core.getLsm();
+        if (tombstones.isEnabled() || lsm.isEnabled()) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "CoreStorage.Compactor." + canonicalCoreName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        if (tombstones.isEnabled()) {
+            final long interval = Math.max(1, tombstones.getIntervalMillis());
+            compactor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (Shard shard : shards) {
+                        compact(shard);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        if (lsm.isEnabled()) {
+            final long interval = Math.max(1, lsm.getIntervalMillis());
+            compactor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    for (Shard shard : shards) {
+                        fold(shard);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Makes the core's analyzer, handing it the core's {@link Expansion} if it has a constructor that takes one.
+     */
+    private static PatriciaStringAnalyzer newAnalyzer(Core core) {
+        final Class<?> type = core.getAnalyzer();
+        try {
+            try {
+                return (PatriciaStringAnalyzer) type.getConstructor(Expansion.class).newInstance(core.getExpansion());
+            } catch (NoSuchMethodException e) {
+                return (PatriciaStringAnalyzer) type.getConstructor().newInstance();
+            }
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Couldn't make analyzer " + type.getCanonicalName(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return whether the core keeps its base index in files, which a second storage for it would share */
+    public static boolean isMapped(Core core) {
+        final Lsm lsm = core.getLsm();
+        return lsm.isEnabled() && Lsm.INDEX_MAPPED.equals(lsm.getIndex());
+    }
+
+    /** @return the log a core with a mapped base index keeps its strings in, shared by its shards, or null */
+    private static ValueLog valueLog(Core core) {
+        if (!isMapped(core)) {
+            return null;
+        }
+
+        final File directory = new File(core.getLsm().getDirectory());
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new RuntimeException("Couldn't create " + directory);
+        }
+
+        final File file = new File(directory, core.canonicalName().replace('/', '.') + ".values");
+        try {
+            return new ValueLog(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't open " + file, e);
+        }
+    }
+
+    /**
+     * @return where shard i of a core with a mapped base index keeps it. The shard count is part of the name since
+     *         the ranges change with it.
+     */
+    private static File indexFile(Core core, int i, int count) {
+        final String name = core.canonicalName().replace('/', '.');
+        return new File(core.getLsm().getDirectory(), String.format("%s.%d-of-%d.idx", name, i, count));
+    }
+
+    /**
+     * Splits the two character space over [0-9a-z] into evenly sized ranges. Boundary i is the smallest key that
+     * goes to shard i + 1, so keys outside the alphabet go wherever they sort: ones starting below '0' (space, "-",
+     * ".") land in shard 0, ones after 'z' in the last shard, and ones between '9' and 'a' such as "^" in whichever
+     * shard holds "9z".
+     */
+    private static String[] makeBoundaries(int count) {
+        final int radix = ALPHABET.length();
+        final int cells = radix * radix;
+        final String[] rtn = new String[count - 1];
+
+        for (int i = 1; i < count; i++) {
+            final int cell = (int) ((long) i * cells / count);
+            rtn[i - 1] = new String(new char[]{ALPHABET.charAt(cell / radix), ALPHABET.charAt(cell % radix)});
+        }
+
+        return rtn;
+    }
+
+    /** @return the settings this was built with, which are the core's own from when it's swapped in */
+    public Core getCore() {
+        return core;
+    }
+
+    /** @return the analyzer the strings in here were broken into keys with */
+    public PatriciaStringAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    public HashIndex getHashIndex() {
+        return hashIndex;
+    }
+
+    public ExpansionStats getExpansionStats() {
+        return expansionStats;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    private int shardIndex(String key) {
+        int low = 0;
+        int high = boundaries.length;
+
+        // number of boundaries <= key
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (boundaries[mid].compareTo(key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private Shard shardFor(String key) {
+        return shards[shardIndex(key)];
+    }
+
+    public String get(String key) {
+        return shardFor(key).get(key);
+    }
+
+    public String put(String key, String value) {
+        final Shard shard = shardFor(key);
+        final String previous = shard.put(key, value);
+        maybeCompact(shard);
+        return previous;
+    }
+
+    public String remove(String key) {
+        final Shard shard = shardFor(key);
+        final String previous = shard.remove(key);
+        if (previous != null) {
+            maybeCompact(shard);
+        }
+        return previous;
+    }
+
+    /**
+     * The remapper never sees a marker; a marked key looks absent and removing one marks it.
+     */
+    public String compute(String key, Trie.Remapper<String, String> remapper) {
+        final Shard shard = shardFor(key);
+        final String value = shard.compute(key, remapper);
+        maybeCompact(shard);
+        return value;
+    }
+
+    /** Wakes the compactor once the shard has enough marked keys, or enough unfolded ones. */
+    private void maybeCompact(final Shard shard) {
+        if (compactor == null) {
+            return;
+        }
+
+        final boolean due = (tombstones.isEnabled() && shard.getTombstones() >= tombstones.getThreshold())
+                || (lsm.isEnabled() && shard.getTrieSize() >= lsm.getMaxDelta());
+
+        if (due && shard.compactionQueued.compareAndSet(false, true)) {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    shard.compactionQueued.set(false);
+                    compact(shard);
+                    if (lsm.isEnabled() && shard.getTrieSize() >= lsm.getMaxDelta()) {
+                        fold(shard);
+                    }
+                }
+            });
+        }
+    }
+
+    /** Removes the marked keys for real, holding the shard's write lock for one batch at a time. */
+    private void compact(Shard shard) {
+        final int batchSize = Math.max(1, tombstones.getBatchSize());
+        boolean more = shard.getTombstones() > 0;
+
+        while (more) {
+            shard.lock.writeLock().lock();
+            try {
+                compacted.addAndGet(shard.compact(batchSize));
+                more = shard.hasBuried();
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Folds every shard's trie into its base index, on the compactor thread, and waits for it. Does nothing unless
+     * {@code lsm} is enabled.
+     */
+    public void fold() {
+        if (!lsm.isEnabled()) {
+            return;
+        }
+
+        final Future<?> future = compactor.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (Shard shard : shards) {
+                    compact(shard);
+                    fold(shard);
+                }
+            }
+        });
+
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void fold(Shard shard) {
+        if (shard.fold()) {
+            folds.incrementAndGet();
+        }
+    }
+
+    /** @return how many removed keys are still waiting to be compacted */
+    public int getTombstones() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.getTombstones();
+        }
+        return count;
+    }
+
+    public long getCompacted() {
+        return compacted.get();
+    }
+
+    /** @return how many keys are in the shards' base indexes */
+    public int getBaseSize() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.getBaseSize();
+        }
+        return count;
+    }
+
+    /** @return how many keys are in the shards' tries, waiting to be folded into the base when that's enabled */
+    public int getDeltaSize() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.getTrieSize();
+        }
+        return count;
+    }
+
+    public long getFolds() {
+        return folds.get();
+    }
+
+    /**
+     * Removes every key prefixed by the key from each shard that can hold one.
+     *
+     * @return how many keys were removed
+     */
+    public int removePrefix(String key) {
+        final int first = shardIndex(key);
+        final int last = lastShardIndex(key, first);
+        int removed = 0;
+
+        for (int i = first; i <= last; i++) {
+            removed += shards[i].removePrefix(key);
+            maybeCompact(shards[i]);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Puts all the entries, taking each shard's write lock once. When the entries land on more than one shard the
+     * shards are written in parallel.
+     */
+    public void putAll(List<Map.Entry<String, String>> entries) {
+        if (shards.length == 1) {
+            putAll(shards[0], entries);
+            return;
+        }
+
+        final List<List<Map.Entry<String, String>>> buckets = new ArrayList<List<Map.Entry<String, String>>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            buckets.add(new ArrayList<Map.Entry<String, String>>());
+        }
+
+        for (Map.Entry<String, String> entry : entries) {
+            buckets.get(shardIndex(entry.getKey())).add(entry);
+        }
+
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < shards.length; i++) {
+            final Shard shard = shards[i];
+            final List<Map.Entry<String, String>> bucket = buckets.get(i);
+
+            if (!bucket.isEmpty()) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        putAll(shard, bucket);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        if (tasks.size() == 1) {
+            callUnchecked(tasks.get(0));
+        } else {
+            invokeAll(tasks);
+        }
+    }
+
+    private void putAll(Shard shard, List<Map.Entry<String, String>> entries) {
+        shard.putAll(entries);
+        maybeCompact(shard);
+    }
+
+    /**
+     * Returns up to {@code limit} entries prefixed by the key, in key order. Since the shards are split by range,
+     * concatenating each shard's matches in shard order keeps the whole thing sorted.
+     */
+    public List<Map.Entry<String, String>> getPrefixedBy(final String key, final int limit) {
+        final int first = shardIndex(key);
+        final int last = lastShardIndex(key, first);
+
+        if (first == last) {
+            return getPrefixedBy(shards[first], key, limit);
+        }
+
+        final List<Callable<List<Map.Entry<String, String>>>> tasks =
+                new ArrayList<Callable<List<Map.Entry<String, String>>>>(last - first + 1);
+        for (int i = first; i <= last; i++) {
+            final Shard shard = shards[i];
+            tasks.add(new Callable<List<Map.Entry<String, String>>>() {
+                @Override
+                public List<Map.Entry<String, String>> call() throws Exception {
+                    return getPrefixedBy(shard, key, limit);
+                }
+            });
+        }
+
+        final List<Map.Entry<String, String>> rtn = new ArrayList<Map.Entry<String, String>>(limit);
+        for (List<Map.Entry<String, String>> entries : invokeAll(tasks)) {
+            for (Map.Entry<String, String> entry : entries) {
+                if (rtn.size() == limit) {
+                    return rtn;
+                }
+                rtn.add(entry);
+            }
+        }
+
+        return rtn;
+    }
+
+    /**
+     * Returns up to {@code limit} entries, in key order, whose keys are at least {@code from} and, unless {@code to}
+     * is null, at most {@code to} or prefixed by it. Passing the same key for both gives everything with that prefix.
+     * <p>
+     * A page starts right after {@code after} when it's given, otherwise {@code offset} entries in. Either way the
+     * start is found by position in each shard's trie, so a deep page costs the same as the first one; a shard that
+     * has a base index under its trie walks to it instead.
+     */
+    public List<Map.Entry<String, String>> getRange(String from, String to, String after, int offset, int limit) {
+        final List<Map.Entry<String, String>> rtn = new ArrayList<Map.Entry<String, String>>(limit);
+        final boolean resume = after != null && after.compareTo(from) >= 0;
+        final String start = resume ? after : from;
+        final String end = (to == null) ? null : Shard.successor(to);
+        final int last = (to == null) ? shards.length - 1 : lastShardIndex(to, shardIndex(to));
+        final int[] skip = {resume ? 0 : offset};
+
+        for (int i = shardIndex(start); i <= last && rtn.size() < limit; i++) {
+            shards[i].range(start, resume, end, skip, limit, rtn);
+        }
+
+        return rtn;
+    }
+
+    /** @return the exact number of keys prefixed by the key */
+    public int getPrefixedByCount(String key) {
+        final int first = shardIndex(key);
+        final int last = lastShardIndex(key, first);
+        int count = 0;
+
+        for (int i = first; i <= last; i++) {
+            count += shards[i].getPrefixedByCount(key);
+        }
+
+        return count;
+    }
+
+    private int lastShardIndex(String key, int first) {
+        int last = first;
+
+        // any later shard whose lower bound starts with the key holds some of its matches too
+        while (last < boundaries.length && boundaries[last].startsWith(key)) {
+            last++;
+        }
+
+        return last;
+    }
+
+    private List<Map.Entry<String, String>> getPrefixedBy(Shard shard, String key, int limit) {
+        final List<Map.Entry<String, String>> rtn = new ArrayList<Map.Entry<String, String>>(Math.min(limit, 64));
+        shard.prefixed(key, limit, rtn);
+        return rtn;
+    }
+
+    /**
+     * Hands every entry prefixed by the key (all of them if it's empty) to the cursor, splitting each shard into
+     * pieces of about the same size and walking them all at once on the fan-out pool. The cursor is called from
+     * several threads, in key order within a piece but in no particular order overall. Returning EXIT stops the
+     * whole walk; REMOVE isn't supported since the shards are only read locked.
+     */
+    public void parallelTraverse(final String key, final Trie.Cursor<String, String> cursor) {
+        final int first = key.isEmpty() ? 0 : shardIndex(key);
+        final int last = key.isEmpty() ? shards.length - 1 : lastShardIndex(key, first);
+        final int parts = Math.max(1, PARALLELISM / (last - first + 1));
+        final String end = Shard.successor(key);
+        final AtomicBoolean exit = new AtomicBoolean();
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+        for (int i = first; i <= last; i++) {
+            final Shard shard = shards[i];
+            final List<String> cuts = shard.cuts(key, parts);
+
+            // the pieces are bounded by key, so a write in between only makes them less even
+            for (int j = 0; j <= cuts.size(); j++) {
+                final String low = (j == 0) ? key : cuts.get(j - 1);
+                final String high = (j == cuts.size()) ? end : cuts.get(j);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        shard.walk(low, high, cursor, exit);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        if (tasks.size() == 1) {
+            callUnchecked(tasks.get(0));
+        } else if (!tasks.isEmpty()) {
+            invokeAll(tasks);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /** @return the smallest key, or null if there's nothing stored */
+    public String firstKey() {
+        for (Shard shard : shards) {
+            final String key = shard.firstKey();
+            if (key != null) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /** @return the largest key, or null if there's nothing stored */
+    public String lastKey() {
+        for (int i = shards.length - 1; i >= 0; i--) {
+            final String key = shards[i].lastKey();
+            if (key != null) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /** Number of keys in each shard, handy for checking how evenly the ranges are loaded. */
+    public int[] getShardSizes() {
+        final int[] rtn = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            rtn[i] = shards[i].size();
+        }
+        return rtn;
+    }
+
+    /**
+     * Stops the storage's threads once it's been swapped out. Anything still walking it in parallel gets an error
+     * rather than hanging, so wait for queries to finish first.
+     */
+    public void close() {
+        fanOutExecutor.shutdown();
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        final List<T> rtn = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> future : fanOutExecutor.invokeAll(tasks)) {
+                rtn.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return rtn;
+    }
+
+    private static <T> T callUnchecked(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.jeraff.patricia.server.ops;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How many keys the strings a core indexes turn into, to see what an analyzer's expansion costs. Every string that's
+ * indexed counts, so one that's sent twice is counted twice.
+ */
+public class ExpansionStats {
+    // up to 1, 2, 3-4, 5-8, 9-16, 17-32, 33-64 and 65 or more keys
+    private static final int BUCKETS = 8;
+
+    private final AtomicLong strings = new AtomicLong();
+    private final AtomicLong keys = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    public void record(int count) {
+        strings.incrementAndGet();
+        keys.addAndGet(count);
+        histogram.incrementAndGet(bucket(count));
+
+        long current;
+        while (count > (current = max.get()) && !max.compareAndSet(current, count)) {
+            // lost a race with a bigger one, try again
+        }
+    }
+
+    public long getStrings() {
+        return strings.get();
+    }
+
+    public long getKeys() {
+        return keys.get();
+    }
+
+    public double getKeysPerString() {
+        final long n = strings.get();
+        return (n == 0) ? 0 : (double) keys.get() / n;
+    }
+
+    public long getMaxKeysPerString() {
+        return max.get();
+    }
+
+    /** @return how many strings got how many keys, like {@code "0-1:10 2:0 3-4:52 ... 65+:1"} */
+    public String getHistogram() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < BUCKETS; i++) {
+            final int low = (i == 0) ? 0 : (1 << (i - 1)) + 1;
+            final int high = 1 << i;
+
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            if (i == BUCKETS - 1) {
+                sb.append(low).append('+');
+            } else if (low == high) {
+                sb.append(low);
+            } else {
+                sb.append(low).append('-').append(high);
+            }
+            sb.append(':').append(histogram.get(i));
+        }
+        return sb.toString();
+    }
+
+    private static int bucket(int count) {
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && count > (1 << bucket)) {
+            bucket++;
+        }
+        return bucket;
+    }
+}
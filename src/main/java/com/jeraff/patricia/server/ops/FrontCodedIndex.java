@@ -0,0 +1,478 @@
+package com.jeraff.patricia.server.ops;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A base index that keeps its keys front coded in one byte buffer: keys go in blocks of {@link #BLOCK}, the first of
+ * each written out in full and every other one as the number of chars it shares with the key before it plus the
+ * rest. Since a core's keys are the tails of its strings, neighbours share a lot, and there's no object per key at
+ * all. A char below {@code 0xff} takes a byte, which is nearly every char the analyzer leaves in a key; anything
+ * else is {@code 0xff} followed by its two bytes.
+ * <p>
+ * A lookup binary searches the blocks' first keys in place and then decodes at most one block, which sits in a
+ * single stretch of memory.
+ * <p>
+ * The same layout can be written to a file by {@link Builder#write(File)} and {@link #map(File, ValueLog) mapped}
+ * back, in which case the values aren't in it at all: each key has the offset of its string in the core's
+ * {@link ValueLog}, and a string is only decoded when it's asked for. Nothing but the buffers is on the heap.
+ * Everything is read with absolute gets, so any number of threads can share one.
+ */
+public class FrontCodedIndex implements BaseIndex {
+    public static final int BLOCK = 16;
+
+    private static final int ESCAPE = 0xff;
+    private static final int MAGIC = 0x50545849;
+    private static final int VERSION = 2;
+    private static final int HEADER = 6 * 4;
+
+    private final int size;
+    private final ByteBuffer data;
+    private final IntBuffer blocks;
+
+    // values are either on the heap or, for an index that goes with a value log, offsets into it
+    private final String[] values;
+    private final LongBuffer valueOffsets;
+    private final ValueLog log;
+
+    private FrontCodedIndex(ByteBuffer data, IntBuffer blocks, String[] values) {
+        this.size = values.length;
+        this.data = data;
+        this.blocks = blocks;
+        this.values = values;
+        this.valueOffsets = null;
+        this.log = null;
+    }
+
+    private FrontCodedIndex(ByteBuffer data, IntBuffer blocks, LongBuffer valueOffsets, ValueLog log) {
+        this.size = valueOffsets.limit();
+        this.data = data;
+        this.blocks = blocks;
+        this.values = null;
+        this.valueOffsets = valueOffsets;
+        this.log = log;
+    }
+
+    /**
+     * Maps an index written by {@link Builder#write(File)}, whose values are in the given log. Only the header is
+     * read; the rest is paged in by the OS as lookups touch it, and stays in its page cache across restarts.
+     *
+     * @throws IOException if the file can't be mapped or isn't an index
+     */
+    public static FrontCodedIndex map(File file, ValueLog log) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final MappedByteBuffer buffer;
+        try {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            // the mapping outlives the channel
+            raf.close();
+        }
+
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an index file: " + file);
+        } else if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Index file " + file + " is version " + buffer.getInt(4) + ", not " + VERSION);
+        }
+
+        final int size = buffer.getInt(8);
+        final int blockCount = buffer.getInt(12);
+        final int dataLength = buffer.getInt(16);
+
+        if ((long) HEADER + 8L * size + 4L * blockCount + dataLength != buffer.capacity()) {
+            throw new IOException("Truncated index file: " + file);
+        }
+
+        // the offsets go first, so they're lined up for reading as longs
+        int position = HEADER;
+        final LongBuffer valueOffsets = slice(buffer, position, size * 8).asLongBuffer();
+        position += size * 8;
+        final IntBuffer blocks = slice(buffer, position, blockCount * 4).asIntBuffer();
+        position += blockCount * 4;
+        final ByteBuffer data = slice(buffer, position, dataLength);
+
+        return new FrontCodedIndex(data, blocks, valueOffsets, log);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.limit(position + length);
+        return duplicate.slice();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String keyAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+
+        final StringBuilder key = new StringBuilder();
+        int position = blocks.get(index / BLOCK);
+        for (int i = 0; i <= index % BLOCK; i++) {
+            position = decode(data, position, key);
+        }
+
+        return key.toString();
+    }
+
+    @Override
+    public String valueAt(int index) {
+        return (values != null) ? values[index] : log.read(valueOffsets.get(index));
+    }
+
+    /** @return where the value at the position is in the value log, or -1 if the values are on the heap */
+    long valueOffsetAt(int index) {
+        return (values != null) ? -1 : valueOffsets.get(index);
+    }
+
+    @Override
+    public int ceiling(String key) {
+        final int index = indexOf(key);
+        return (index < 0) ? -index - 1 : index;
+    }
+
+    @Override
+    public int indexOf(String key) {
+        // number of blocks whose first key is <= the key
+        int low = 0;
+        int high = blocks.limit();
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compareFirst(mid, key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return (low == 0) ? -1 : scan(low - 1, key);
+    }
+
+    @Override
+    public Iterator<String> keysFrom(final int index) {
+        return new Iterator<String>() {
+            private final StringBuilder key = new StringBuilder();
+            private int next = index;
+            private int position = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public String next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+
+                // the first one has to be built up from the start of its block
+                if (position < 0) {
+                    position = blocks.get(next / BLOCK);
+                    for (int i = 0; i < next % BLOCK; i++) {
+                        position = decode(data, position, key);
+                    }
+                }
+
+                position = decode(data, position, key);
+                next++;
+                return key.toString();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Compares the first key of the block with the given one, without decoding it. */
+    private int compareFirst(int block, String key) {
+        int position = blocks.get(block);
+        position += lengthSize(readLength(data, position));
+        final int length = readLength(data, position);
+        position += lengthSize(length);
+
+        final int n = Math.min(length, key.length());
+        for (int i = 0; i < n; i++) {
+            int c = data.get(position++) & 0xff;
+            if (c == ESCAPE) {
+                c = ((data.get(position) & 0xff) << 8) | (data.get(position + 1) & 0xff);
+                position += 2;
+            }
+
+            final int cmp = c - key.charAt(i);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length();
+    }
+
+    /** @return the key's position, or {@code -(insertion point) - 1}, given that it's in the block or just after */
+    private int scan(int block, String key) {
+        final StringBuilder current = new StringBuilder();
+        final int first = block * BLOCK;
+        final int last = Math.min(first + BLOCK, size);
+        int position = blocks.get(block);
+
+        for (int i = first; i < last; i++) {
+            position = decode(data, position, current);
+            final int cmp = compare(current, key);
+            if (cmp >= 0) {
+                return (cmp == 0) ? i : -i - 1;
+            }
+        }
+
+        return -last - 1;
+    }
+
+    /** Turns the key before into the key at the position, returning where the next one starts. */
+    private static int decode(ByteBuffer data, int position, StringBuilder key) {
+        final int shared = readLength(data, position);
+        position += lengthSize(shared);
+
+        key.setLength(shared);
+        return decodeChars(data, position, key);
+    }
+
+    /** Appends a length and that many chars to the builder, returning where they end. */
+    private static int decodeChars(ByteBuffer data, int position, StringBuilder to) {
+        final int length = readLength(data, position);
+        position += lengthSize(length);
+
+        for (int i = 0; i < length; i++) {
+            final int c = data.get(position++) & 0xff;
+            if (c == ESCAPE) {
+                to.append((char) (((data.get(position) & 0xff) << 8) | (data.get(position + 1) & 0xff)));
+                position += 2;
+            } else {
+                to.append((char) c);
+            }
+        }
+
+        return position;
+    }
+
+    private static int compare(CharSequence a, String b) {
+        final int n = Math.min(a.length(), b.length());
+        for (int i = 0; i < n; i++) {
+            final int cmp = a.charAt(i) - b.charAt(i);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    // lengths take as many bytes as they need, low bits first, the top bit of each saying another one follows
+    private static int readLength(ByteBuffer data, int position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = data.get(position++);
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int lengthSize(int length) {
+        int size = 1;
+        while ((length >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Collects entries, which have to be added in key order. Given a value log, the values are appended to it as
+     * they come, each string object once however many keys it's under, and only their offsets are kept.
+     */
+    public static class Builder implements BaseIndex.Builder {
+        private final Bytes data = new Bytes();
+        private final List<Integer> blocks = new ArrayList<Integer>();
+        private final List<String> values;
+        private final ValueLog log;
+        private final Map<String, Long> appended;
+        private long[] valueOffsets;
+        private int size;
+        private String previous;
+
+        public Builder(int expectedSize) {
+            this.values = new ArrayList<String>(expectedSize);
+            this.log = null;
+            this.appended = null;
+        }
+
+        public Builder(int expectedSize, ValueLog log) {
+            this.values = null;
+            this.log = log;
+            this.appended = new IdentityHashMap<String, Long>();
+            this.valueOffsets = new long[Math.max(16, expectedSize)];
+        }
+
+        @Override
+        public void add(String key, String value) {
+            if (log == null) {
+                addKey(key);
+                values.add(value);
+                return;
+            }
+
+            Long offset = appended.get(value);
+            if (offset == null) {
+                offset = log.append(value);
+                appended.put(value, offset);
+            }
+            add(key, offset);
+        }
+
+        /** Adds a key whose value is already in the builder's value log, at the offset. */
+        public void add(String key, long valueOffset) {
+            if (log == null) {
+                throw new IllegalStateException("No value log to point into");
+            }
+
+            if (size == valueOffsets.length) {
+                valueOffsets = Arrays.copyOf(valueOffsets, size * 2);
+            }
+            addKey(key);
+            valueOffsets[size - 1] = valueOffset;
+        }
+
+        private void addKey(String key) {
+            if (previous != null && previous.compareTo(key) >= 0) {
+                throw new IllegalArgumentException("Keys must be added in order: " + key);
+            }
+
+            int shared = 0;
+            if (size % BLOCK == 0) {
+                blocks.add(data.length);
+            } else {
+                final int n = Math.min(previous.length(), key.length());
+                while (shared < n && previous.charAt(shared) == key.charAt(shared)) {
+                    shared++;
+                }
+            }
+
+            data.writeLength(shared);
+            data.writeChars(key, shared);
+
+            size++;
+            previous = key;
+        }
+
+        @Override
+        public FrontCodedIndex build() {
+            final int[] offsets = new int[blocks.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = blocks.get(i);
+            }
+
+            final ByteBuffer bytes = ByteBuffer.wrap(Arrays.copyOf(data.bytes, data.length));
+            if (log == null) {
+                return new FrontCodedIndex(bytes, IntBuffer.wrap(offsets), values.toArray(new String[size]));
+            }
+            final LongBuffer offsetsInLog = LongBuffer.wrap(Arrays.copyOf(valueOffsets, size));
+            return new FrontCodedIndex(bytes, IntBuffer.wrap(offsets), offsetsInLog, log);
+        }
+
+        /**
+         * Writes the index to a file for {@link FrontCodedIndex#map(File, ValueLog)}, after making sure everything it
+         * points to in the value log is on disk. The file is written next to the target and renamed over it, so
+         * whoever maps the target never sees it half written.
+         */
+        public void write(File file) throws IOException {
+            if (log == null) {
+                throw new IllegalStateException("Only an index with a value log can be written");
+            }
+            log.flush();
+
+            final File temp = new File(file.getPath() + ".tmp");
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(size);
+                out.writeInt(blocks.size());
+                out.writeInt(data.length);
+                out.writeInt(0);
+
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(valueOffsets[i]);
+                }
+                for (int offset : blocks) {
+                    out.writeInt(offset);
+                }
+                out.write(data.bytes, 0, data.length);
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("Couldn't move " + temp + " to " + file);
+            }
+        }
+    }
+
+    /** A growable byte array that writes lengths and chars the way the index reads them. */
+    private static class Bytes {
+        private byte[] bytes = new byte[1024];
+        private int length;
+
+        private void writeLength(int value) {
+            ensure(5);
+            while ((value >>> 7) != 0) {
+                bytes[length++] = (byte) (0x80 | (value & 0x7f));
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        /** Writes the number of chars from the position on, then the chars. */
+        private void writeChars(String s, int from) {
+            writeLength(s.length() - from);
+            ensure(3 * (s.length() - from));
+
+            for (int i = from; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c < ESCAPE) {
+                    bytes[length++] = (byte) c;
+                } else {
+                    bytes[length++] = (byte) ESCAPE;
+                    bytes[length++] = (byte) (c >>> 8);
+                    bytes[length++] = (byte) c;
+                }
+            }
+        }
+
+        private void ensure(int more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.jeraff.patricia.server.ops;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which strings were written for each string hash (usually just the one, but variants that only differ in
+ * case or punctuation share a hash), so a string can be looked up or removed by its hash. Their keys are worked out
+ * again by the analyzer when they're needed: the strings are the same objects the tries hold as values, so this
+ * costs a reference per string instead of a copy of every key.
+ * <p>
+ * Strings whose keys go away some other way (a purge, say) aren't chased down here; whoever reads them checks their
+ * keys against the trie and hands back the ones that are still there.
+ */
+public class HashIndex {
+    private static final String[] NO_STRINGS = new String[0];
+
+    private final ConcurrentHashMap<String, String[]> stringsByHash = new ConcurrentHashMap<String, String[]>();
+
+    public void add(String hash, String string) {
+        while (true) {
+            final String[] existing = stringsByHash.get(hash);
+            if (existing == null) {
+                if (stringsByHash.putIfAbsent(hash, new String[]{string}) == null) {
+                    return;
+                }
+                continue;
+            }
+
+            if (Arrays.asList(existing).contains(string)) {
+                return;
+            }
+
+            final String[] union = Arrays.copyOf(existing, existing.length + 1);
+            union[existing.length] = string;
+            if (stringsByHash.replace(hash, existing, union)) {
+                return;
+            }
+        }
+    }
+
+    /** @return the strings written for the hash, possibly including some that have been removed since */
+    public String[] get(String hash) {
+        final String[] strings = stringsByHash.get(hash);
+        return (strings == null) ? NO_STRINGS : strings;
+    }
+
+    /** Forgets the hash, returning the strings it had. */
+    public String[] remove(String hash) {
+        final String[] strings = stringsByHash.remove(hash);
+        return (strings == null) ? NO_STRINGS : strings;
+    }
+
+    /**
+     * Swaps the strings read with {@link #get(String)} for the ones found to still be in the trie, unless something
+     * else has changed them in the meantime.
+     */
+    public void retain(String hash, String[] read, Collection<String> live) {
+        if (live.size() == read.length) {
+            return;
+        }
+
+        if (live.isEmpty()) {
+            stringsByHash.remove(hash, read);
+        } else {
+            stringsByHash.replace(hash, read, live.toArray(new String[live.size()]));
+        }
+    }
+
+    public int size() {
+        return stringsByHash.size();
+    }
+}
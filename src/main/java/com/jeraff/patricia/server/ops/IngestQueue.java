@@ -0,0 +1,216 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.conf.Ingest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded queue behind PUT. Strings are keyed by their hash while they wait, so a string that is
+ * enqueued again before it's been applied is folded into the pending one (keeping the preferred
+ * variant) instead of taking another slot. It's drained a batch at a time by tasks on the core's
+ * scheduler lane, at most {@code threads} of them at once.
+ */
+public class IngestQueue {
+    private static final Logger log = Logger.getLogger(IngestQueue.class.getCanonicalName());
+
+    private final PatriciaOps ops;
+    private final Executor lane;
+    private final int capacity;
+    private final int batchSize;
+    private final int threads;
+
+    private final LinkedHashMap<String, Pending> pending = new LinkedHashMap<String, Pending>();
+    // drain tasks scheduled or running; guarded by pending
+    private int draining;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong applied = new AtomicLong();
+
+    public IngestQueue(Core core, PatriciaOps ops, Executor lane) {
+        final Ingest ingest = core.getIngest();
+
+        this.ops = ops;
+        this.lane = lane;
+        this.capacity = ingest.getCapacity();
+        this.batchSize = Math.max(1, ingest.getBatchSize());
+        this.threads = Math.max(1, ingest.getThreads());
+    }
+
+    /**
+     * Queues the strings, or none of them if they don't fit.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(String[] strings) {
+        final long now = System.currentTimeMillis();
+        final LinkedHashMap<String, String> incoming = new LinkedHashMap<String, String>(strings.length);
+
+        for (String string : strings) {
+            final String hash = ops.getHash(string);
+            final String existing = incoming.get(hash);
+            incoming.put(hash, (existing == null) ? string : ops.getPreferred(existing, string));
+        }
+
+        synchronized (pending) {
+            int slots = 0;
+            for (String hash : incoming.keySet()) {
+                if (!pending.containsKey(hash)) {
+                    slots++;
+                }
+            }
+
+            if (pending.size() + slots > capacity) {
+                rejected.addAndGet(strings.length);
+                return false;
+            }
+
+            for (Map.Entry<String, String> entry : incoming.entrySet()) {
+                final Pending queued = pending.get(entry.getKey());
+                if (queued == null) {
+                    pending.put(entry.getKey(), new Pending(entry.getValue(), now));
+                } else {
+                    queued.string = ops.getPreferred(queued.string, entry.getValue());
+                    coalesced.incrementAndGet();
+                }
+            }
+
+            coalesced.addAndGet(strings.length - incoming.size());
+            accepted.addAndGet(strings.length);
+            startDrains();
+        }
+
+        return true;
+    }
+
+    /** @return the next batch, or an empty one (and one drain less) if there's nothing left */
+    private List<String> take() {
+        synchronized (pending) {
+            final List<String> batch = new ArrayList<String>(Math.min(batchSize, pending.size()));
+            final Iterator<Pending> iterator = pending.values().iterator();
+
+            while (iterator.hasNext() && batch.size() < batchSize) {
+                batch.add(iterator.next().string);
+                iterator.remove();
+            }
+
+            if (batch.isEmpty()) {
+                draining--;
+            }
+            return batch;
+        }
+    }
+
+    // called holding pending
+    private void startDrains() {
+        while (draining < threads && draining < pending.size()) {
+            if (!schedule()) {
+                return;
+            }
+        }
+    }
+
+    // called holding pending
+    private boolean schedule() {
+        try {
+            draining++;
+            lane.execute(drain);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // whatever's left goes with the next PUT
+            draining--;
+            log.log(Level.WARNING, "Couldn't schedule a drain of the ingest queue", e);
+            return false;
+        }
+    }
+
+    /** Applies one batch and goes to the back of the lane for the next, so other cores get their turn. */
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            final List<String> batch = take();
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            try {
+                if (log.isLoggable(Level.FINE)) {
+                    log.log(Level.FINE, "Applying {0} queued strings", batch.size());
+                }
+
+                for (String string : batch) {
+                    ops.upsert(string);
+                }
+
+                applied.addAndGet(batch.size());
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Couldn't apply queued strings", e);
+            }
+
+            synchronized (pending) {
+                draining--;
+                if (!pending.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    };
+
+    public int getDepth() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /** Milliseconds the oldest queued string has been waiting, 0 if the queue is empty. */
+    public long getLagMillis() {
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return 0;
+            }
+
+            return System.currentTimeMillis() - pending.values().iterator().next().enqueuedAt;
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getApplied() {
+        return applied.get();
+    }
+
+    private static class Pending {
+        private String string;
+        private final long enqueuedAt;
+
+        private Pending(String string, long enqueuedAt) {
+            this.string = string;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
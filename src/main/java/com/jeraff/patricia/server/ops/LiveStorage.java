@@ -0,0 +1,133 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The storage a core is serving from. A reindex builds a new one on the side and swaps it in here, so anything that
+ * goes through this sees either the old storage or the new one, never a half built one.
+ * <p>
+ * While a reindex is running every write is applied to the current storage and also kept, in order, to be played
+ * again on the new one. Those writes go one at a time, so they're kept in the order they were applied and two writes
+ * of the same string come out the same on both. Otherwise writes only wait while the last few are played and the
+ * storage is swapped; reads never wait.
+ */
+public class LiveStorage {
+    /**
+     * A change to a core, in terms of strings rather than keys, so it can be played again on a storage that breaks
+     * strings up differently.
+     */
+    public interface Write<T> {
+        T apply(CoreStorage storage);
+    }
+
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    // held by every write, and exclusively to start or stop the journal, so none slips past it half applied
+    private final ReentrantReadWriteLock journalLock = new ReentrantReadWriteLock();
+    private volatile CoreStorage current;
+
+    // writes to play on the storage being built, or null if nothing's being built; only set to or from null
+    // holding the journal lock exclusively, and added to holding this
+    private volatile List<Write<?>> journal;
+
+    public LiveStorage(CoreStorage storage) {
+        this.current = storage;
+    }
+
+    public CoreStorage get() {
+        return current;
+    }
+
+    public <T> T write(Write<T> write) {
+        swapLock.readLock().lock();
+        journalLock.readLock().lock();
+        try {
+            if (journal == null) {
+                return write.apply(current);
+            }
+
+            // applied and kept in one go, so the journal's in the order the current storage saw them
+            synchronized (this) {
+                final T result = write.apply(current);
+                journal.add(write);
+                return result;
+            }
+        } finally {
+            journalLock.readLock().unlock();
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Starts keeping writes for a storage that's about to be built.
+     *
+     * @return false if one is being built already
+     */
+    boolean startJournal() {
+        journalLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (journal != null) {
+                    return false;
+                }
+                journal = new ArrayList<Write<?>>();
+                return true;
+            }
+        } finally {
+            journalLock.writeLock().unlock();
+        }
+    }
+
+    /** @return the writes kept since the journal was started or last drained */
+    synchronized List<Write<?>> drainJournal() {
+        final List<Write<?>> writes = journal;
+        journal = new ArrayList<Write<?>>();
+        return writes;
+    }
+
+    /** Stops keeping writes, for a storage that won't be swapped in after all. */
+    void dropJournal() {
+        journalLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                journal = null;
+            }
+        } finally {
+            journalLock.writeLock().unlock();
+        }
+    }
+
+    synchronized int getJournalSize() {
+        return (journal == null) ? 0 : journal.size();
+    }
+
+    /**
+     * Plays whatever's left in the journal on the new storage and makes it the current one, holding writes off
+     * meanwhile, and gives {@code core} the analyzer, expansion and engine it was built with at the same time. The
+     * journal keeps going until it's dropped, though there's nothing left to play it on.
+     *
+     * @return the storage that was current until now
+     */
+    CoreStorage swap(CoreStorage next, Core core) {
+        swapLock.writeLock().lock();
+        try {
+            for (Write<?> write : drainJournal()) {
+                write.apply(next);
+            }
+
+            final Core settings = next.getCore();
+            core.setAnalyzer(settings.getAnalyzer());
+            core.setExpansion(settings.getExpansion());
+            core.setEngine(settings.getEngine());
+
+            final CoreStorage previous = current;
+            current = next;
+            return previous;
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+}
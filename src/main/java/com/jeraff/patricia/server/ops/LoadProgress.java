@@ -0,0 +1,127 @@
+package com.jeraff.patricia.server.ops;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How far along a core's bootstrap (or a reindex) is, and whether it's warming up afterwards; the core's ready once
+ * both are done. The work is counted in whatever unit the source can tell the total of up front, bytes of the files
+ * for a dirCat and rows for JDBC, so the percentage and ETA mean something even though strings vary in size.
+ */
+public class LoadProgress {
+    public static final String STATE_LOADING = "loading";
+    public static final String STATE_WARMING = "warming";
+    public static final String STATE_READY = "ready";
+    public static final String STATE_FAILED = "failed";
+
+    private final AtomicLong strings = new AtomicLong();
+    private final AtomicLong done = new AtomicLong();
+
+    // a core without a bootstrap has nothing to wait for
+    private volatile String state = STATE_READY;
+    private volatile long total = -1;
+    private volatile long started;
+    private volatile long finished;
+    private volatile String error;
+
+    public void start() {
+        strings.set(0);
+        done.set(0);
+        total = -1;
+        error = null;
+        finished = 0;
+        started = System.currentTimeMillis();
+        state = STATE_LOADING;
+    }
+
+    /** @param total how much work there is, or -1 if that can't be told */
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    /** Counts strings that were loaded and the work it took to get them. */
+    public void advance(long strings, long work) {
+        this.strings.addAndGet(strings);
+        done.addAndGet(work);
+    }
+
+    /** Marks the load done and the warm-up started. */
+    public void warming() {
+        finished = System.currentTimeMillis();
+        state = STATE_WARMING;
+    }
+
+    public void finish() {
+        if (!STATE_WARMING.equals(state)) {
+            finished = System.currentTimeMillis();
+        }
+        state = STATE_READY;
+    }
+
+    public void fail(Exception e) {
+        finished = System.currentTimeMillis();
+        error = e.toString();
+        state = STATE_FAILED;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public boolean isLoading() {
+        return STATE_LOADING.equals(state);
+    }
+
+    public boolean isReady() {
+        return STATE_READY.equals(state);
+    }
+
+    public long getStrings() {
+        return strings.get();
+    }
+
+    /** @return how long the load has taken so far, or took; 0 if there wasn't one */
+    public long getMillis() {
+        if (started == 0) {
+            return 0;
+        }
+        return ((finished == 0) ? System.currentTimeMillis() : finished) - started;
+    }
+
+    public double getRowsPerSecond() {
+        final long millis = getMillis();
+        return (millis == 0) ? 0 : strings.get() * 1000.0 / millis;
+    }
+
+    /** @return how much of the work's been done, 0 to 100, or -1 if the total isn't known */
+    public double getPercent() {
+        if (STATE_READY.equals(state) || STATE_WARMING.equals(state)) {
+            return 100;
+        }
+
+        final long total = this.total;
+        if (total <= 0) {
+            return -1;
+        }
+        return Math.min(100, done.get() * 100.0 / total);
+    }
+
+    /** @return roughly how many seconds are left at the rate so far, or -1 if that can't be told yet */
+    public long getEtaSeconds() {
+        if (STATE_READY.equals(state) || STATE_WARMING.equals(state)) {
+            return 0;
+        } else if (!isLoading()) {
+            return -1;
+        }
+
+        final long total = this.total;
+        final long done = this.done.get();
+        if (total <= 0 || done == 0) {
+            return -1;
+        }
+        return Math.max(0, (total - done) * getMillis() / done / 1000);
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -1,20 +1,26 @@
 package com.jeraff.patricia.server.ops;
 
 import com.jeraff.patricia.client.IndexEntry;
+import com.jeraff.patricia.client.PageResponse;
 import com.jeraff.patricia.conf.Core;
 import com.jeraff.patricia.conf.JDBC;
 import com.jeraff.patricia.server.analyzer.DistanceComparator;
-import com.jeraff.patricia.server.analyzer.PartialMatchAnalyzer;
+import com.jeraff.patricia.server.analyzer.PatriciaStringAnalyzer;
 import com.mchange.v2.c3p0.ComboPooledDataSource;
-import org.apache.commons.lang.StringUtils;
-import org.limewire.collection.PatriciaTrie;
+import org.apache.commons.codec.binary.Base64;
+import org.limewire.collection.Trie;
 
+import java.io.UnsupportedEncodingException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,35 +28,35 @@ import java.util.logging.Logger;
 public class PatriciaOps {
     private static final Logger log = Logger.getLogger(PatriciaOps.class.getCanonicalName());
     private static final int NUM_PREFIX_MATCHES = 10;
-    private static final int DEFAULT_THREADS = 20;
+    private static final int MAX_CONNECTIONS = 20;
+    private static final int QUERY_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final String CURSOR_CHARSET = "UTF-8";
 
     private JDBC jdbc;
-    private PatriciaTrie<String, String> patriciaTrie;
-    private PartialMatchAnalyzer analyzer;
-    private ExecutorService putExector;
-    private ExecutorService dbExecutor;
+    private LiveStorage live;
+    private IngestQueue ingestQueue;
+    private WorkScheduler.Lane lane;
+    private ExecutorService queryExecutor;
     private ComboPooledDataSource dbPool;
 
-    public PatriciaOps(final Core core, PatriciaTrie<String, String> patriciaTrie) {
-        this.patriciaTrie = patriciaTrie;
-        this.analyzer = new PartialMatchAnalyzer();
+    /**
+     * @param lane where the core's background work goes: applying queued strings and writing them to the database
+     */
+    public PatriciaOps(final Core core, LiveStorage live, WorkScheduler.Lane lane) {
+        this.live = live;
+        this.lane = lane;
 
         final String canonicalCoreName = core.canonicalName();
-        this.putExector = Executors.newFixedThreadPool(DEFAULT_THREADS, new ThreadFactory() {
+        this.ingestQueue = new IngestQueue(core, this, lane);
+
+        this.queryExecutor = Executors.newFixedThreadPool(QUERY_THREADS, new ThreadFactory() {
             @Override
             public Thread newThread(Runnable runnable) {
-                return new Thread(runnable, "PatriciaOps.PutPool." + canonicalCoreName);
+                return new Thread(runnable, "PatriciaOps.QueryPool." + canonicalCoreName);
             }
         });
 
         if (core.getJdbc() != null) {
-            this.dbExecutor = Executors.newFixedThreadPool(DEFAULT_THREADS, new ThreadFactory() {
-                @Override
-                public Thread newThread(Runnable runnable) {
-                    return new Thread(runnable, "PatriciaOps.DBPool." + canonicalCoreName);
-                }
-            });
-
             try {
                 jdbc = core.getJdbc();
 
@@ -60,7 +66,9 @@ public class PatriciaOps {
                 dbPool.setUser(jdbc.getUser());
                 dbPool.setPassword(jdbc.getPassword());
                 dbPool.setAutoCommitOnClose(true);
-                dbPool.setMaxPoolSize(DEFAULT_THREADS);
+                // the lane never has more writes going than its quota; in virtual mode that can be a lot more than
+                // the database wants connections, and the rest wait their turn for one
+                dbPool.setMaxPoolSize(Math.min(lane.getQuota(), MAX_CONNECTIONS));
             } catch (Exception e) {
                 log.log(Level.SEVERE, "Couldn't create DB connection", e);
                 throw new RuntimeException(e);
@@ -68,88 +76,328 @@ public class PatriciaOps {
         }
     }
 
+    private PatriciaOps(LiveStorage live) {
+        this.live = live;
+    }
+
+    /**
+     * @return ops that only put strings into a storage that's being built, for the bootstraps to load it through.
+     *         They don't persist anything and can't be queued to or queried in parallel.
+     */
+    public static PatriciaOps loader(CoreStorage storage) {
+        return new PatriciaOps(new LiveStorage(storage));
+    }
+
     public String firstKey() {
-        return patriciaTrie.firstKey();
+        return live.get().firstKey();
     }
 
     public String lastKey() {
-        return patriciaTrie.lastKey();
+        return live.get().lastKey();
     }
 
     public int size() {
-        return patriciaTrie.size();
+        return live.get().size();
     }
 
-    public HashMap<String, IndexEntry> put(String[] strings, boolean persist) {
-        final int length = strings.length;
-        final HashMap<String, IndexEntry> result = new HashMap<String, IndexEntry>(length);
+    public HashMap<String, IndexEntry> put(final String[] strings, boolean persist) {
+        final HashMap<String, IndexEntry> result = live.write(new LiveStorage.Write<HashMap<String, IndexEntry>>() {
+            @Override
+            public HashMap<String, IndexEntry> apply(CoreStorage storage) {
+                return put(storage, strings);
+            }
+        });
+
+        if (persist && dbPool != null) {
+            for (String string : strings) {
+                persistString(string);
+            }
+        }
+
+        return result;
+    }
+
+    public HashMap<String, IndexEntry> put(String[] strings) {
+        return put(strings, jdbc != null);
+    }
+
+    private static HashMap<String, IndexEntry> put(CoreStorage storage, String[] strings) {
+        final PatriciaStringAnalyzer analyzer = storage.getAnalyzer();
+        final HashMap<String, IndexEntry> result = new HashMap<String, IndexEntry>(strings.length);
+        final List<Map.Entry<String, String>> toPut = new ArrayList<Map.Entry<String, String>>();
 
         for (String string : strings) {
             final ArrayList<String> keys = new ArrayList<String>();
 
             final Set<Map.Entry<String, String>> indexEntries = analyzer.getIndexEntry(string);
             for (Map.Entry<String, String> entry : indexEntries) {
-                patriciaTrie.put(entry.getKey(), string);
+                toPut.add(entry);
                 keys.add(entry.getKey());
             }
 
+            storage.getExpansionStats().record(keys.size());
             result.put(string, new IndexEntry(string, analyzer.getHash(string), keys));
-            if (persist && dbPool != null) {
-                persistString(string);
-            }
         }
 
+        // as in upsert, a string can't be found by hash before it can be found by prefix
+        storage.putAll(toPut);
+        for (IndexEntry entry : result.values()) {
+            storage.getHashIndex().add(entry.getHash(), entry.getString());
+        }
         return result;
     }
 
-    public HashMap<String, IndexEntry> put(String[] strings) {
-        return put(strings, jdbc != null);
+    public List<Entry> getPrefixedBy(String prefix) {
+        if (prefix.isEmpty()) {
+            return new ArrayList<Entry>();
+        }
+
+        final CoreStorage storage = live.get();
+        final PatriciaStringAnalyzer analyzer = storage.getAnalyzer();
+        final List<Map.Entry<String, String>> prefixedBy =
+                storage.getPrefixedBy(analyzer.getPrefixSearchKey(prefix), NUM_PREFIX_MATCHES);
+
+        final List<Entry> result = new ArrayList<Entry>(prefixedBy.size());
+        for (Map.Entry<String, String> entry : prefixedBy) {
+            final String s = entry.getValue();
+            result.add(new Entry(s, analyzer.getHash(s)));
+        }
+
+        Collections.sort(result, new DistanceComparator(prefix, analyzer));
+        return result;
     }
 
-    public List<Entry> getPrefixedBy(String prefix) {
-        final SortedMap<String, String> prefixedBy = patriciaTrie.getPrefixedBy(analyzer.getPrefixSearchKey(prefix));
+    /**
+     * Returns a page of the strings whose keys fall between {@code from} and {@code to} (or start with it), in key
+     * order. {@code cursor} is the {@link PageResponse#getNext()} token of the previous page, if there was one.
+     *
+     * @throws IllegalArgumentException if the cursor isn't one we handed out
+     */
+    public PageResponse getRange(String from, String to, String cursor, int offset, int limit) {
+        final String after = (cursor == null) ? null : decodeCursor(cursor);
+        final CoreStorage storage = live.get();
+        final PatriciaStringAnalyzer analyzer = storage.getAnalyzer();
+        final String fromKey = analyzer.getPrefixSearchKey(from);
+        final String toKey = (to == null) ? null : analyzer.getPrefixSearchKey(to);
+
+        // one extra tells us whether there's another page
+        final List<Map.Entry<String, String>> range = storage.getRange(fromKey, toKey, after, offset, limit + 1);
+        final PageResponse page = new PageResponse();
+
+        for (Map.Entry<String, String> entry : range.subList(0, Math.min(limit, range.size()))) {
+            final String s = entry.getValue();
+            page.getEntries().add(new Entry(s, analyzer.getHash(s)));
+        }
 
-        if (prefixedBy.isEmpty()) {
-            return new ArrayList<Entry>();
+        if (range.size() > limit) {
+            page.setNext(encodeCursor(range.get(limit - 1).getKey()));
+        }
+
+        return page;
+    }
+
+    public PageResponse getPrefixedBy(String prefix, String cursor, int offset, int limit) {
+        return getRange(prefix, prefix, cursor, offset, limit);
+    }
+
+    private static String encodeCursor(String key) {
+        try {
+            return Base64.encodeBase64URLSafeString(key.getBytes(CURSOR_CHARSET));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String decodeCursor(String cursor) {
+        try {
+            final String key = new String(Base64.decodeBase64(cursor), CURSOR_CHARSET);
+            if (key.isEmpty() || !encodeCursor(key).equals(cursor)) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+
+            return key;
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public LinkedHashMap<String, List<Entry>> getPrefixedBy(String[] prefixes) {
+        final LinkedHashMap<String, List<Entry>> result = new LinkedHashMap<String, List<Entry>>(prefixes.length);
+
+        if (prefixes.length == 1) {
+            result.put(prefixes[0], getPrefixedBy(prefixes[0]));
+            return result;
         }
 
-        List<Entry> result = new ArrayList<Entry>();
-        if (!prefix.isEmpty()) {
-            for (Map.Entry<String, String> entry : prefixedBy.entrySet()) {
-                final String s = entry.getValue();
-                result.add(new Entry(s, analyzer.getHash(s)));
+        final LinkedHashMap<String, Future<List<Entry>>> futures = new LinkedHashMap<String, Future<List<Entry>>>();
+        for (final String prefix : prefixes) {
+            if (!futures.containsKey(prefix)) {
+                futures.put(prefix, queryExecutor.submit(new Callable<List<Entry>>() {
+                    @Override
+                    public List<Entry> call() throws Exception {
+                        return getPrefixedBy(prefix);
+                    }
+                }));
             }
         }
 
-        final int total = result.size();
-        if (total > NUM_PREFIX_MATCHES) {
-            result = result.subList(0, NUM_PREFIX_MATCHES);
+        for (Map.Entry<String, Future<List<Entry>>> future : futures.entrySet()) {
+            try {
+                result.put(future.getKey(), future.getValue().get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
         }
 
-        Collections.sort(result, new DistanceComparator(prefix, analyzer));
         return result;
     }
 
+    /**
+     * @return how many keys start with the string, or how many there are in total if it's null
+     */
     public int getPrefixedByCount(String string) {
-        return getPrefixedBy(string).size();
+        final CoreStorage storage = live.get();
+        if (string == null) {
+            return storage.size();
+        } else if (string.isEmpty()) {
+            return 0;
+        }
+
+        return storage.getPrefixedByCount(storage.getAnalyzer().getPrefixSearchKey(string));
+    }
+
+    /**
+     * Removes each string along with any variant of it that has the same hash.
+     *
+     * @return each string mapped to the variant that was stored, or null if there wasn't one
+     */
+    public HashMap<String, String> remove(final String[] strings) {
+        return live.write(new LiveStorage.Write<HashMap<String, String>>() {
+            @Override
+            public HashMap<String, String> apply(CoreStorage storage) {
+                final HashMap<String, String> result = new HashMap<String, String>(strings.length);
+
+                for (String string : strings) {
+                    final String removed = removeByHash(storage, storage.getAnalyzer().getHash(string));
+
+                    // strings that came from a mapped index when the server started aren't in the hash index
+                    result.put(string, (removed != null) ? removed : removeKeys(storage, string));
+                }
+
+                return result;
+            }
+        });
     }
 
-    public HashMap<String, String> remove(String[] strings) {
-        final int length = strings.length;
-        final HashMap<String, String> result = new HashMap<String, String>(length);
+    /** @return each hash mapped to the string that was removed for it, or null if there wasn't one */
+    public HashMap<String, String> removeByHash(final String[] hashes) {
+        return live.write(new LiveStorage.Write<HashMap<String, String>>() {
+            @Override
+            public HashMap<String, String> apply(CoreStorage storage) {
+                final HashMap<String, String> result = new HashMap<String, String>(hashes.length);
+
+                for (String hash : hashes) {
+                    result.put(hash, removeByHash(storage, hash));
+                }
+
+                return result;
+            }
+        });
+    }
+
+    private static String removeByHash(CoreStorage storage, String hash) {
+        String removed = null;
+
+        for (String string : storage.getHashIndex().remove(hash)) {
+            final String value = removeKeys(storage, string);
+            if (removed == null) {
+                removed = value;
+            }
+        }
+
+        return removed;
+    }
+
+    /** @return the value that was under one of the string's keys, or null if none of them were there */
+    private static String removeKeys(CoreStorage storage, String string) {
+        String removed = null;
+
+        for (Map.Entry<String, String> entry : storage.getAnalyzer().getIndexEntry(string)) {
+            final String value = storage.remove(entry.getKey());
+            if (removed == null) {
+                removed = value;
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * Finds the string stored for a hash (as handed out in {@link Entry#getH()}) by going straight to its keys.
+     *
+     * @return the string, or null if nothing with that hash is stored
+     */
+    public Entry getByHash(String hash) {
+        final CoreStorage storage = live.get();
+        final PatriciaStringAnalyzer analyzer = storage.getAnalyzer();
+        final HashIndex hashIndex = storage.getHashIndex();
+        final String[] strings = hashIndex.get(hash);
+        final List<String> live = new ArrayList<String>(strings.length);
+        String s = null;
 
         for (String string : strings) {
-            final Set<Map.Entry<String, String>> entries = analyzer.getIndexEntry(string);
-            for (Map.Entry<String, String> entry : entries) {
-                result.put(string, patriciaTrie.remove(entry.getKey()));
+            for (Map.Entry<String, String> entry : analyzer.getIndexEntry(string)) {
+                final String value = storage.get(entry.getKey());
+                if (value != null) {
+                    live.add(string);
+                    if (s == null) {
+                        s = value;
+                    }
+                    break;
+                }
             }
         }
 
-        return result;
+        hashIndex.retain(hash, strings, live);
+        return (s == null) ? null : new Entry(s, hash);
+    }
+
+    /**
+     * Drops every key that starts with the prefix without looking at them one at a time. Unlike {@link
+     * #remove(String[])} this works on keys, not strings: a string whose other keys don't start with the prefix can
+     * still be found through those.
+     *
+     * @return how many keys were removed
+     */
+    public int purge(final String prefix) {
+        return live.write(new LiveStorage.Write<Integer>() {
+            @Override
+            public Integer apply(CoreStorage storage) {
+                final String key = storage.getAnalyzer().getPrefixSearchKey(prefix);
+
+                // a prefix that cleans down to nothing would take the whole core with it
+                if (key.isEmpty()) {
+                    return 0;
+                }
+
+                return storage.removePrefix(key);
+            }
+        });
     }
 
     public void persistString(final String str) {
-        dbExecutor.submit(new Runnable() {
+        try {
+            lane.execute(persist(str));
+        } catch (RejectedExecutionException e) {
+            log.log(Level.WARNING, "Couldn't queue a write to the database", e);
+        }
+    }
+
+    private Runnable persist(final String str) {
+        return new Runnable() {
             private String insertString = String.format(
                     "INSERT INTO %s(%s, %s) VALUES(?, ?) ON DUPLICATE KEY UPDATE %s=?",
                     jdbc.getTable(), jdbc.getHash(), jdbc.getS(), jdbc.getS());
@@ -161,7 +409,7 @@ public class PatriciaOps {
                     connection = dbPool.getConnection();
                     final PreparedStatement statement = connection.prepareStatement(insertString);
 
-                    statement.setString(1, analyzer.getHash(str));
+                    statement.setString(1, getHash(str));
                     statement.setString(2, str);
                     statement.setString(3, str);
                     statement.execute();
@@ -184,39 +432,81 @@ public class PatriciaOps {
                     }
                 }
             }
+        };
+    }
+
+    /**
+     * Queues strings to be upserted in the background.
+     *
+     * @return false if the ingest queue is full and nothing was queued
+     */
+    public boolean enqueue(final String[] strings) {
+        return ingestQueue.offer(strings);
+    }
+
+    /**
+     * Indexes a string, keeping whatever's already under a key if the analyzer prefers it.
+     * Each key is located once and only written if it changes.
+     */
+    public void upsert(final String string) {
+        final boolean changed = live.write(new LiveStorage.Write<Boolean>() {
+            @Override
+            public Boolean apply(CoreStorage storage) {
+                return upsert(storage, string);
+            }
         });
+
+        if (changed && dbPool != null) {
+            persistString(string);
+        }
     }
 
-    public void enqueue(final String[] strings) {
-        putExector.submit(new Runnable() {
+    /** @return whether any of the string's keys changed */
+    private static boolean upsert(CoreStorage storage, final String string) {
+        final PatriciaStringAnalyzer analyzer = storage.getAnalyzer();
+        final boolean[] changed = new boolean[1];
+        final Trie.Remapper<String, String> preferred = new Trie.Remapper<String, String>() {
             @Override
-            public void run() {
-                for (String string : strings) {
-                    if (log.isLoggable(Level.INFO)) {
-                        final String join = StringUtils.join(strings, ", ");
-                        log.log(Level.INFO, "Working on {0} strings: {1}", new Object[]{strings.length, join});
-                    }
+            public String remap(String key, String existing) {
+                if (existing == null) {
+                    changed[0] = true;
+                    return string;
+                }
 
-                    final Set<Map.Entry<String, String>> indexEntries = analyzer.getIndexEntry(string);
-                    for (Map.Entry<String, String> entry : indexEntries) {
-                        final String key = entry.getKey();
-
-                        if (patriciaTrie.containsKey(key)) {
-                            final String existing = patriciaTrie.get(key);
-                            final String winner = analyzer.getPreferred(existing, string);
-                            if (!winner.equals(existing)) {
-                                put(new String[]{winner});
-                            }
-                        } else {
-                            put(new String[]{string});
-                        }
-                    }
+                final String winner = analyzer.getPreferred(existing, string);
+                if (!winner.equals(existing)) {
+                    changed[0] = true;
+                    return winner;
                 }
+
+                return existing;
             }
-        });
+        };
+
+        final Set<Map.Entry<String, String>> indexEntries = analyzer.getIndexEntry(string);
+        for (Map.Entry<String, String> entry : indexEntries) {
+            storage.compute(entry.getKey(), preferred);
+        }
+
+        storage.getHashIndex().add(analyzer.getHash(string), string);
+        storage.getExpansionStats().record(indexEntries.size());
+        return changed[0];
+    }
+
+    public IngestQueue getIngestQueue() {
+        return ingestQueue;
+    }
+
+    public ExpansionStats getExpansionStats() {
+        return live.get().getExpansionStats();
     }
 
     public String getHash(String s) {
-        return analyzer.getHash(s);
+        return live.get().getAnalyzer().getHash(s);
+    }
+
+    /** @return whichever of two strings with the same hash the core would rather keep */
+    public String getPreferred(String existing, String string) {
+        return live.get().getAnalyzer().getPreferred(existing, string);
     }
 }
@@ -0,0 +1,212 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.conf.Warmup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A sample of the prefixes a core's been asked for, kept in a file so the next start can replay them before the core
+ * takes traffic. Until they've been run a few thousand times the lookups are interpreted, and a mapped index's pages
+ * aren't in memory yet, so the first real queries after a restart are much slower than the rest.
+ * <p>
+ * The sample's a reservoir of at most {@code maxQueries}: every query that's sampled has the same chance of being in
+ * it however long the core's been up. It starts out with whatever was in the file, so a restart doesn't lose it.
+ */
+public class QueryLog {
+    private static final Logger log = Logger.getLogger(QueryLog.class.getCanonicalName());
+    private static final String CHARSET = "UTF-8";
+
+    private final Warmup warmup;
+    private final File file;
+    private final Random random = new Random();
+
+    // guarded by this
+    private final List<String> sample = new ArrayList<String>();
+    private long seen;
+    private boolean dirty;
+
+    private volatile long warmed;
+    private volatile long warmupMillis;
+
+    public QueryLog(Core core) {
+        this.warmup = core.getWarmup();
+        this.file = (warmup.getFile() == null) ? null : new File(warmup.getFile());
+
+        if (file == null) {
+            return;
+        }
+
+        sample.addAll(read());
+        seen = sample.size();
+
+        final String canonicalCoreName = core.canonicalName();
+        final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "QueryLog.Flusher." + canonicalCoreName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final long interval = Math.max(1, warmup.getFlushMillis());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /** Maybe adds a prefix someone asked for to the sample. */
+    public void record(String prefix) {
+        if (file == null || prefix.isEmpty() || random.nextDouble() >= warmup.getSampleRate()) {
+            return;
+        }
+
+        // one per line
+        if (prefix.indexOf('\n') >= 0 || prefix.indexOf('\r') >= 0) {
+            return;
+        }
+
+        synchronized (this) {
+            seen++;
+            if (sample.size() < warmup.getMaxQueries()) {
+                sample.add(prefix);
+                dirty = true;
+            } else {
+                final long slot = (long) (random.nextDouble() * seen);
+                if (slot < sample.size()) {
+                    sample.set((int) slot, prefix);
+                    dirty = true;
+                }
+            }
+        }
+    }
+
+    /** Writes the sample out if it's changed, replacing the file in one go so a crash can't leave half of it. */
+    public void flush() {
+        final List<String> queries;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            queries = new ArrayList<String>(sample);
+            dirty = false;
+        }
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), CHARSET));
+            try {
+                for (String query : queries) {
+                    writer.write(query);
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Couldn't write the query log " + file, e);
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    private List<String> read() {
+        final List<String> queries = new ArrayList<String>();
+        if (!file.isFile()) {
+            return queries;
+        }
+
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null && queries.size() < warmup.getMaxQueries()) {
+                    if (!line.isEmpty()) {
+                        queries.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Couldn't read the query log " + file, e);
+        }
+
+        return queries;
+    }
+
+    /**
+     * Runs the sample against the core the way the api would, {@code rounds} times or until the budget's spent.
+     *
+     * @return how many queries were run
+     */
+    public long warm(PatriciaOps ops) {
+        final List<String> queries;
+        synchronized (this) {
+            queries = new ArrayList<String>(sample);
+        }
+
+        final long start = System.currentTimeMillis();
+        final long deadline = start + warmup.getBudgetMillis();
+        long count = 0;
+
+        for (int round = 0; round < warmup.getRounds() && System.currentTimeMillis() < deadline; round++) {
+            for (String query : queries) {
+                if (System.currentTimeMillis() >= deadline) {
+                    break;
+                }
+
+                ops.getPrefixedBy(query);
+                ops.getPrefixedByCount(query);
+                count++;
+            }
+        }
+
+        warmed = count;
+        warmupMillis = System.currentTimeMillis() - start;
+        log.log(Level.INFO, "Warmed up with {0} queries in {1}ms", new Object[]{count, warmupMillis});
+        return count;
+    }
+
+    public synchronized int getSampleSize() {
+        return sample.size();
+    }
+
+    /** @return how many queries the last warm-up ran */
+    public long getWarmed() {
+        return warmed;
+    }
+
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+}
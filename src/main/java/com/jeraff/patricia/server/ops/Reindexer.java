@@ -0,0 +1,262 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.server.analyzer.PatriciaStringAnalyzer;
+import com.jeraff.patricia.server.bootstrap.DirectoryCat;
+import com.jeraff.patricia.server.bootstrap.JDBC;
+import org.limewire.collection.Trie;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rebuilds a core's storage in the background, possibly with a different analyzer, expansion or engine, while the
+ * old one keeps serving, then swaps the new one in through the core's {@link LiveStorage}. Writes that come in
+ * meanwhile go to the old storage and are played again on the new one, so nothing's lost and there's never a moment
+ * when the core is empty.
+ * <p>
+ * A core with a mapped base index can't be reindexed, since both storages would be using the same files.
+ */
+public class Reindexer {
+    public static final String SOURCE_DIR_CAT = "dirCat";
+    public static final String SOURCE_JDBC = "jdbc";
+    public static final String SOURCE_SNAPSHOT = "snapshot";
+
+    public static final String STATE_IDLE = "idle";
+    public static final String STATE_RUNNING = "running";
+    public static final String STATE_DONE = "done";
+    public static final String STATE_FAILED = "failed";
+
+    private static final Logger log = Logger.getLogger(Reindexer.class.getCanonicalName());
+
+    // how long the old storage is kept around for queries that were already walking it
+    private static final long GRACE_MILLIS = 10000;
+    // rounds of journal played outside the swap lock, so there's little left to play while writes wait
+    private static final int REPLAY_ROUNDS = 3;
+    private static final int SNAPSHOT_BATCH = 500;
+
+    private final Core core;
+    private final LiveStorage live;
+    private final ScheduledExecutorService executor;
+
+    private volatile String state = STATE_IDLE;
+    private volatile String source;
+    private volatile long started;
+    private volatile long millis;
+    private volatile String error;
+    private volatile LoadProgress progress = new LoadProgress();
+
+    public Reindexer(Core core, LiveStorage live) {
+        this.core = core;
+        this.live = live;
+
+        final String canonicalCoreName = core.canonicalName();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "Reindexer." + canonicalCoreName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return a copy of the settings the core's serving with, to change and hand to {@link #start(Core, String)};
+     *         taken from the current storage so it can't be half way through a swap
+     */
+    public Core newTarget() {
+        return live.get().getCore().copy();
+    }
+
+    /**
+     * Starts rebuilding the core with the settings of {@code target}, from {@link #newTarget()}.
+     *
+     * @param source where to load the strings from, or null for the core's bootstrap if it has one and its current
+     *               contents otherwise
+     * @return false if a reindex is running already
+     * @throws IllegalArgumentException if the source isn't one the core has or the target's settings aren't valid
+     */
+    public boolean start(final Core target, String source) {
+        final String from = (source != null) ? source : defaultSource(target);
+        validate(target, from);
+
+        if (!live.startJournal()) {
+            return false;
+        }
+
+        this.source = from;
+        this.started = System.currentTimeMillis();
+        this.millis = 0;
+        this.error = null;
+        this.progress = new LoadProgress();
+        progress.start();
+        this.state = STATE_RUNNING;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                reindex(target, from);
+            }
+        });
+
+        return true;
+    }
+
+    private static String defaultSource(Core core) {
+        if (core.getDirCat() != null) {
+            return SOURCE_DIR_CAT;
+        } else if (core.getJdbc() != null) {
+            return SOURCE_JDBC;
+        }
+        return SOURCE_SNAPSHOT;
+    }
+
+    private void validate(Core target, String source) {
+        if (SOURCE_DIR_CAT.equals(source)) {
+            if (target.getDirCat() == null) {
+                throw new IllegalArgumentException("No dirCat bootstrap configured for " + core.getPath());
+            }
+        } else if (SOURCE_JDBC.equals(source)) {
+            if (target.getJdbc() == null) {
+                throw new IllegalArgumentException("No JDBC bootstrap configured for " + core.getPath());
+            }
+        } else if (!SOURCE_SNAPSHOT.equals(source)) {
+            throw new IllegalArgumentException("Unknown source: " + source);
+        }
+
+        if (!PatriciaStringAnalyzer.class.isAssignableFrom(target.getAnalyzer())) {
+            throw new IllegalArgumentException("Not a " + PatriciaStringAnalyzer.class.getSimpleName() + ": "
+                    + target.getAnalyzer().getCanonicalName());
+        } else if (target.getExpansion().getMaxSuffixes() < 0 || target.getExpansion().getMinGramLength() < 0) {
+            throw new IllegalArgumentException("Expansion limits can't be negative");
+        }
+
+        TrieEngine.forName(target.getEngine());
+    }
+
+    private void reindex(Core target, String source) {
+        CoreStorage next = null;
+        try {
+            next = new CoreStorage(target);
+
+            load(target, source, next);
+            next.fold();
+
+            for (int i = 0; i < REPLAY_ROUNDS; i++) {
+                replay(live.drainJournal(), next);
+            }
+
+            final CoreStorage previous = live.swap(next, core);
+            finish(null);
+            live.dropJournal();
+
+            log.log(Level.INFO, "Reindexed {0} strings from {1} in {2}",
+                    new Object[]{next.getExpansionStats().getStrings(), source, core});
+
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    previous.close();
+                }
+            }, GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Couldn't reindex " + core, e);
+            if (next != null) {
+                next.close();
+            }
+            finish(e);
+            live.dropJournal();
+        }
+    }
+
+    /** Records how it went; the journal's only dropped after this so another reindex can't start before it. */
+    private void finish(Exception e) {
+        if (e == null) {
+            progress.finish();
+        } else {
+            progress.fail(e);
+        }
+        millis = System.currentTimeMillis() - started;
+        error = (e == null) ? null : e.toString();
+        state = (e == null) ? STATE_DONE : STATE_FAILED;
+    }
+
+    private void load(Core target, String source, CoreStorage next) throws Exception {
+        final PatriciaOps loader = PatriciaOps.loader(next);
+
+        if (SOURCE_DIR_CAT.equals(source)) {
+            new DirectoryCat(target, loader, progress).bootstrap();
+        } else if (SOURCE_JDBC.equals(source)) {
+            if (!new JDBC(target, loader, progress).bootstrap()) {
+                throw new IllegalStateException("Couldn't connect to " + target.getJdbc().getUrl());
+            }
+        } else {
+            // each string is the value under all of its keys, so the distinct values are the strings
+            final Set<String> strings = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            live.get().parallelTraverse("", new Trie.Cursor<String, String>() {
+                @Override
+                public SelectStatus select(Map.Entry<? extends String, ? extends String> entry) {
+                    strings.add(entry.getValue());
+                    return SelectStatus.CONTINUE;
+                }
+            });
+
+            progress.setTotal(strings.size());
+
+            final List<String> batch = new ArrayList<String>(SNAPSHOT_BATCH);
+            for (String string : strings) {
+                batch.add(string);
+                if (batch.size() == SNAPSHOT_BATCH) {
+                    loader.put(batch.toArray(new String[batch.size()]), false);
+                    progress.advance(batch.size(), batch.size());
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                loader.put(batch.toArray(new String[batch.size()]), false);
+                progress.advance(batch.size(), batch.size());
+            }
+        }
+    }
+
+    private static void replay(List<LiveStorage.Write<?>> writes, CoreStorage next) {
+        for (LiveStorage.Write<?> write : writes) {
+            write.apply(next);
+        }
+    }
+
+    /** @return what the last reindex did, or is doing */
+    public Map<String, Object> getStatus() {
+        final LinkedHashMap<String, Object> status = new LinkedHashMap<String, Object>();
+        final LoadProgress progress = this.progress;
+        final String current = state;
+
+        status.put("state", current);
+        if (!STATE_IDLE.equals(current)) {
+            status.put("source", source);
+            status.put("started", started);
+            status.put("loaded", progress.getStrings());
+            status.put("percent", progress.getPercent());
+            status.put("journal", live.getJournalSize());
+            status.put("millis", STATE_RUNNING.equals(current) ? System.currentTimeMillis() - started : millis);
+            status.put("error", error);
+        }
+        return status;
+    }
+
+    public String getState() {
+        return state;
+    }
+}
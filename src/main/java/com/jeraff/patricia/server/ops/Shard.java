@@ -0,0 +1,829 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Lsm;
+import org.limewire.collection.Trie;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One key range of a core: a mutable trie, sitting on an immutable {@link BaseIndex} that's empty unless the core
+ * folds its writes into one. The trie wins wherever both have a key, and a removed key that's still in the base (or
+ * anywhere, with tombstones on) is kept in the trie with a marker value until it's compacted or folded away.
+ * <p>
+ * While the base is empty everything is answered by the trie alone, positions and subtree counts included.
+ */
+class Shard {
+    private static final Logger log = Logger.getLogger(Shard.class.getCanonicalName());
+
+    // compared by reference, so no stored string can be mistaken for it
+    static final String TOMBSTONE = new String("");
+
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    final AtomicBoolean compactionQueued = new AtomicBoolean();
+
+    private final boolean tombstones;
+    private final Trie<String, String> trie;
+    private BaseIndex base = SortedArrayIndex.EMPTY;
+
+    // marked keys in the order they were marked; only touched under the write lock
+    private final ArrayDeque<String> buried = new ArrayDeque<String>();
+    private volatile int dead;
+    private volatile int shadowing;
+    private volatile int trieSize;
+
+    // set while a fold is merging a copy of the trie, when nothing can be taken out of the trie for real since the
+    // copy would bring it back; only touched under the lock
+    private boolean folding;
+
+    private final String index;
+    private final File file;
+    private final ValueLog values;
+
+    /**
+     * @param engine what makes the trie
+     * @param index  the kind of base index folds build, {@link Lsm#INDEX_ARRAY}, {@link Lsm#INDEX_FRONT_CODED} or
+     *               {@link Lsm#INDEX_MAPPED}
+     * @param file   where a mapped base index lives; if it's there already it's mapped straight away
+     * @param values the log a mapped base index keeps its values in
+     */
+    Shard(TrieEngine engine, boolean tombstones, String index, File file, ValueLog values) {
+        this.trie = engine.newTrie();
+        this.tombstones = tombstones;
+        this.index = index;
+        this.file = file;
+        this.values = values;
+
+        if (file != null && file.exists()) {
+            try {
+                base = FrontCodedIndex.map(file, values);
+            } catch (IOException e) {
+                log.log(Level.SEVERE, "Couldn't map " + file, e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** @return the smallest key that's greater than everything prefixed by the key, or null if there's none */
+    static String successor(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            final char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+
+    String get(String key) {
+        lock.readLock().lock();
+        try {
+            return value(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private String value(String key) {
+        final String value = trie.get(key);
+        if (value != null) {
+            return (value == TOMBSTONE) ? null : value;
+        }
+        return baseValue(base, key);
+    }
+
+    private static String baseValue(BaseIndex base, String key) {
+        if (base.size() == 0) {
+            return null;
+        }
+        final int index = base.indexOf(key);
+        return (index < 0) ? null : base.valueAt(index);
+    }
+
+    private static boolean inBase(BaseIndex base, String key) {
+        return base.size() != 0 && base.indexOf(key) >= 0;
+    }
+
+    String put(String key, String value) {
+        lock.writeLock().lock();
+        try {
+            return write(key, value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void putAll(List<Map.Entry<String, String>> entries) {
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, String> entry : entries) {
+                write(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private String write(String key, String value) {
+        final String previous = trie.put(key, value);
+        trieSize = trie.size();
+
+        if (previous == TOMBSTONE) {
+            dead--;
+            return null;
+        } else if (previous == null && base.size() != 0) {
+            final String below = baseValue(base, key);
+            if (below != null) {
+                shadowing++;
+            }
+            return below;
+        }
+        return previous;
+    }
+
+    String remove(String key) {
+        lock.writeLock().lock();
+        try {
+            return delete(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** @return true while the trie is all there is, so it can be used as it is */
+    private boolean plain() {
+        return !tombstones && base.size() == 0 && dead == 0 && !folding;
+    }
+
+    private String delete(String key) {
+        if (plain()) {
+            final String previous = trie.remove(key);
+            trieSize = trie.size();
+            return previous;
+        }
+
+        final String previous = value(key);
+        if (previous == null) {
+            return null;
+        }
+
+        // a key that's only in the trie can go for real, unless removals are meant to be cheap
+        if (!tombstones && !folding && !inBase(base, key)) {
+            trie.remove(key);
+        } else {
+            mark(key);
+        }
+        trieSize = trie.size();
+
+        return previous;
+    }
+
+    private void mark(String key) {
+        if (trie.put(key, TOMBSTONE) == null && inBase(base, key)) {
+            shadowing++;
+        }
+        dead++;
+
+        if (tombstones) {
+            buried.add(key);
+        }
+    }
+
+    String compute(String key, Trie.Remapper<String, String> remapper) {
+        lock.writeLock().lock();
+        try {
+            if (plain()) {
+                final String value = trie.computeEntry(key, remapper);
+                trieSize = trie.size();
+                return value;
+            }
+
+            final String existing = value(key);
+            final String remapped = remapper.remap(key, existing);
+            if (remapped == existing) {
+                return existing;
+            } else if (remapped == null) {
+                delete(key);
+            } else {
+                write(key, remapped);
+            }
+
+            return remapped;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** @return how many keys were removed */
+    int removePrefix(String prefix) {
+        lock.writeLock().lock();
+        try {
+            if (base.size() == 0 && !folding) {
+                // the subtree's count can't tell marked keys apart, so get rid of them first
+                if (dead > 0) {
+                    compact(Integer.MAX_VALUE);
+                }
+
+                if (dead == 0) {
+                    final int removed = trie.removePrefix(prefix);
+                    trieSize = trie.size();
+                    return removed;
+                }
+            }
+
+            if (folding) {
+                // the copy being merged still has these, so they can only be marked
+                final List<String> keys = new ArrayList<String>();
+                final Iterator<Map.Entry<String, String>> entries = entries(prefix, true, successor(prefix));
+                while (entries.hasNext()) {
+                    keys.add(entries.next().getKey());
+                }
+                for (String key : keys) {
+                    mark(key);
+                }
+                trieSize = trie.size();
+                return keys.size();
+            }
+
+            // the base can't lose keys, so the trie's part goes and the base's part gets marked
+            final int removed = count(prefix);
+            for (Map.Entry<String, String> entry : range(trie, prefix, successor(prefix)).entrySet()) {
+                if (entry.getValue() == TOMBSTONE) {
+                    dead--;
+                }
+                if (inBase(base, entry.getKey())) {
+                    shadowing--;
+                }
+            }
+            trie.removePrefix(prefix);
+
+            final String end = successor(prefix);
+            final int high = (end == null) ? base.size() : base.ceiling(end);
+            for (int i = base.ceiling(prefix); i < high; i++) {
+                mark(base.keyAt(i));
+            }
+            trieSize = trie.size();
+
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds up to {@code limit} entries prefixed by the key to the list, in key order.
+     */
+    void prefixed(String prefix, final int limit, final List<Map.Entry<String, String>> rtn) {
+        lock.readLock().lock();
+        try {
+            if (limit <= rtn.size()) {
+                return;
+            }
+
+            if (base.size() == 0) {
+                trie.traversePrefix(prefix, new Trie.Cursor<String, String>() {
+                    @Override
+                    public SelectStatus select(Map.Entry<? extends String, ? extends String> entry) {
+                        if (entry.getValue() == TOMBSTONE) {
+                            return SelectStatus.CONTINUE;
+                        }
+                        rtn.add(new AbstractMap.SimpleImmutableEntry<String, String>(entry));
+                        return (rtn.size() == limit) ? SelectStatus.EXIT : SelectStatus.CONTINUE;
+                    }
+                });
+                return;
+            }
+
+            final Iterator<Map.Entry<String, String>> entries = entries(prefix, true, successor(prefix));
+            while (entries.hasNext() && rtn.size() < limit) {
+                rtn.add(entries.next());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds entries from {@code start} (or just after it, if {@code resume}) up to {@code end} (exclusive, or the
+     * end of the shard if null) to the list until it holds {@code limit}, passing over the first {@code skip[0]}
+     * and counting them off.
+     */
+    void range(String start, boolean resume, String end, int[] skip, int limit, List<Map.Entry<String, String>> rtn) {
+        lock.readLock().lock();
+        try {
+            if (base.size() != 0) {
+                final Iterator<Map.Entry<String, String>> entries = entries(start, !resume, end);
+                while (entries.hasNext() && rtn.size() < limit) {
+                    final Map.Entry<String, String> entry = entries.next();
+                    if (skip[0] > 0) {
+                        skip[0]--;
+                    } else {
+                        rtn.add(entry);
+                    }
+                }
+                return;
+            }
+
+            final int found = trie.indexOf(start);
+            int low = (found < 0) ? -found - 1 : (resume ? found + 1 : found);
+            final int high = (end == null) ? trie.size() : ceilingIndex(trie, end);
+
+            // positions only line up with the offset while nothing's marked
+            if (dead == 0) {
+                if (high - low <= skip[0]) {
+                    skip[0] -= Math.max(0, high - low);
+                    return;
+                }
+
+                low += skip[0];
+                skip[0] = 0;
+            }
+
+            for (int j = low; j < high && rtn.size() < limit; j++) {
+                final Map.Entry<String, String> entry = trie.getEntryAt(j);
+                if (entry.getValue() == TOMBSTONE) {
+                    continue;
+                } else if (skip[0] > 0) {
+                    skip[0]--;
+                    continue;
+                }
+                rtn.add(new AbstractMap.SimpleImmutableEntry<String, String>(entry));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int ceilingIndex(Trie<String, String> trie, String key) {
+        final int index = trie.indexOf(key);
+        return (index < 0) ? -index - 1 : index;
+    }
+
+    int getPrefixedByCount(String prefix) {
+        lock.readLock().lock();
+        try {
+            return count(prefix);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int count(String prefix) {
+        if (base.size() == 0 && dead == 0) {
+            return trie.getPrefixedBy(prefix).size();
+        }
+
+        final String end = successor(prefix);
+        int count = ((end == null) ? base.size() : base.ceiling(end)) - base.ceiling(prefix);
+
+        // the base is counted by position, so only the trie's keys need looking at
+        for (Map.Entry<String, String> entry : range(trie, prefix, end).entrySet()) {
+            final boolean below = base.size() != 0 && inBase(base, entry.getKey());
+            if (entry.getValue() == TOMBSTONE) {
+                count -= below ? 1 : 0;
+            } else {
+                count += below ? 0 : 1;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Finds up to {@code parts - 1} keys that split the entries prefixed by the key into pieces of about the same
+     * size, for walking them with {@link #walk(String, String, Trie.Cursor, AtomicBoolean)}.
+     */
+    List<String> cuts(String prefix, int parts) {
+        lock.readLock().lock();
+        try {
+            final List<String> rtn = new ArrayList<String>();
+
+            if (base.size() == 0) {
+                final List<SortedMap<String, String>> views = trie.partition(prefix, parts);
+                for (int i = 1; i < views.size(); i++) {
+                    if (!views.get(i).isEmpty()) {
+                        rtn.add(views.get(i).firstKey());
+                    }
+                }
+                return rtn;
+            }
+
+            // the base is nearly all of it, so cutting by its positions is close enough
+            final String end = successor(prefix);
+            final int low = base.ceiling(prefix);
+            final int count = ((end == null) ? base.size() : base.ceiling(end)) - low;
+            for (int i = 1; i < Math.min(parts, count); i++) {
+                rtn.add(base.keyAt(low + (int) ((long) i * count / parts)));
+            }
+            return rtn;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hands the entries from {@code start} up to {@code end} (exclusive; null for no bound) to the cursor until it
+     * says EXIT or {@code exit} is set. REMOVE isn't supported since the shard is only read locked.
+     */
+    void walk(String start, String end, Trie.Cursor<String, String> cursor, AtomicBoolean exit) {
+        lock.readLock().lock();
+        try {
+            final Iterator<Map.Entry<String, String>> entries = entries(start, true, end);
+            while (entries.hasNext() && !exit.get()) {
+                switch (cursor.select(entries.next())) {
+                    case EXIT:
+                        exit.set(true);
+                        break;
+                    case REMOVE:
+                    case REMOVE_AND_EXIT:
+                        throw new UnsupportedOperationException("Can't remove during a parallel walk");
+                    default:
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return base.size() + trie.size() - shadowing - dead;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return the smallest key, or null if there's nothing here */
+    String firstKey() {
+        lock.readLock().lock();
+        try {
+            return pick(liveTrieKey(0, 1), liveBaseKey(0, 1), -1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** @return the largest key, or null if there's nothing here */
+    String lastKey() {
+        lock.readLock().lock();
+        try {
+            return pick(liveTrieKey(trie.size() - 1, -1), liveBaseKey(base.size() - 1, -1), 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String pick(String a, String b, int sign) {
+        if (a == null || b == null) {
+            return (a == null) ? b : a;
+        }
+        return (Integer.signum(a.compareTo(b)) == sign) ? a : b;
+    }
+
+    private String liveTrieKey(int index, int step) {
+        for (int i = index; i >= 0 && i < trie.size(); i += step) {
+            final Map.Entry<String, String> entry = trie.getEntryAt(i);
+            if (entry.getValue() != TOMBSTONE) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private String liveBaseKey(int index, int step) {
+        for (int i = index; i >= 0 && i < base.size(); i += step) {
+            final String key = base.keyAt(i);
+            if (trie.get(key) != TOMBSTONE) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /** Keys in the trie, marked ones included; the mutable part of the shard. Read without the lock. */
+    int getTrieSize() {
+        return trieSize;
+    }
+
+    int getBaseSize() {
+        return base.size();
+    }
+
+    int getTombstones() {
+        return dead;
+    }
+
+    /**
+     * Takes out up to {@code batchSize} marked keys that aren't covering anything in the base.
+     *
+     * @return how many were removed
+     */
+    int compact(int batchSize) {
+        int removed = 0;
+        for (int i = 0; i < batchSize && !buried.isEmpty(); i++) {
+            final String key = buried.poll();
+
+            // it may have been put back, or already taken out if it was marked twice; one over the base waits for a fold
+            if (trie.get(key) == TOMBSTONE && !inBase(base, key)) {
+                trie.remove(key);
+                dead--;
+                removed++;
+            }
+        }
+        trieSize = trie.size();
+        return removed;
+    }
+
+    boolean hasBuried() {
+        return !buried.isEmpty();
+    }
+
+    /**
+     * Folds the trie into a new base index. The merge runs without the lock; the write lock is only held to swap
+     * the new base in and to drop whatever the trie still holds unchanged from the copy that was merged.
+     *
+     * @return false if there was nothing to fold
+     */
+    boolean fold() {
+        final List<Map.Entry<String, String>> snapshot;
+        final BaseIndex current;
+
+        lock.readLock().lock();
+        try {
+            if (trie.isEmpty()) {
+                return false;
+            }
+
+            snapshot = new ArrayList<Map.Entry<String, String>>(trie.size());
+            for (Map.Entry<String, String> entry : trie.entrySet()) {
+                snapshot.add(new AbstractMap.SimpleImmutableEntry<String, String>(entry));
+            }
+            current = base;
+            folding = true;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        BaseIndex next = null;
+        try {
+            next = merge(current, snapshot);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Couldn't write " + file + ", keeping the trie as it is", e);
+        } finally {
+            // a full value log throws rather than returning, and it mustn't leave the shard folding for good
+            if (next == null) {
+                lock.writeLock().lock();
+                try {
+                    folding = false;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        }
+
+        if (next == null) {
+            return false;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, String> entry : snapshot) {
+                if (trie.get(entry.getKey()) == entry.getValue()) {
+                    trie.remove(entry.getKey());
+                }
+            }
+
+            base = next;
+            folding = false;
+            buried.clear();
+            dead = 0;
+            shadowing = 0;
+
+            // whatever was written during the merge stays in the trie, on top of the new base
+            for (Map.Entry<String, String> entry : trie.entrySet()) {
+                final boolean below = inBase(base, entry.getKey());
+                if (entry.getValue() == TOMBSTONE) {
+                    dead++;
+                    if (!below) {
+                        buried.add(entry.getKey());
+                    }
+                }
+                if (below) {
+                    shadowing++;
+                }
+            }
+            trieSize = trie.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return true;
+    }
+
+    private BaseIndex merge(BaseIndex current, List<Map.Entry<String, String>> snapshot) throws IOException {
+        final int expectedSize = current.size() + snapshot.size();
+        final Iterator<Map.Entry<String, String>> merged = new Merge(current, 0, current.size(), snapshot.iterator());
+
+        if (file == null) {
+            final BaseIndex.Builder builder = Lsm.INDEX_ARRAY.equals(index)
+                    ? new SortedArrayIndex.Builder(expectedSize)
+                    : new FrontCodedIndex.Builder(expectedSize);
+            while (merged.hasNext()) {
+                final Map.Entry<String, String> entry = merged.next();
+                builder.add(entry.getKey(), entry.getValue());
+            }
+            return builder.build();
+        }
+
+        // what's already in the log is pointed at again rather than read back and appended a second time
+        final FrontCodedIndex.Builder builder = new FrontCodedIndex.Builder(expectedSize, values);
+        while (merged.hasNext()) {
+            final Map.Entry<String, String> entry = merged.next();
+            if (entry instanceof BaseEntry && current instanceof FrontCodedIndex) {
+                builder.add(entry.getKey(), ((FrontCodedIndex) current).valueOffsetAt(((BaseEntry) entry).index));
+            } else {
+                builder.add(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // the old mapping stays valid after the rename, for whoever's still reading it
+        builder.write(file);
+        return FrontCodedIndex.map(file, values);
+    }
+
+    private static SortedMap<String, String> range(Trie<String, String> trie, String start, String end) {
+        if (start == null) {
+            return (end == null) ? trie : trie.headMap(end);
+        }
+        return (end == null) ? trie.tailMap(start) : trie.subMap(start, end);
+    }
+
+    /** Live entries from {@code start} (or just after it) up to {@code end}, exclusive, with the trie's on top. */
+    private Iterator<Map.Entry<String, String>> entries(String start, boolean inclusive, String end) {
+        if (end != null && start.compareTo(end) >= 0) {
+            return Collections.<Map.Entry<String, String>>emptyList().iterator();
+        }
+
+        final int found = base.indexOf(start);
+        final int low = (found < 0) ? -found - 1 : (inclusive ? found : found + 1);
+        final int high = (end == null) ? base.size() : base.ceiling(end);
+
+        final Iterator<Map.Entry<String, String>> trieEntries = range(trie, start, end).entrySet().iterator();
+        final Merge merge = new Merge(base, low, high, trieEntries);
+        if (!inclusive) {
+            merge.skip(start);
+        }
+        return merge;
+    }
+
+    /**
+     * An entry of a base index that only reads its value when it's asked for, so walking past entries (to skip to a
+     * page, or to the few a lookup returns) never decodes theirs.
+     */
+    private static class BaseEntry implements Map.Entry<String, String> {
+        private final String key;
+        private final BaseIndex base;
+        private final int index;
+        private String value;
+
+        private BaseEntry(String key, BaseIndex base, int index) {
+            this.key = key;
+            this.base = base;
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public String getValue() {
+            if (value == null) {
+                value = base.valueAt(index);
+            }
+            return value;
+        }
+
+        @Override
+        public String setValue(String value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            return key.equals(other.getKey()) && getValue().equals(other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ getValue().hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    /**
+     * Walks a slice of a base index and a sorted run of trie entries together, in key order. Where both have a key
+     * the trie's entry wins, and marked entries are left out along with whatever they cover.
+     */
+    private static class Merge implements Iterator<Map.Entry<String, String>> {
+        private final BaseIndex base;
+        private final Iterator<String> baseKeys;
+        private final Iterator<Map.Entry<String, String>> trieEntries;
+        private final int high;
+        private int index;
+        private String baseKey;
+        private Map.Entry<String, String> pending;
+        private Map.Entry<String, String> next;
+
+        private Merge(BaseIndex base, int low, int high, Iterator<Map.Entry<String, String>> trieEntries) {
+            this.base = base;
+            this.baseKeys = base.keysFrom(Math.min(low, base.size()));
+            this.index = low;
+            this.high = high;
+            this.trieEntries = trieEntries;
+            this.baseKey = (index < high) ? baseKeys.next() : null;
+            advance();
+        }
+
+        private void nextBaseKey() {
+            index++;
+            baseKey = (index < high) ? baseKeys.next() : null;
+        }
+
+        private void skip(String key) {
+            if (next != null && next.getKey().equals(key)) {
+                advance();
+            }
+        }
+
+        private void advance() {
+            while (true) {
+                if (pending == null && trieEntries.hasNext()) {
+                    pending = trieEntries.next();
+                }
+
+                if (pending == null && baseKey == null) {
+                    next = null;
+                    return;
+                }
+
+                final int cmp = (pending == null) ? 1
+                        : (baseKey == null) ? -1
+                        : pending.getKey().compareTo(baseKey);
+
+                if (cmp > 0) {
+                    next = new BaseEntry(baseKey, base, index);
+                    nextBaseKey();
+                    return;
+                }
+
+                final Map.Entry<String, String> entry = pending;
+                pending = null;
+                if (cmp == 0) {
+                    nextBaseKey();
+                }
+
+                if (entry.getValue() != TOMBSTONE) {
+                    next = new AbstractMap.SimpleImmutableEntry<String, String>(entry);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            final Map.Entry<String, String> rtn = next;
+            advance();
+            return rtn;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
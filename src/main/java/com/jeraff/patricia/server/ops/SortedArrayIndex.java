@@ -0,0 +1,90 @@
+package com.jeraff.patricia.server.ops;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A base index that's just the keys and values in two sorted arrays: two references per entry instead of a trie
+ * node, and lookups are binary searches.
+ */
+public class SortedArrayIndex implements BaseIndex {
+    public static final SortedArrayIndex EMPTY = new SortedArrayIndex(new String[0], new String[0]);
+
+    private final String[] keys;
+    private final String[] values;
+
+    private SortedArrayIndex(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public String keyAt(int index) {
+        return keys[index];
+    }
+
+    @Override
+    public String valueAt(int index) {
+        return values[index];
+    }
+
+    @Override
+    public int ceiling(String key) {
+        int low = 0;
+        int high = keys.length;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    @Override
+    public int indexOf(String key) {
+        return Arrays.binarySearch(keys, key);
+    }
+
+    @Override
+    public Iterator<String> keysFrom(int index) {
+        return Arrays.asList(keys).subList(index, keys.length).iterator();
+    }
+
+    /** Collects entries, which have to be added in key order. */
+    public static class Builder implements BaseIndex.Builder {
+        private final List<String> keys;
+        private final List<String> values;
+
+        public Builder(int expectedSize) {
+            this.keys = new ArrayList<String>(expectedSize);
+            this.values = new ArrayList<String>(expectedSize);
+        }
+
+        @Override
+        public void add(String key, String value) {
+            if (!keys.isEmpty() && keys.get(keys.size() - 1).compareTo(key) >= 0) {
+                throw new IllegalArgumentException("Keys must be added in order: " + key);
+            }
+
+            keys.add(key);
+            values.add(value);
+        }
+
+        @Override
+        public SortedArrayIndex build() {
+            return new SortedArrayIndex(keys.toArray(new String[keys.size()]), values.toArray(new String[values.size()]));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+import org.limewire.collection.AdaptiveRadixTrie;
+import org.limewire.collection.CharSequenceKeyAnalyzer;
+import org.limewire.collection.PatriciaTrie;
+import org.limewire.collection.Trie;
+
+/**
+ * Makes the tries a core's shards keep their keys in, picked per core with {@code "engine"} in its config: one of
+ * the built in names, or the class name of a subclass with a public no argument constructor.
+ * <p>
+ * A shard only ever touches its trie under its lock, so an engine's tries don't have to be thread safe. They do
+ * have to keep the values they're given as they are, since a shard recognizes its deletion markers by reference, and
+ * they have to pass {@code TrieConformanceTest}.
+ */
+public abstract class TrieEngine {
+    public static final TrieEngine PATRICIA = new TrieEngine(Core.ENGINE_PATRICIA) {
+        @Override
+        public Trie<String, String> newTrie() {
+            return new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
+        }
+    };
+
+    /**
+     * An {@link AdaptiveRadixTrie}. On the bundled corpora it takes about twice the heap of the default and is slower
+     * to scan, so measure it on the core's own data with {@code TrieBenchmark} before switching.
+     */
+    public static final TrieEngine ADAPTIVE_RADIX = new TrieEngine(Core.ENGINE_ADAPTIVE_RADIX) {
+        @Override
+        public Trie<String, String> newTrie() {
+            return new AdaptiveRadixTrie<String>();
+        }
+    };
+
+    public static final TrieEngine[] BUILT_IN = new TrieEngine[]{PATRICIA, ADAPTIVE_RADIX};
+
+    private final String name;
+
+    protected TrieEngine() {
+        this.name = getClass().getName();
+    }
+
+    private TrieEngine(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return a new, empty trie */
+    public abstract Trie<String, String> newTrie();
+
+    /**
+     * @param name a built in engine's name or an engine's class name
+     * @throws IllegalArgumentException if there's no such engine or it can't be made
+     */
+    public static TrieEngine forName(String name) {
+        for (TrieEngine engine : BUILT_IN) {
+            if (engine.name.equals(name)) {
+                return engine;
+            }
+        }
+
+        final Class<?> type;
+        try {
+            type = Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unknown engine: " + name);
+        }
+
+        if (!TrieEngine.class.isAssignableFrom(type)) {
+            throw new IllegalArgumentException("Not a " + TrieEngine.class.getSimpleName() + ": " + name);
+        }
+
+        try {
+            return (TrieEngine) type.getConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Couldn't make engine " + name, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,143 @@
+package com.jeraff.patricia.server.ops;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An append-only file of strings, UTF-8 encoded and memory mapped, that mapped base indexes point into by offset
+ * instead of holding the strings themselves. A string is only decoded when someone asks for it, so a lookup pays
+ * for the handful it returns and the rest never reach the heap.
+ * <p>
+ * The file is mapped in {@link #SEGMENT} sized pieces and a string never straddles two, so a read is one absolute
+ * get from one buffer. The first bytes hold where the next string goes; anything past that after a crash is just
+ * ignored. Nothing is ever removed: a string that's no longer referenced stays until the file is deleted.
+ */
+public class ValueLog {
+    public static final int SEGMENT = 1 << 26;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x5054564c;
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+
+    private final File file;
+    private final FileChannel channel;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long end;
+
+    public ValueLog(File file) throws IOException {
+        this.file = file;
+
+        final boolean exists = file.exists() && file.length() >= HEADER;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        segment(0);
+
+        final MappedByteBuffer header = segments[0];
+        if (!exists) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putLong(8, HEADER);
+        } else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a value log: " + file);
+        }
+
+        this.end = header.getLong(8);
+        segment((int) ((end - 1) / SEGMENT));
+    }
+
+    /** @return the offset to {@link #read(long)} the string back from */
+    public synchronized long append(String value) {
+        final byte[] bytes = value.getBytes(UTF_8);
+        final int length = lengthSize(bytes.length) + bytes.length;
+        if (length > SEGMENT - HEADER) {
+            throw new IllegalArgumentException("Value too long for the log: " + bytes.length + " bytes");
+        }
+
+        // start a new segment rather than split the string
+        if (end % SEGMENT + length > SEGMENT) {
+            end = (end / SEGMENT + 1) * SEGMENT;
+        }
+
+        final long offset = end;
+        final MappedByteBuffer segment;
+        try {
+            segment = segment((int) (offset / SEGMENT));
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't grow " + file, e);
+        }
+
+        int position = (int) (offset % SEGMENT);
+        int remaining = bytes.length;
+        while ((remaining >>> 7) != 0) {
+            segment.put(position++, (byte) (0x80 | (remaining & 0x7f)));
+            remaining >>>= 7;
+        }
+        segment.put(position++, (byte) remaining);
+        for (byte b : bytes) {
+            segment.put(position++, b);
+        }
+
+        end = offset + length;
+        segments[0].putLong(8, end);
+        return offset;
+    }
+
+    public String read(long offset) {
+        final MappedByteBuffer segment = segments[(int) (offset / SEGMENT)];
+        int position = (int) (offset % SEGMENT);
+
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = segment.get(position++);
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = segment.get(position + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /** Pushes everything appended so far out to the file, so an index that points at it can be written safely. */
+    public synchronized void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /** @return how many bytes are in use */
+    public synchronized long size() {
+        return end;
+    }
+
+    private MappedByteBuffer segment(int index) throws IOException {
+        if (index < segments.length) {
+            return segments[index];
+        }
+
+        final MappedByteBuffer[] grown = Arrays.copyOf(segments, index + 1);
+        for (int i = segments.length; i <= index; i++) {
+            grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT, SEGMENT);
+        }
+        segments = grown;
+        return grown[index];
+    }
+
+    private static int lengthSize(int length) {
+        int size = 1;
+        while ((length >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,385 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One bounded set of threads for the background work of every core: applying queued strings and writing them to the
+ * database. Each core gets a {@link Lane} to hand its work to, and the threads go round the lanes in turn, so a core
+ * with a big backlog can't starve the others. A core never has more than its quota of threads at once, however idle
+ * the rest are.
+ * <p>
+ * Threads are only started as there's work for them, and tasks should give their thread back often, by doing a batch
+ * and submitting the rest again rather than looping, since a long task holds up its lane's turn. Work that can't be
+ * broken up, like a bootstrap, goes to {@link Lane#executeLong(Runnable)} and gets a thread of its own instead.
+ * <p>
+ * In virtual mode every task gets a virtual thread of its own instead, and semaphores stand in for the pool: one with
+ * {@code threads} permits for everybody and one with {@code quota} for each lane. A task that's blocked on a database
+ * or a file then costs a few hundred bytes of heap rather than an OS thread, so there can be many more of them in
+ * flight. Waiting tasks get their permits first come first served rather than lane by lane. Virtual threads are looked
+ * up reflectively, as they're only there from Java 21; on an older runtime this falls back to the pool.
+ */
+public class WorkScheduler {
+    private static final Logger log = Logger.getLogger(WorkScheduler.class.getCanonicalName());
+    private static final int VIRTUAL_THREADS = 256;
+
+    private final int threads;
+    private final int quota;
+    private final int queue;
+    private final long created = System.nanoTime();
+
+    // only in virtual mode
+    private final ThreadFactory virtualThreads;
+    private final Semaphore permits;
+
+    // all guarded by this
+    private final List<Lane> lanes = new ArrayList<Lane>();
+    private int cursor;
+    private int started;
+    private int idle;
+    private long busyNanos;
+
+    public WorkScheduler(Scheduler scheduler) {
+        this(scheduler, Scheduler.MODE_VIRTUAL.equals(scheduler.getMode()) ? newVirtualThreadFactory() : null);
+    }
+
+    /**
+     * @param virtualThreads where virtual mode gets a thread for each task, or null for the pool; any factory will do,
+     *                       so virtual mode can be tried out on a runtime without virtual threads
+     */
+    WorkScheduler(Scheduler scheduler, ThreadFactory virtualThreads) {
+        this.virtualThreads = virtualThreads;
+
+        if (scheduler.getThreads() > 0) {
+            this.threads = scheduler.getThreads();
+        } else if (virtualThreads != null) {
+            this.threads = VIRTUAL_THREADS;
+        } else {
+            this.threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        }
+
+        this.quota = (scheduler.getQuota() > 0) ? Math.min(scheduler.getQuota(), threads) : Math.max(1, threads / 2);
+        this.queue = scheduler.getQueue();
+        this.permits = (virtualThreads == null) ? null : new Semaphore(threads, true);
+    }
+
+    /** @return a factory for virtual threads, or null if this runtime hasn't got them */
+    private static ThreadFactory newVirtualThreadFactory() {
+        try {
+            final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, "WorkScheduler.Virtual.", 0L);
+            return (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "No virtual threads in this runtime, falling back to platform threads", e);
+            return null;
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtualThreads != null;
+    }
+
+    public synchronized Lane lane(String name) {
+        final Lane lane = new Lane(name);
+        lanes.add(lane);
+        return lane;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQuota() {
+        return quota;
+    }
+
+    /** @return how many threads have been started: the pool's so far, or one for every task in virtual mode */
+    public synchronized int getStarted() {
+        return started;
+    }
+
+    public synchronized int getQueued() {
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.tasks.size() + lane.waiting;
+        }
+        return queued;
+    }
+
+    public synchronized int getRunning() {
+        int running = 0;
+        for (Lane lane : lanes) {
+            running += lane.running;
+        }
+        return running;
+    }
+
+    /** @return the share of the threads' time since the scheduler was made that went into tasks, 0 to 1 */
+    public synchronized double getUtilization() {
+        final long elapsed = System.nanoTime() - created;
+        return (elapsed <= 0) ? 0 : (double) busyNanos / ((double) elapsed * threads);
+    }
+
+    private void submit(final Lane lane, final Runnable task) {
+        synchronized (this) {
+            if (queue > 0 && lane.tasks.size() + lane.waiting >= queue) {
+                lane.rejected++;
+                throw new RejectedExecutionException(lane.name + " has " + queue + " tasks waiting already");
+            }
+
+            lane.submitted++;
+
+            if (virtualThreads == null) {
+                lane.tasks.add(task);
+                startOrWake();
+                return;
+            }
+
+            lane.waiting++;
+            started++;
+        }
+
+        virtualThreads.newThread(new Runnable() {
+            @Override
+            public void run() {
+                runVirtual(lane, task);
+            }
+        }).start();
+    }
+
+    // called holding this
+    private void startOrWake() {
+        if (idle == 0 && started < threads) {
+            started++;
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "WorkScheduler.Worker." + started);
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            notify();
+        }
+    }
+
+    /** @return the next lane after the last one served that has a task waiting and a thread to spare, or null */
+    private Lane next() {
+        final int size = lanes.size();
+        for (int i = 0; i < size; i++) {
+            final Lane lane = lanes.get((cursor + i) % size);
+            if (!lane.tasks.isEmpty() && lane.running < quota) {
+                cursor = (cursor + i + 1) % size;
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    private void work() {
+        while (true) {
+            final Lane lane;
+            final Runnable task;
+
+            synchronized (this) {
+                Lane next;
+                while ((next = next()) == null) {
+                    idle++;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    } finally {
+                        idle--;
+                    }
+                }
+
+                lane = next;
+                task = lane.tasks.poll();
+                lane.running++;
+            }
+
+            run(lane, task);
+        }
+    }
+
+    private void runVirtual(Lane lane, Runnable task) {
+        try {
+            lane.permits.acquire();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                lane.permits.release();
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                lane.waiting--;
+                lane.failed++;
+            }
+            log.log(Level.WARNING, "Interrupted waiting to run a task in " + lane.name, e);
+            return;
+        }
+
+        try {
+            synchronized (this) {
+                lane.waiting--;
+                lane.running++;
+            }
+            run(lane, task);
+        } finally {
+            permits.release();
+            lane.permits.release();
+        }
+    }
+
+    /** Runs a task the lane's been counted as running, and counts it done. */
+    private void run(Lane lane, Runnable task) {
+        final long start = System.nanoTime();
+        boolean failed = false;
+        try {
+            task.run();
+        } catch (Throwable t) {
+            log.log(Level.SEVERE, "Task failed in " + lane.name, t);
+            failed = true;
+        }
+
+        final long nanos = System.nanoTime() - start;
+        synchronized (this) {
+            lane.running--;
+            lane.completed++;
+            if (failed) {
+                lane.failed++;
+            }
+            lane.busyNanos += nanos;
+            busyNanos += nanos;
+
+            // the lane might have been held back by its quota while another thread waited
+            if (!lane.tasks.isEmpty()) {
+                notify();
+            }
+        }
+    }
+
+    /**
+     * Where one core hands its work to the scheduler. Tasks from the same lane start in the order they were given, but
+     * can run at the same time, up to the quota.
+     */
+    public class Lane implements Executor {
+        private final String name;
+        // only in virtual mode
+        private final Semaphore permits = (virtualThreads == null) ? null : new Semaphore(quota, true);
+
+        // all guarded by the scheduler
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        // virtual threads waiting for permits
+        private int waiting;
+        private int running;
+        private long submitted;
+        private long completed;
+        private long failed;
+        private long rejected;
+        private long busyNanos;
+
+        private Lane(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @throws RejectedExecutionException if the lane's queue is full
+         */
+        @Override
+        public void execute(Runnable task) {
+            submit(this, task);
+        }
+
+        /**
+         * Runs a task that keeps its thread until it's done on a thread of its own, outside the lanes' turns, so it
+         * neither holds up this lane's other work nor takes a thread the other lanes are owed. Whatever it hands to
+         * {@link #execute(Runnable)} meanwhile takes its turn as usual.
+         */
+        public void executeLong(final Runnable task) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        log.log(Level.SEVERE, "Long task failed in " + name, t);
+                    }
+                }
+            }, "WorkScheduler.Long." + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** @return how many threads this lane may have at once */
+        public int getQuota() {
+            return quota;
+        }
+
+        public int getQueued() {
+            synchronized (WorkScheduler.this) {
+                return tasks.size() + waiting;
+            }
+        }
+
+        public int getRunning() {
+            synchronized (WorkScheduler.this) {
+                return running;
+            }
+        }
+
+        public long getSubmitted() {
+            synchronized (WorkScheduler.this) {
+                return submitted;
+            }
+        }
+
+        public long getCompleted() {
+            synchronized (WorkScheduler.this) {
+                return completed;
+            }
+        }
+
+        public long getFailed() {
+            synchronized (WorkScheduler.this) {
+                return failed;
+            }
+        }
+
+        public long getRejected() {
+            synchronized (WorkScheduler.this) {
+                return rejected;
+            }
+        }
+
+        /** @return the share of all the scheduler's busy time that went to this lane, 0 to 1 */
+        public double getShare() {
+            synchronized (WorkScheduler.this) {
+                return (WorkScheduler.this.busyNanos == 0) ? 0 : (double) busyNanos / WorkScheduler.this.busyNanos;
+            }
+        }
+
+        public long getBusyMillis() {
+            synchronized (WorkScheduler.this) {
+                return busyNanos / 1000000;
+            }
+        }
+    }
+}
@@ -0,0 +1,1609 @@
+package org.limewire.collection;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * An adaptive radix tree (Leis, Kemper and Neumann, "The Adaptive Radix Tree: ARTful Indexing for Main-Memory
+ * Databases") over String keys, implementing the same {@link Trie} interface as {@link PatriciaTrie}.
+ * <p>
+ * Each char of a key is taken as two bytes, high one first, so a lookup branches on a whole byte per node instead
+ * of one bit, and sorting by bytes sorts keys the way {@link String#compareTo(String)} does. Inner nodes grow and
+ * shrink between four sizes (4, 16, 48 and 256 children) to keep sparse nodes small, and a run of nodes with only
+ * one child is collapsed into the prefix of the node below it. Keys live in leaves, a key that's a prefix of others
+ * being held by the node where it ends. Lookups don't compare the collapsed prefixes on the way down; the key of
+ * the leaf that's reached is compared once at the end instead.
+ * <p>
+ * Every inner node counts the entries below it, so {@link #indexOf(String)}, {@link #getEntryAt(int)} and the size
+ * of a view take time proportional to the depth of the tree rather than the number of entries.
+ * <p>
+ * Keys can't be null. Views returned by {@link #getPrefixedBy(String)} and friends are ranges of keys that stay
+ * backed by the tree; their iterators are fail-fast and support removal.
+ */
+public class AdaptiveRadixTrie<V> extends AbstractMap<String, V> implements Trie<String, V> {
+
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /** The top of the tree: null, a leaf or a node. */
+    private Object root;
+
+    /** The current size (total number of elements) of the Trie. */
+    private int size;
+
+    /** The number of times this has been modified (to fail-fast the iterators). */
+    private int modCount;
+
+    // set by the recursive operations for whoever started them
+    private V previous;
+    private int removed;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        size = 0;
+        modCount++;
+    }
+
+    /** Keys are in their natural order. */
+    public Comparator<? super String> comparator() {
+        return null;
+    }
+
+    @Override
+    public V get(Object k) {
+        final Leaf<V> leaf = (k instanceof String) ? find((String) k) : null;
+        return (leaf == null) ? null : leaf.value;
+    }
+
+    @Override
+    public boolean containsKey(Object k) {
+        return k instanceof String && find((String) k) != null;
+    }
+
+    @Override
+    public V put(String key, V value) {
+        if (key == null) {
+            throw new NullPointerException("Key cannot be null");
+        }
+
+        previous = null;
+        root = insert(root, key, value, 0);
+        final V rtn = previous;
+        previous = null;
+        return rtn;
+    }
+
+    public V putIfAbsent(String key, final V value) {
+        final Leaf<V> leaf = find(key);
+        if (leaf != null && leaf.value != null) {
+            return leaf.value;
+        } else if (leaf != null) {
+            leaf.value = value;
+        } else {
+            put(key, value);
+        }
+        return null;
+    }
+
+    public V mergeEntry(String key, final V value, final Merger<V> merger) {
+        if (value == null) {
+            throw new NullPointerException("Value cannot be null");
+        }
+
+        return computeEntry(key, new Remapper<String, V>() {
+            public V remap(String key, V existing) {
+                return existing == null ? value : merger.merge(existing, value);
+            }
+        });
+    }
+
+    /**
+     * Hands the value found for the key to the remapper and stores what it returns. An existing entry's value is
+     * replaced in place, so the tree is only walked a second time to add a new key or take one out.
+     */
+    public V computeEntry(String key, Remapper<? super String, V> remapper) {
+        if (key == null) {
+            throw new NullPointerException("Key cannot be null");
+        }
+
+        final Leaf<V> leaf = find(key);
+        final V existing = (leaf == null) ? null : leaf.value;
+        final V value = remapper.remap(key, existing);
+
+        if (value == null) {
+            if (leaf != null) {
+                remove(key);
+            }
+            return null;
+        }
+
+        if (leaf == null) {
+            put(key, value);
+        } else if (value != existing) {
+            leaf.value = value;
+            modCount++;
+        }
+        return value;
+    }
+
+    @Override
+    public V remove(Object k) {
+        if (!(k instanceof String)) {
+            return null;
+        }
+
+        removed = 0;
+        previous = null;
+        root = delete(root, (String) k, 0);
+        final V rtn = previous;
+        previous = null;
+        if (removed > 0) {
+            size--;
+            modCount++;
+        }
+        return rtn;
+    }
+
+    public int removePrefix(String prefix) {
+        if (prefix.length() == 0) {
+            final int count = size;
+            clear();
+            return count;
+        }
+
+        removed = 0;
+        root = removePrefix(root, prefix, 0);
+        if (removed > 0) {
+            size -= removed;
+            modCount++;
+        }
+        return removed;
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+        return new RangeView(null, null).entrySet();
+    }
+
+    public String firstKey() {
+        return new RangeView(null, null).firstKey();
+    }
+
+    public String lastKey() {
+        return new RangeView(null, null).lastKey();
+    }
+
+    public SortedMap<String, V> headMap(String toKey) {
+        return new RangeView(null, toKey);
+    }
+
+    public SortedMap<String, V> tailMap(String fromKey) {
+        return new RangeView(fromKey, null);
+    }
+
+    public SortedMap<String, V> subMap(String fromKey, String toKey) {
+        if (fromKey.compareTo(toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return new RangeView(fromKey, toKey);
+    }
+
+    public SortedMap<String, V> getPrefixedBy(String key) {
+        return prefixView(key);
+    }
+
+    public SortedMap<String, V> getPrefixedBy(String key, int length) {
+        return getPrefixedBy(key, 0, length);
+    }
+
+    public SortedMap<String, V> getPrefixedBy(String key, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > key.length()) {
+            throw new IllegalArgumentException(offset + " + " + length + " > " + key.length());
+        }
+        return prefixView(key.substring(offset, offset + length));
+    }
+
+    /**
+     * Returns the keys that start with the first {@code bitLength} bits of the key. A key that's shorter counts as
+     * padded with zero bits, the same as it does in a {@link PatriciaTrie}.
+     */
+    public SortedMap<String, V> getPrefixedByBits(String key, int bitLength) {
+        if (bitLength < 0 || bitLength > key.length() * Character.SIZE) {
+            throw new IllegalArgumentException(bitLength + " > " + key.length() * Character.SIZE);
+        }
+
+        final int chars = bitLength / Character.SIZE;
+        final int bits = bitLength % Character.SIZE;
+        final String prefix = key.substring(0, chars);
+        if (bits == 0) {
+            return prefixView(prefix);
+        }
+
+        final int mask = (0xffff << (Character.SIZE - bits)) & 0xffff;
+        final int low = key.charAt(chars) & mask;
+        final int high = low | (~mask & 0xffff);
+        final String from = (low == 0) ? prefix : prefix + (char) low;
+        final String to = (high == 0xffff) ? successor(prefix) : prefix + (char) (high + 1);
+        return new RangeView(from, to);
+    }
+
+    private SortedMap<String, V> prefixView(String prefix) {
+        if (prefix.length() == 0) {
+            return this;
+        }
+        return new RangeView(prefix, successor(prefix));
+    }
+
+    /** @return the smallest key that's greater than everything prefixed by the key, or null if there's none */
+    private static String successor(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            final char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the position of the key in the Trie, counting from zero. If the key isn't in the Trie this returns
+     * <code>(-(insertion point) - 1)</code>, where the insertion point is the position of the first greater key (or
+     * the size of the Trie).
+     */
+    public int indexOf(String key) {
+        final int rank = rank(root, key, 0);
+        return (find(key) != null) ? rank : -rank - 1;
+    }
+
+    /**
+     * Returns the entry at the given position in key order, descending by the nodes' counts.
+     *
+     * @throws IndexOutOfBoundsException if the position is negative or not less than the size of the Trie.
+     */
+    @SuppressWarnings("unchecked")
+    public Map.Entry<String, V> getEntryAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        Object n = root;
+        while (n instanceof Node) {
+            final Node<V> node = (Node<V>) n;
+            if (node.terminal != null) {
+                if (index == 0) {
+                    return node.terminal;
+                }
+                index--;
+            }
+
+            for (int b = node.next(0); b >= 0; b = node.next(b + 1)) {
+                final Object child = node.child(b);
+                final int count = count(child);
+                if (index < count) {
+                    n = child;
+                    break;
+                }
+                index -= count;
+            }
+        }
+        return (Leaf<V>) n;
+    }
+
+    /**
+     * Splits the entries prefixed by the key (all of them if the key is null or empty) into at most
+     * <code>parts</code> contiguous views of nearly equal size, in key order, the same way
+     * {@link PatriciaTrie#partition(Object, int)} does.
+     *
+     * @throws IllegalArgumentException if parts isn't positive
+     */
+    public List<SortedMap<String, V>> partition(String prefix, int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("parts must be positive: " + parts);
+        }
+
+        int from = 0;
+        int to = size;
+        if (prefix != null && prefix.length() > 0) {
+            from = rank(root, prefix, 0);
+            final String end = successor(prefix);
+            to = (end == null) ? size : rank(root, end, 0);
+        }
+
+        final int count = to - from;
+        parts = Math.min(parts, count);
+        final List<SortedMap<String, V>> views = new ArrayList<SortedMap<String, V>>(parts);
+
+        String fromKey = (parts > 0) ? getEntryAt(from).getKey() : null;
+        for (int i = 1; i <= parts; i++) {
+            final int end = from + (int) ((long) i * count / parts);
+            if (end < size) {
+                final String toKey = getEntryAt(end).getKey();
+                views.add(subMap(fromKey, toKey));
+                fromKey = toKey;
+            } else {
+                views.add(tailMap(fromKey));
+            }
+        }
+
+        return views;
+    }
+
+    /**
+     * Returns the value whose key is closest to the given one in a bitwise XOR metric, a shorter key counting as
+     * padded with zero bits.
+     */
+    public V select(String key) {
+        final Map.Entry<String, V> entry = select(key, new Cursor<String, V>() {
+            public SelectStatus select(Map.Entry<? extends String, ? extends V> entry) {
+                return SelectStatus.EXIT;
+            }
+        });
+        return (entry == null) ? null : entry.getValue();
+    }
+
+    public Map.Entry<String, V> select(String key, Cursor<? super String, ? super V> cursor) {
+        final Walk walk = new Walk(cursor);
+        selectR(root, key, 0, new ArrayList<Leaf<V>>(0), walk);
+        if (walk.removeAndExit) {
+            remove(walk.result.getKey());
+        }
+        return walk.result;
+    }
+
+    public Map.Entry<String, V> traverse(Cursor<? super String, ? super V> cursor) {
+        return walk(root, null, cursor);
+    }
+
+    /**
+     * Walks only the subtree holding the prefix, handing the leaves straight to the cursor without allocating
+     * anything per entry.
+     */
+    public Map.Entry<String, V> traversePrefix(String prefix, Cursor<? super String, ? super V> cursor) {
+        if (prefix.length() == 0) {
+            return traverse(cursor);
+        }
+
+        final Object subtree = subtree(prefix);
+        return (subtree == null) ? null : walk(subtree, successor(prefix), cursor);
+    }
+
+    /**
+     * Walks the subtree in order. The walk is recursive until the cursor asks for a removal, which changes the tree
+     * under it, after which it goes on from one key to the next instead.
+     */
+    private Map.Entry<String, V> walk(Object subtree, String to, Cursor<? super String, ? super V> cursor) {
+        final Walk walk = new Walk(cursor);
+        if (visit(subtree, walk)) {
+            return null;
+        }
+
+        while (walk.result != null) {
+            final Leaf<V> current = walk.result;
+            if (walk.removeAndExit) {
+                remove(current.key);
+                return new Leaf<V>(current.key, current.value);
+            } else if (!walk.remove) {
+                return current;
+            }
+
+            walk.remove = false;
+            walk.result = null;
+            remove(current.key);
+
+            Leaf<V> next = ceiling(root, current.key, 0, false);
+            while (next != null && (to == null || next.key.compareTo(to) < 0) && walk.select(next)) {
+                next = ceiling(root, next.key, 0, false);
+            }
+        }
+        return null;
+    }
+
+    /** @return false once the cursor has said to stop, or to remove something */
+    @SuppressWarnings("unchecked")
+    private boolean visit(Object n, Walk walk) {
+        if (n == null) {
+            return true;
+        } else if (n instanceof Leaf) {
+            return walk.select((Leaf<V>) n);
+        }
+
+        final Node<V> node = (Node<V>) n;
+        if (node.terminal != null && !walk.select(node.terminal)) {
+            return false;
+        }
+        for (int b = node.next(0); b >= 0; b = node.next(b + 1)) {
+            if (!visit(node.child(b), walk)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Visits the subtree in XOR order from the key. The pending leaves are ones whose keys end above this subtree
+     * but sort into it, since their missing bytes count as zeros: they're slotted in where a zero byte would go.
+     *
+     * @return false once the cursor has said to stop
+     */
+    @SuppressWarnings("unchecked")
+    private boolean selectR(Object n, String key, int depth, List<Leaf<V>> pending, Walk walk) {
+        if (n == null) {
+            return walk.selectAll(pending);
+        }
+
+        if (n instanceof Leaf) {
+            final Leaf<V> leaf = (Leaf<V>) n;
+            if (pending.isEmpty()) {
+                return walk.selectNoRemove(leaf);
+            }
+
+            int i = depth;
+            final int length = leaf.key.length() * 2;
+            while (i < length && byteAt(leaf.key, i) == 0) {
+                i++;
+            }
+
+            final int t = targetByte(key, i);
+            if (i == length || t < (byteAt(leaf.key, i) ^ t)) {
+                return walk.selectAll(pending) && walk.selectNoRemove(leaf);
+            }
+            return walk.selectNoRemove(leaf) && walk.selectAll(pending);
+        }
+
+        final Node<V> node = (Node<V>) n;
+        if (!pending.isEmpty()) {
+            for (int i = 0; i < node.prefix.length; i++) {
+                final int pb = node.prefix[i] & 0xff;
+                if (pb != 0) {
+                    final int t = targetByte(key, depth + i);
+                    final List<Leaf<V>> none = new ArrayList<Leaf<V>>(0);
+                    if (t < (pb ^ t)) {
+                        return walk.selectAll(pending) && selectR(node, key, depth, none, walk);
+                    }
+                    return selectR(node, key, depth, none, walk) && walk.selectAll(pending);
+                }
+            }
+        }
+
+        depth += node.prefix.length;
+        final List<Leaf<V>> zeros;
+        if (node.terminal == null) {
+            zeros = pending;
+        } else {
+            zeros = new ArrayList<Leaf<V>>(pending);
+            zeros.add(node.terminal);
+        }
+
+        final int t = targetByte(key, depth);
+        final List<Leaf<V>> none = new ArrayList<Leaf<V>>(0);
+        for (int x = 0; x < 256; x++) {
+            final int b = x ^ t;
+            final Object child = node.child(b);
+            if (b == 0) {
+                if (!selectR(child, key, depth + 1, zeros, walk)) {
+                    return false;
+                }
+            } else if (child != null && !selectR(child, key, depth + 1, none, walk)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int targetByte(String key, int depth) {
+        return (depth < key.length() * 2) ? byteAt(key, depth) : 0;
+    }
+
+    /** Byte {@code depth} of the key: the high byte of a char at even depths, the low one at odd. */
+    private static int byteAt(String key, int depth) {
+        final char c = key.charAt(depth >> 1);
+        return ((depth & 1) == 0) ? (c >>> 8) : (c & 0xff);
+    }
+
+    private static int count(Object n) {
+        return (n instanceof Node) ? ((Node<?>) n).count : (n == null) ? 0 : 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Leaf<V> find(String key) {
+        final int length = key.length() * 2;
+        Object n = root;
+        int depth = 0;
+
+        // the prefixes are skipped rather than compared, the leaf's key settles it
+        while (n instanceof Node) {
+            final Node<V> node = (Node<V>) n;
+            depth += node.prefix.length;
+            if (depth > length) {
+                return null;
+            } else if (depth == length) {
+                n = node.terminal;
+                break;
+            }
+            n = node.child(byteAt(key, depth++));
+        }
+
+        final Leaf<V> leaf = (Leaf<V>) n;
+        return (leaf != null && leaf.key.equals(key)) ? leaf : null;
+    }
+
+    /** @return the subtree holding exactly the keys with the prefix, or null if there are none */
+    @SuppressWarnings("unchecked")
+    private Object subtree(String prefix) {
+        final int length = prefix.length() * 2;
+        Object n = root;
+        int depth = 0;
+
+        while (n instanceof Node) {
+            final Node<V> node = (Node<V>) n;
+            for (int i = 0; i < node.prefix.length; i++) {
+                if (depth + i == length) {
+                    return node;
+                } else if ((node.prefix[i] & 0xff) != byteAt(prefix, depth + i)) {
+                    return null;
+                }
+            }
+
+            depth += node.prefix.length;
+            if (depth == length) {
+                return node;
+            }
+            n = node.child(byteAt(prefix, depth++));
+        }
+
+        return (n != null && ((Leaf<V>) n).key.startsWith(prefix)) ? n : null;
+    }
+
+    /** @return how many of the node's prefix bytes match the key's from the depth on */
+    private static int matched(Node<?> node, String key, int depth) {
+        final int n = Math.min(node.prefix.length, key.length() * 2 - depth);
+        int i = 0;
+        while (i < n && (node.prefix[i] & 0xff) == byteAt(key, depth + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /** Adds the key below the subtree, returning what takes the subtree's place. */
+    @SuppressWarnings("unchecked")
+    private Object insert(Object n, String key, V value, int depth) {
+        if (n == null) {
+            size++;
+            modCount++;
+            return new Leaf<V>(key, value);
+        }
+
+        if (n instanceof Leaf) {
+            final Leaf<V> leaf = (Leaf<V>) n;
+            if (leaf.key.equals(key)) {
+                previous = leaf.value;
+                leaf.value = value;
+                return leaf;
+            }
+
+            // both go under a new node holding the bytes they share
+            final int length = Math.min(key.length(), leaf.key.length()) * 2;
+            int i = depth;
+            while (i < length && byteAt(key, i) == byteAt(leaf.key, i)) {
+                i++;
+            }
+
+            final Node<V> node = new LinearNode<V>(4);
+            node.prefix = bytes(key, depth, i);
+            node.count = 2;
+            attach(node, leaf, i);
+            attach(node, new Leaf<V>(key, value), i);
+            size++;
+            modCount++;
+            return node;
+        }
+
+        Node<V> node = (Node<V>) n;
+        final int matched = matched(node, key, depth);
+        if (matched < node.prefix.length) {
+            // the key leaves the collapsed path part way, so the path is split there
+            final Node<V> parent = new LinearNode<V>(4);
+            parent.prefix = Arrays.copyOf(node.prefix, matched);
+            parent.count = node.count + 1;
+
+            final int b = node.prefix[matched] & 0xff;
+            node.prefix = Arrays.copyOfRange(node.prefix, matched + 1, node.prefix.length);
+            parent.add(b, node);
+            attach(parent, new Leaf<V>(key, value), depth + matched);
+            size++;
+            modCount++;
+            return parent;
+        }
+
+        depth += node.prefix.length;
+        if (depth == key.length() * 2) {
+            if (node.terminal == null) {
+                node.terminal = new Leaf<V>(key, value);
+                node.count++;
+                size++;
+                modCount++;
+            } else {
+                previous = node.terminal.value;
+                node.terminal.value = value;
+            }
+            return node;
+        }
+
+        final int b = byteAt(key, depth);
+        final Object child = node.child(b);
+        if (child == null) {
+            node = node.add(b, new Leaf<V>(key, value));
+            node.count++;
+            size++;
+            modCount++;
+            return node;
+        }
+
+        final int before = size;
+        final Object replacement = insert(child, key, value, depth + 1);
+        if (replacement != child) {
+            node.set(b, replacement);
+        }
+        if (size != before) {
+            node.count++;
+        }
+        return node;
+    }
+
+    /** Hooks the leaf into the node, as its terminal if its key ends at the depth. */
+    private static <V> void attach(Node<V> node, Leaf<V> leaf, int depth) {
+        if (depth == leaf.key.length() * 2) {
+            node.terminal = leaf;
+        } else {
+            node.add(byteAt(leaf.key, depth), leaf);
+        }
+    }
+
+    private static byte[] bytes(String key, int from, int to) {
+        if (from == to) {
+            return NO_BYTES;
+        }
+
+        final byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            bytes[i - from] = (byte) byteAt(key, i);
+        }
+        return bytes;
+    }
+
+    /** Takes the key out of the subtree, returning what takes the subtree's place. */
+    @SuppressWarnings("unchecked")
+    private Object delete(Object n, String key, int depth) {
+        if (n == null) {
+            return null;
+        }
+
+        if (n instanceof Leaf) {
+            final Leaf<V> leaf = (Leaf<V>) n;
+            if (!leaf.key.equals(key)) {
+                return leaf;
+            }
+            previous = leaf.value;
+            removed = 1;
+            return null;
+        }
+
+        Node<V> node = (Node<V>) n;
+        if (matched(node, key, depth) != node.prefix.length) {
+            return node;
+        }
+
+        depth += node.prefix.length;
+        if (depth == key.length() * 2) {
+            if (node.terminal == null) {
+                return node;
+            }
+            previous = node.terminal.value;
+            removed = 1;
+            node.terminal = null;
+            node.count--;
+            return collapse(node);
+        }
+
+        final int b = byteAt(key, depth);
+        final Object child = node.child(b);
+        if (child == null) {
+            return node;
+        }
+
+        final Object replacement = delete(child, key, depth + 1);
+        if (removed == 0) {
+            return node;
+        }
+
+        node.count--;
+        if (replacement == null) {
+            node = node.remove(b);
+        } else if (replacement != child) {
+            node.set(b, replacement);
+        }
+        return collapse(node);
+    }
+
+    /** Drops everything prefixed by the key from the subtree, returning what takes the subtree's place. */
+    @SuppressWarnings("unchecked")
+    private Object removePrefix(Object n, String prefix, int depth) {
+        if (n == null) {
+            return null;
+        }
+
+        if (n instanceof Leaf) {
+            if (((Leaf<V>) n).key.startsWith(prefix)) {
+                removed = 1;
+                return null;
+            }
+            return n;
+        }
+
+        final int length = prefix.length() * 2;
+        Node<V> node = (Node<V>) n;
+        for (int i = 0; i < node.prefix.length; i++) {
+            if (depth + i == length) {
+                removed = node.count;
+                return null;
+            } else if ((node.prefix[i] & 0xff) != byteAt(prefix, depth + i)) {
+                return node;
+            }
+        }
+
+        depth += node.prefix.length;
+        if (depth == length) {
+            removed = node.count;
+            return null;
+        }
+
+        final int b = byteAt(prefix, depth);
+        final Object child = node.child(b);
+        if (child == null) {
+            return node;
+        }
+
+        final Object replacement = removePrefix(child, prefix, depth + 1);
+        if (removed == 0) {
+            return node;
+        }
+
+        node.count -= removed;
+        if (replacement == null) {
+            node = node.remove(b);
+        } else if (replacement != child) {
+            node.set(b, replacement);
+        }
+        return collapse(node);
+    }
+
+    /** Replaces a node that's down to its terminal, or to a single child, with that. */
+    private static <V> Object collapse(Node<V> node) {
+        final int children = node.children();
+        if (children == 0) {
+            return node.terminal;
+        } else if (children > 1 || node.terminal != null) {
+            return node;
+        }
+
+        final int b = node.next(0);
+        final Object child = node.child(b);
+        if (child instanceof Node) {
+            final Node<?> below = (Node<?>) child;
+            final byte[] prefix = new byte[node.prefix.length + 1 + below.prefix.length];
+            System.arraycopy(node.prefix, 0, prefix, 0, node.prefix.length);
+            prefix[node.prefix.length] = (byte) b;
+            System.arraycopy(below.prefix, 0, prefix, node.prefix.length + 1, below.prefix.length);
+            below.prefix = prefix;
+        }
+        return child;
+    }
+
+    /** @return how many keys in the subtree are less than the given one */
+    @SuppressWarnings("unchecked")
+    private static <V> int rank(Object n, String key, int depth) {
+        if (n == null) {
+            return 0;
+        } else if (n instanceof Leaf) {
+            return (((Leaf<V>) n).key.compareTo(key) < 0) ? 1 : 0;
+        }
+
+        final int length = key.length() * 2;
+        final Node<V> node = (Node<V>) n;
+        for (int i = 0; i < node.prefix.length; i++) {
+            if (depth + i == length) {
+                return 0;
+            }
+            final int cmp = (node.prefix[i] & 0xff) - byteAt(key, depth + i);
+            if (cmp != 0) {
+                return (cmp < 0) ? node.count : 0;
+            }
+        }
+
+        depth += node.prefix.length;
+        if (depth == length) {
+            return 0;
+        }
+
+        int rank = (node.terminal != null) ? 1 : 0;
+        final int b = byteAt(key, depth);
+        for (int c = node.next(0); c >= 0 && c < b; c = node.next(c + 1)) {
+            rank += count(node.child(c));
+        }
+        return rank + rank(node.child(b), key, depth + 1);
+    }
+
+    /** @return the first leaf of the subtree whose key is greater than (or, if inclusive, equal to) the given one */
+    @SuppressWarnings("unchecked")
+    private static <V> Leaf<V> ceiling(Object n, String key, int depth, boolean inclusive) {
+        if (n == null) {
+            return null;
+        } else if (n instanceof Leaf) {
+            final Leaf<V> leaf = (Leaf<V>) n;
+            final int cmp = leaf.key.compareTo(key);
+            return (cmp > 0 || (cmp == 0 && inclusive)) ? leaf : null;
+        }
+
+        final int length = key.length() * 2;
+        final Node<V> node = (Node<V>) n;
+        for (int i = 0; i < node.prefix.length; i++) {
+            if (depth + i == length) {
+                return Leaf.<V>first(node);
+            }
+            final int cmp = (node.prefix[i] & 0xff) - byteAt(key, depth + i);
+            if (cmp != 0) {
+                return (cmp > 0) ? Leaf.<V>first(node) : null;
+            }
+        }
+
+        depth += node.prefix.length;
+        if (depth == length) {
+            if (node.terminal != null && inclusive) {
+                return node.terminal;
+            }
+            final int b = node.next(0);
+            return (b < 0) ? null : Leaf.<V>first(node.child(b));
+        }
+
+        final int b = byteAt(key, depth);
+        final Leaf<V> found = ceiling(node.child(b), key, depth + 1, inclusive);
+        if (found != null) {
+            return found;
+        }
+
+        final int next = (b == 255) ? -1 : node.next(b + 1);
+        return (next < 0) ? null : Leaf.<V>first(node.child(next));
+    }
+
+    /** @return the last leaf of the subtree whose key is less than (or, if inclusive, equal to) the given one */
+    @SuppressWarnings("unchecked")
+    private static <V> Leaf<V> floor(Object n, String key, int depth, boolean inclusive) {
+        if (n == null) {
+            return null;
+        } else if (n instanceof Leaf) {
+            final Leaf<V> leaf = (Leaf<V>) n;
+            final int cmp = leaf.key.compareTo(key);
+            return (cmp < 0 || (cmp == 0 && inclusive)) ? leaf : null;
+        }
+
+        final int length = key.length() * 2;
+        final Node<V> node = (Node<V>) n;
+        for (int i = 0; i < node.prefix.length; i++) {
+            if (depth + i == length) {
+                return null;
+            }
+            final int cmp = (node.prefix[i] & 0xff) - byteAt(key, depth + i);
+            if (cmp != 0) {
+                return (cmp < 0) ? Leaf.<V>last(node) : null;
+            }
+        }
+
+        depth += node.prefix.length;
+        if (depth == length) {
+            return inclusive ? node.terminal : null;
+        }
+
+        final int b = byteAt(key, depth);
+        final Leaf<V> found = floor(node.child(b), key, depth + 1, inclusive);
+        if (found != null) {
+            return found;
+        }
+
+        final int before = (b == 0) ? -1 : node.previous(b - 1);
+        return (before < 0) ? node.terminal : Leaf.<V>last(node.child(before));
+    }
+
+    /** A key and its value; the entries the Trie hands out. */
+    private static final class Leaf<V> implements Map.Entry<String, V> {
+        private final String key;
+        private V value;
+
+        private Leaf(String key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> Leaf<V> first(Object n) {
+            while (n instanceof Node) {
+                final Node<V> node = (Node<V>) n;
+                if (node.terminal != null) {
+                    return node.terminal;
+                }
+                n = node.child(node.next(0));
+            }
+            return (Leaf<V>) n;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> Leaf<V> last(Object n) {
+            while (n instanceof Node) {
+                final Node<V> node = (Node<V>) n;
+                final int b = node.previous(255);
+                if (b < 0) {
+                    return node.terminal;
+                }
+                n = node.child(b);
+            }
+            return (Leaf<V>) n;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public V setValue(V value) {
+            final V old = this.value;
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * An inner node: the bytes collapsed into it, the leaf whose key ends at it, if any, and its children by byte.
+     * Adding or removing a child may hand back a node of another size holding the same things.
+     */
+    private static abstract class Node<V> {
+        byte[] prefix = NO_BYTES;
+        Leaf<V> terminal;
+        int count;
+
+        abstract Object child(int b);
+
+        abstract Node<V> add(int b, Object child);
+
+        abstract void set(int b, Object child);
+
+        abstract Node<V> remove(int b);
+
+        abstract int children();
+
+        /** @return the smallest byte from the given one on that has a child, or -1 */
+        abstract int next(int from);
+
+        /** @return the largest byte up to the given one that has a child, or -1 */
+        abstract int previous(int from);
+
+        <N extends Node<V>> N copyTo(N node) {
+            node.prefix = prefix;
+            node.terminal = terminal;
+            node.count = count;
+            return node;
+        }
+    }
+
+    /** Node4 and Node16: up to 4 or 16 children, their bytes kept sorted in a parallel array. */
+    private static final class LinearNode<V> extends Node<V> {
+        private final byte[] keys;
+        private final Object[] children;
+        private int n;
+
+        private LinearNode(int capacity) {
+            this.keys = new byte[capacity];
+            this.children = new Object[capacity];
+        }
+
+        Object child(int b) {
+            for (int i = 0; i < n; i++) {
+                final int k = keys[i] & 0xff;
+                if (k == b) {
+                    return children[i];
+                } else if (k > b) {
+                    return null;
+                }
+            }
+            return null;
+        }
+
+        Node<V> add(int b, Object child) {
+            if (n == keys.length) {
+                final Node<V> grown = (keys.length == 4) ? copyTo(new LinearNode<V>(16)) : copyTo(new Node48<V>());
+                for (int i = 0; i < n; i++) {
+                    grown.add(keys[i] & 0xff, children[i]);
+                }
+                return grown.add(b, child);
+            }
+
+            int i = n;
+            while (i > 0 && (keys[i - 1] & 0xff) > b) {
+                keys[i] = keys[i - 1];
+                children[i] = children[i - 1];
+                i--;
+            }
+            keys[i] = (byte) b;
+            children[i] = child;
+            n++;
+            return this;
+        }
+
+        void set(int b, Object child) {
+            for (int i = 0; i < n; i++) {
+                if ((keys[i] & 0xff) == b) {
+                    children[i] = child;
+                    return;
+                }
+            }
+        }
+
+        Node<V> remove(int b) {
+            for (int i = 0; i < n; i++) {
+                if ((keys[i] & 0xff) == b) {
+                    System.arraycopy(keys, i + 1, keys, i, n - i - 1);
+                    System.arraycopy(children, i + 1, children, i, n - i - 1);
+                    children[--n] = null;
+                    break;
+                }
+            }
+
+            if (keys.length > 4 && n < 4) {
+                final Node<V> shrunk = copyTo(new LinearNode<V>(4));
+                for (int i = 0; i < n; i++) {
+                    shrunk.add(keys[i] & 0xff, children[i]);
+                }
+                return shrunk;
+            }
+            return this;
+        }
+
+        int children() {
+            return n;
+        }
+
+        int next(int from) {
+            for (int i = 0; i < n; i++) {
+                final int k = keys[i] & 0xff;
+                if (k >= from) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        int previous(int from) {
+            for (int i = n - 1; i >= 0; i--) {
+                final int k = keys[i] & 0xff;
+                if (k <= from) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** Up to 48 children, found through a 256 entry table of their slots. */
+    private static final class Node48<V> extends Node<V> {
+        private final byte[] slots = new byte[256];
+        private final Object[] children = new Object[48];
+        private int n;
+
+        Object child(int b) {
+            final int slot = slots[b];
+            return (slot == 0) ? null : children[slot - 1];
+        }
+
+        Node<V> add(int b, Object child) {
+            if (n == children.length) {
+                final Node<V> grown = copyTo(new Node256<V>());
+                for (int c = 0; c < 256; c++) {
+                    if (slots[c] != 0) {
+                        grown.add(c, children[slots[c] - 1]);
+                    }
+                }
+                return grown.add(b, child);
+            }
+
+            int slot = 0;
+            while (children[slot] != null) {
+                slot++;
+            }
+            children[slot] = child;
+            slots[b] = (byte) (slot + 1);
+            n++;
+            return this;
+        }
+
+        void set(int b, Object child) {
+            children[slots[b] - 1] = child;
+        }
+
+        Node<V> remove(int b) {
+            final int slot = slots[b];
+            if (slot != 0) {
+                children[slot - 1] = null;
+                slots[b] = 0;
+                n--;
+            }
+
+            if (n < 12) {
+                final Node<V> shrunk = copyTo(new LinearNode<V>(16));
+                for (int c = 0; c < 256; c++) {
+                    if (slots[c] != 0) {
+                        shrunk.add(c, children[slots[c] - 1]);
+                    }
+                }
+                return shrunk;
+            }
+            return this;
+        }
+
+        int children() {
+            return n;
+        }
+
+        int next(int from) {
+            for (int c = from; c < 256; c++) {
+                if (slots[c] != 0) {
+                    return c;
+                }
+            }
+            return -1;
+        }
+
+        int previous(int from) {
+            for (int c = from; c >= 0; c--) {
+                if (slots[c] != 0) {
+                    return c;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** A child for every byte. */
+    private static final class Node256<V> extends Node<V> {
+        private final Object[] children = new Object[256];
+        private int n;
+
+        Object child(int b) {
+            return children[b];
+        }
+
+        Node<V> add(int b, Object child) {
+            children[b] = child;
+            n++;
+            return this;
+        }
+
+        void set(int b, Object child) {
+            children[b] = child;
+        }
+
+        Node<V> remove(int b) {
+            if (children[b] != null) {
+                children[b] = null;
+                n--;
+            }
+
+            if (n < 37) {
+                final Node<V> shrunk = copyTo(new Node48<V>());
+                for (int c = 0; c < 256; c++) {
+                    if (children[c] != null) {
+                        shrunk.add(c, children[c]);
+                    }
+                }
+                return shrunk;
+            }
+            return this;
+        }
+
+        int children() {
+            return n;
+        }
+
+        int next(int from) {
+            for (int c = from; c < 256; c++) {
+                if (children[c] != null) {
+                    return c;
+                }
+            }
+            return -1;
+        }
+
+        int previous(int from) {
+            for (int c = from; c >= 0; c--) {
+                if (children[c] != null) {
+                    return c;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** Carries a cursor through a walk, along with how the walk ended. */
+    private final class Walk {
+        private final Cursor<? super String, ? super V> cursor;
+        private Leaf<V> result;
+        private boolean remove;
+        private boolean removeAndExit;
+
+        private Walk(Cursor<? super String, ? super V> cursor) {
+            this.cursor = cursor;
+        }
+
+        /** @return true to go on */
+        private boolean select(Leaf<V> leaf) {
+            switch (cursor.select(leaf)) {
+                case EXIT:
+                    result = leaf;
+                    return false;
+                case REMOVE:
+                    result = leaf;
+                    remove = true;
+                    return false;
+                case REMOVE_AND_EXIT:
+                    result = leaf;
+                    removeAndExit = true;
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        private boolean selectNoRemove(Leaf<V> leaf) {
+            switch (cursor.select(leaf)) {
+                case REMOVE:
+                    throw new UnsupportedOperationException("cannot remove during select");
+                case EXIT:
+                    result = leaf;
+                    return false;
+                case REMOVE_AND_EXIT:
+                    result = new Leaf<V>(leaf.key, leaf.value);
+                    removeAndExit = true;
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        private boolean selectAll(List<Leaf<V>> leaves) {
+            for (Leaf<V> leaf : leaves) {
+                if (!selectNoRemove(leaf)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** The entries from {@code from} (inclusive) up to {@code to} (exclusive), either of which may be null. */
+    private final class RangeView extends AbstractMap<String, V> implements SortedMap<String, V> {
+        private final String from;
+        private final String to;
+
+        private RangeView(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean inRange(Object k) {
+            if (!(k instanceof String)) {
+                return false;
+            }
+            final String key = (String) k;
+            return (from == null || key.compareTo(from) >= 0) && (to == null || key.compareTo(to) < 0);
+        }
+
+        private Leaf<V> bounded(Leaf<V> leaf) {
+            return (leaf != null && (to == null || leaf.key.compareTo(to) < 0)) ? leaf : null;
+        }
+
+        private Leaf<V> firstLeaf() {
+            return bounded((from == null) ? Leaf.<V>first(root) : AdaptiveRadixTrie.<V>ceiling(root, from, 0, true));
+        }
+
+        @Override
+        public Set<Map.Entry<String, V>> entrySet() {
+            return new AbstractSet<Map.Entry<String, V>>() {
+                @Override
+                public Iterator<Map.Entry<String, V>> iterator() {
+                    return new RangeIterator(firstLeaf(), to);
+                }
+
+                @Override
+                public int size() {
+                    return RangeView.this.size();
+                }
+
+                @Override
+                public boolean contains(Object o) {
+                    if (!(o instanceof Map.Entry)) {
+                        return false;
+                    }
+                    final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+                    final Leaf<V> leaf = inRange(entry.getKey()) ? find((String) entry.getKey()) : null;
+                    return leaf != null && leaf.equals(entry);
+                }
+
+                @Override
+                public boolean remove(Object o) {
+                    if (!contains(o)) {
+                        return false;
+                    }
+                    AdaptiveRadixTrie.this.remove(((Map.Entry<?, ?>) o).getKey());
+                    return true;
+                }
+
+                @Override
+                public void clear() {
+                    RangeView.this.clear();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            final int high = (to == null) ? size : rank(root, to, 0);
+            final int low = (from == null) ? 0 : rank(root, from, 0);
+            return high - low;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return firstLeaf() == null;
+        }
+
+        @Override
+        public V get(Object k) {
+            return inRange(k) ? AdaptiveRadixTrie.this.get(k) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object k) {
+            return inRange(k) && AdaptiveRadixTrie.this.containsKey(k);
+        }
+
+        @Override
+        public V put(String key, V value) {
+            if (!inRange(key)) {
+                throw new IllegalArgumentException("Key is out of range: " + key);
+            }
+            return AdaptiveRadixTrie.this.put(key, value);
+        }
+
+        @Override
+        public V remove(Object k) {
+            return inRange(k) ? AdaptiveRadixTrie.this.remove(k) : null;
+        }
+
+        @Override
+        public void clear() {
+            if (from == null && to == null) {
+                AdaptiveRadixTrie.this.clear();
+                return;
+            }
+
+            final Iterator<Map.Entry<String, V>> entries = entrySet().iterator();
+            while (entries.hasNext()) {
+                entries.next();
+                entries.remove();
+            }
+        }
+
+        public Comparator<? super String> comparator() {
+            return null;
+        }
+
+        public String firstKey() {
+            final Leaf<V> leaf = firstLeaf();
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            return leaf.key;
+        }
+
+        public String lastKey() {
+            final Leaf<V> leaf = (to == null) ? Leaf.<V>last(root) : AdaptiveRadixTrie.<V>floor(root, to, 0, false);
+            if (leaf == null || (from != null && leaf.key.compareTo(from) < 0)) {
+                throw new NoSuchElementException();
+            }
+            return leaf.key;
+        }
+
+        public SortedMap<String, V> subMap(String fromKey, String toKey) {
+            if (fromKey.compareTo(toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return range(fromKey, toKey);
+        }
+
+        public SortedMap<String, V> headMap(String toKey) {
+            return range(from, toKey);
+        }
+
+        public SortedMap<String, V> tailMap(String fromKey) {
+            return range(fromKey, to);
+        }
+
+        private SortedMap<String, V> range(String fromKey, String toKey) {
+            if (fromKey != null && from != null && fromKey.compareTo(from) < 0) {
+                throw new IllegalArgumentException("fromKey out of range: " + fromKey);
+            } else if (toKey != null && to != null && toKey.compareTo(to) > 0) {
+                throw new IllegalArgumentException("toKey out of range: " + toKey);
+            }
+            return new RangeView(fromKey, toKey);
+        }
+    }
+
+    /** Goes from one leaf to the next by looking up the key after it, so removing the current one is harmless. */
+    /**
+     * Walks the leaves in order off a stack of the nodes on the path to the next one, so a step only climbs as far as
+     * the nearest node with a child left to visit instead of coming back down from the root.
+     */
+    private final class RangeIterator implements Iterator<Map.Entry<String, V>> {
+        private final String to;
+        private Node<V>[] nodes;
+        private int[] bytes;
+        private int height;
+        private Leaf<V> next;
+        private Leaf<V> current;
+        private int expectedModCount = modCount;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private RangeIterator(Leaf<V> first, String to) {
+            this.to = to;
+            this.nodes = new Node[16];
+            this.bytes = new int[16];
+            seek(first);
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Map.Entry<String, V> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            } else if (next == null) {
+                throw new NoSuchElementException();
+            }
+
+            current = next;
+            next = advance();
+            if (next != null && to != null && next.key.compareTo(to) >= 0) {
+                next = null;
+            }
+            return current;
+        }
+
+        public void remove() {
+            if (current == null) {
+                throw new IllegalStateException();
+            } else if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+
+            AdaptiveRadixTrie.this.remove(current.key);
+            current = null;
+            expectedModCount = modCount;
+
+            // the removal may have merged or resized nodes on the path, so it's found again
+            seek(next);
+        }
+
+        /** Rebuilds the stack as the path from the root down to the leaf. */
+        @SuppressWarnings("unchecked")
+        private void seek(Leaf<V> leaf) {
+            next = leaf;
+            height = 0;
+            if (leaf == null) {
+                return;
+            }
+
+            final String key = leaf.key;
+            Object n = root;
+            int depth = 0;
+            while (n instanceof Node) {
+                final Node<V> node = (Node<V>) n;
+                depth += node.prefix.length;
+                if (depth == key.length() * 2) {
+                    push(node, -1);
+                    return;
+                }
+                final int b = byteAt(key, depth++);
+                push(node, b);
+                n = node.child(b);
+            }
+        }
+
+        /** @return the leaf after the one the stack leads to, leaving the stack leading to it instead */
+        @SuppressWarnings("unchecked")
+        private Leaf<V> advance() {
+            while (height > 0) {
+                final Node<V> node = nodes[height - 1];
+                final int last = bytes[height - 1];
+                final int b = (last == 255) ? -1 : node.next(last + 1);
+                if (b < 0) {
+                    nodes[--height] = null;
+                    continue;
+                }
+
+                bytes[height - 1] = b;
+                Object n = node.child(b);
+                while (n instanceof Node) {
+                    final Node<V> child = (Node<V>) n;
+                    if (child.terminal != null) {
+                        push(child, -1);
+                        return child.terminal;
+                    }
+                    final int first = child.next(0);
+                    push(child, first);
+                    n = child.child(first);
+                }
+                return (Leaf<V>) n;
+            }
+            return null;
+        }
+
+        private void push(Node<V> node, int b) {
+            if (height == nodes.length) {
+                nodes = Arrays.copyOf(nodes, height * 2);
+                bytes = Arrays.copyOf(bytes, height * 2);
+            }
+            nodes[height] = node;
+            bytes[height++] = b;
+        }
+    }
+}
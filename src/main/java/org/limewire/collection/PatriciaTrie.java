@@ -4,10 +4,12 @@ import java.io.Serializable;
 import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -214,6 +216,95 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         throw new IndexOutOfBoundsException("Failed to put: " + key + " -> " + value + ", " + bitIndex);
     }
     
+    public V putIfAbsent(K key, final V value) {
+        final Object[] previous = new Object[1];
+        computeEntry(key, new Remapper<K, V>() {
+            public V remap(K key, V existing) {
+                previous[0] = existing;
+                return existing != null ? existing : value;
+            }
+        });
+        return asValue(previous[0]);
+    }
+    
+    public V mergeEntry(K key, final V value, final Merger<V> merger) {
+        if (value == null) {
+            throw new NullPointerException("Value cannot be null");
+        }
+        
+        return computeEntry(key, new Remapper<K, V>() {
+            public V remap(K key, V existing) {
+                return existing == null ? value : merger.merge(existing, value);
+            }
+        });
+    }
+    
+    /**
+     * Locates the entry for the key the same way {@link #put(Object, Object)}
+     * does and hands its value to the remapper. The result is written to the 
+     * entry that was found (or a new one is hooked in where the lookup ended),
+     * so the Trie is only walked once more for new keys and never for
+     * existing ones.
+     */
+    public V computeEntry(K key, Remapper<? super K, V> remapper) {
+        if (key == null) {
+            throw new NullPointerException("Key cannot be null");
+        }
+        
+        int keyLength = length(key);
+        TrieEntry<K, V> target = null;
+        int bitIndex = KeyAnalyzer.NULL_BIT_KEY;
+        
+        // Same cases as put: the root, an exact match or a new entry
+        if (keyLength == 0) {
+            target = root;
+        } else {
+            TrieEntry<K, V> found = getNearestEntryForKey(key, keyLength);
+            if (key.equals(found.key)) {
+                target = found;
+            } else {
+                bitIndex = bitIndex(key, found.key);
+                if (isNullBitKey(bitIndex)) {
+                    target = root;
+                } else if (isEqualBitKey(bitIndex)) {
+                    if (found == root) {
+                        throw new IndexOutOfBoundsException("Failed to compute: " + key + ", " + bitIndex);
+                    }
+                    target = found;
+                }
+            }
+        }
+        
+        V existing = (target == null || target.isEmpty()) ? null : target.value;
+        V value = remapper.remap(key, existing);
+        
+        if (value == null) {
+            if (target != null && !target.isEmpty()) {
+                removeEntry(target);
+            }
+            return null;
+        }
+        
+        if (target == null) {
+            addEntry(new TrieEntry<K, V>(key, value, bitIndex), keyLength);
+            incrementSize();
+        } else if (target.isEmpty()) {
+            target.setKeyValue(key, value);
+            incrementSize();
+        } else if (value != existing) {
+            target.setKeyValue(key, value);
+            incrementModCount();
+        }
+        
+        return value;
+    }
+    
+    /** Gets the value as a 'V'. */
+    @SuppressWarnings("unchecked")
+    private V asValue(Object value) {
+        return (V)value;
+    }
+    
     /** Adds the given entry into the Trie. */
     private TrieEntry<K, V> addEntry(TrieEntry<K, V> toAdd, int keyLength) {
         TrieEntry<K, V> current = root.left;
@@ -244,6 +335,8 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
                     path.left = toAdd;
                 else
                     path.right = toAdd;
+                
+                recount(toAdd);
                 return toAdd;
             }
                 
@@ -619,6 +712,71 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         }
     }
     
+    /**
+     * Removes every entry prefixed by the key by cutting the subtree that
+     * holds them out of the Trie in one go. The entries below the subtree
+     * aren't visited; the size comes from the subtree's count.
+     * <p>
+     * Exactly one uplink leaves the subtree and it points at an entry
+     * above it (possibly the root). That uplink is moved to the slot the
+     * subtree hung from, which keeps the entry reachable, and the entry is
+     * then removed the usual way if it's prefixed by the key as well.
+     * 
+     * @return The number of entries removed.
+     */
+    public int removePrefix(K prefix) {
+        int length = length(prefix);
+        if(length == 0) {
+            int removed = size;
+            clear();
+            return removed;
+        }
+        
+        TrieEntry<K, V> subtree = subtree(prefix, 0, length);
+        if(subtree == null)
+            return 0;
+        
+        if(length >= subtree.bitIndex) {
+            removeEntry(subtree);
+            return 1;
+        }
+        
+        TrieEntry<K, V> parent = subtree.parent;
+        TrieEntry<K, V> above = root;
+        for(TrieEntry<K, V> node = parent; node != root; node = node.parent) {
+            if(isInSubtree(node.predecessor, subtree)) {
+                above = node;
+                break;
+            }
+        }
+        
+        if(parent.left == subtree) {
+            parent.left = above;
+        } else {
+            parent.right = above;
+        }
+        above.predecessor = parent;
+        
+        int removed = subtree.count;
+        size -= removed;
+        incrementModCount();
+        recount(parent);
+        
+        if(!above.isEmpty() && keyAnalyzer.isPrefix(prefix, 0, length, above.key)) {
+            removeEntry(above);
+            removed++;
+        }
+        
+        return removed;
+    }
+    
+    /** Returns true if the node is the subtree's top or hangs below it by downlinks. */
+    private static boolean isInSubtree(TrieEntry<?, ?> node, TrieEntry<?, ?> subtree) {
+        while(node != null && node.bitIndex > subtree.bitIndex)
+            node = node.parent;
+        return node == subtree;
+    }
+    
     /**
      * Removes a single entry from the Trie.
      * 
@@ -668,6 +826,7 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
             child.predecessor = parent;
         }
         
+        recount(parent);
     }
     
     /**
@@ -685,6 +844,7 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         } 
         
         TrieEntry<K, V> p = h.predecessor;
+        TrieEntry<K, V> pParent = p.parent;
         
         // Set P's bitIndex
         p.bitIndex = h.bitIndex;
@@ -746,7 +906,209 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
             p.left.predecessor = p;
         if(isValidUplink(p.right, p))
             p.right.predecessor = p;
+        
+        // P's old parent is now somewhere below P (unless it was H),
+        // so counting up from there fixes P and everything above it.
+        recount(pParent != h ? pParent : p);
+    }
+    
+    /** 
+     * Returns the number of uplinks hanging off the given child of the node:
+     * one if the child is an uplink itself, or one more than the number of 
+     * entries below it if it's a downlink.
+     */
+    private static int uplinks(TrieEntry<?, ?> child, TrieEntry<?, ?> node) {
+        return (child != null && child.bitIndex > node.bitIndex) ? child.count + 1 : 1;
+    }
+    
+    /**
+     * Recomputes the entry counts from the given node up to (but excluding)
+     * the root. Every entry but the root stores a key, so the count is one
+     * plus the counts of the children reached by downlinks.
+     */
+    private void recount(TrieEntry<K, V> node) {
+        while(node != null && node != root) {
+            node.count = uplinks(node.left, node) + uplinks(node.right, node) - 1;
+            node = node.parent;
+        }
+    }
+    
+    /**
+     * Returns the position of the entry in the Trie.
+     * 
+     * Every key is the target of exactly one uplink and the uplinks, read 
+     * left to right, are in key order. The leftmost one always points to the 
+     * root, so it doesn't count when the root is empty. The position is the
+     * number of uplinks left of the one pointing at the entry, which is
+     * summed up from the left siblings on the way back to the root.
+     */
+    private int indexOf(TrieEntry<K, V> entry) {
+        if(entry == root)
+            return 0;
+        
+        TrieEntry<K, V> node = entry.predecessor;
+        int index = (node.left == entry && entry.bitIndex <= node.bitIndex) 
+                        ? 0 : uplinks(node.left, node);
+        
+        while(node.parent != null) {
+            if(node.parent.right == node)
+                index += uplinks(node.parent.left, node.parent);
+            node = node.parent;
+        }
+        
+        return root.isEmpty() ? index - 1 : index;
+    }
+    
+    /** Returns the entry at the given position, descending by the uplink counts. */
+    private TrieEntry<K, V> entryAt(int index) {
+        int uplink = root.isEmpty() ? index + 1 : index;
+        TrieEntry<K, V> node = root;
+        TrieEntry<K, V> child = root.left;
+        
+        while(child.bitIndex > node.bitIndex) {
+            node = child;
+            int left = uplinks(node.left, node);
+            if(uplink < left) {
+                child = node.left;
+            } else {
+                uplink -= left;
+                child = node.right;
+            }
+        }
+        
+        return child;
+    }
+    
+    /**
+     * Returns the number of entries lower than a key that isn't in the Trie,
+     * given the index of the first bit it differs in from its nearest entry.
+     * This walks the path addEntry would take, counting the uplinks left of
+     * the spot where the key would be hooked in, without actually adding it.
+     */
+    private int insertionIndex(K key, int keyLength, int bitIndex) {
+        TrieEntry<K, V> node = root;
+        TrieEntry<K, V> child = root.left;
+        int uplink = 0;
+        
+        while(child.bitIndex > node.bitIndex && child.bitIndex < bitIndex) {
+            node = child;
+            if(!isBitSet(key, keyLength, node.bitIndex)) {
+                child = node.left;
+            } else {
+                uplink += uplinks(node.left, node);
+                child = node.right;
+            }
+        }
+        
+        // Everything hanging off the child shares the bits before bitIndex,
+        // so the key sorts either before or after all of it.
+        if(isBitSet(key, keyLength, bitIndex))
+            uplink += uplinks(child, node);
+        
+        // The uplink to an empty root isn't an entry
+        return (root.isEmpty() && uplink > 0) ? uplink - 1 : uplink;
+    }
+    
+    /**
+     * Returns the number of entries within the subtree that was found
+     * for the prefix. Those are the entries below the subtree plus,
+     * possibly, the one ancestor whose uplink comes from within it.
+     */
+    private int prefixCount(TrieEntry<K, V> subtree, K prefix, int offset, int length) {
+        if(length >= subtree.bitIndex)
+            return 1;
+        
+        int count = subtree.count;
+        for(TrieEntry<K, V> node = subtree.parent; node != null; node = node.parent) {
+            if(!node.isEmpty() && keyAnalyzer.isPrefix(prefix, offset, length, node.key)) {
+                count++;
+                break;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the position of the key in the Trie, counting from zero.
+     * If the key isn't in the Trie this returns 
+     * <code>(-(insertion point) - 1)</code>, where the insertion point is 
+     * the position of the first greater key (or the size of the Trie).
+     * <p>
+     * This takes time proportional to the depth of the Trie, not the
+     * number of entries before the key, and doesn't modify the Trie.
+     */
+    public int indexOf(K key) {
+        TrieEntry<K, V> entry = getEntry(key);
+        if(entry != null)
+            return indexOf(entry);
+        
+        TrieEntry<K, V> ceiling = ceilingEntry(key);
+        return -(ceiling != null ? indexOf(ceiling) : size()) - 1;
+    }
+    
+    /**
+     * Returns the entry at the given position in key order.
+     * <p>
+     * This takes time proportional to the depth of the Trie, not the 
+     * position.
+     * 
+     * @throws IndexOutOfBoundsException if the position is negative or
+     *         not less than the size of the Trie.
+     */
+    public Map.Entry<K, V> getEntryAt(int index) {
+        if(index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        return entryAt(index);
+    }
+    
+    /**
+     * Splits the entries prefixed by the key (all of them if the key is
+     * null or empty) into at most <code>parts</code> contiguous views of
+     * nearly equal size, in key order. Nothing is empty, so fewer views
+     * come back when there are fewer entries than parts.
+     * <p>
+     * The cut points are found by position, the same way as 
+     * {@link #getEntryAt(int)}, so splitting costs time proportional to the
+     * depth of the Trie for each part no matter how many entries there 
+     * are. The views don't share any state, which makes it safe to walk 
+     * each one on its own thread as long as nothing modifies the Trie 
+     * meanwhile.
+     * 
+     * @throws IllegalArgumentException if parts isn't positive
+     */
+    public List<SortedMap<K, V>> partition(K prefix, int parts) {
+        if(parts < 1)
+            throw new IllegalArgumentException("parts must be positive: " + parts);
+        
+        int length = length(prefix);
+        int from = 0;
+        int to = size();
+        if(length > 0) {
+            from = indexOf(prefix);
+            if(from < 0)
+                from = -from - 1;
             
+            TrieEntry<K, V> subtree = subtree(prefix, 0, length);
+            to = from + (subtree == null ? 0 : prefixCount(subtree, prefix, 0, length));
+        }
+        
+        int count = to - from;
+        parts = Math.min(parts, count);
+        List<SortedMap<K, V>> views = new ArrayList<SortedMap<K, V>>(parts);
+        
+        K fromKey = parts > 0 ? entryAt(from).getKey() : null;
+        for(int i = 1; i <= parts; i++) {
+            int end = from + (int)((long)i * count / parts);
+            if(end < size()) {
+                K toKey = entryAt(end).getKey();
+                views.add(subMap(fromKey, toKey));
+                fromKey = toKey;
+            } else {
+                views.add(tailMap(fromKey));
+            }
+        }
+        
+        return views;
     }
     
     /**
@@ -978,6 +1340,55 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         return null;
     }
     
+    /**
+     * Walks only the subtree holding the prefix, like PrefixEntryIterator
+     * does, but hands the TrieEntries straight to the cursor. Nothing is
+     * allocated per entry, and no view or iterator is built.
+     */
+    public Map.Entry<K, V> traversePrefix(K prefix, Cursor<? super K, ? super V> cursor) {
+        int length = length(prefix);
+        if(length == 0)
+            return traverse(cursor);
+        
+        TrieEntry<K, V> subtree = subtree(prefix, 0, length);
+        if(subtree == null)
+            return null;
+        
+        boolean lastOne = length >= subtree.bitIndex;
+        TrieEntry<K, V> entry = lastOne ? subtree : followLeft(subtree);
+        while(entry != null) {
+            TrieEntry<K, V> current = entry;
+            Cursor.SelectStatus ret = cursor.select(current);
+            entry = lastOne ? null : nextEntryInSubtree(current, subtree);
+            switch(ret) {
+            case EXIT:
+                return current;
+            case REMOVE:
+                // Removing the subtree's entry (or its neighbour) can move
+                // the subtree, so look it up again the same way
+                // PrefixEntryIterator.remove does.
+                int bitIdx = subtree.bitIndex;
+                boolean needsFixing = current == subtree;
+                removeEntry(current);
+                if(bitIdx != subtree.bitIndex || needsFixing) {
+                    subtree = subtree(prefix, 0, length);
+                    if(subtree == null)
+                        return null;
+                }
+                if(length >= subtree.bitIndex)
+                    lastOne = true;
+                break; // out of switch, stay in while loop
+            case REMOVE_AND_EXIT:
+                Map.Entry<K, V> value = new TrieEntry<K, V>(current.getKey(), current.getValue(), -1);
+                removeEntry(current);
+                return value;
+            case CONTINUE: // do nothing.
+            }
+        }
+        
+        return null;
+    }
+    
     /** Returns true if 'next' is a valid uplink coming from 'from'. */
     private boolean isValidUplink(TrieEntry<K, V> next, TrieEntry<K, V> from) {            
         return next != null && next.bitIndex <= from.bitIndex && !next.isEmpty();
@@ -1045,6 +1456,11 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         private TrieEntry<K,V> right;
         /** The entry who uplinks to this entry. */ 
         private TrieEntry<K,V> predecessor;
+        /** 
+         * The number of entries in this entry's subtree (following downlinks only),
+         * including this entry itself. Not maintained for the root.
+         */
+        private int count;
         
         private TrieEntry(K key, V value, int bitIndex) {
             this.key = key;
@@ -1056,6 +1472,7 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
             this.left = this;
             this.right = null;
             this.predecessor = this;
+            this.count = 1;
         }
         
         public boolean equals(Object o) {
@@ -1623,9 +2040,6 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
      * or null if no such entry exists.
      */
     protected TrieEntry<K,V> higherEntry(K key) {
-        // TODO: Cleanup so that we don't actually have to add/remove from the
-        //       tree.  (We do it here because there are other well-defined 
-        //       functions to perform the search.)
         int keyLength = length(key);
         
         if (keyLength == 0) {
@@ -1648,13 +2062,8 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         
         int bitIndex = bitIndex(key, found.key);
         if (isValidBitIndex(bitIndex)) {
-            TrieEntry<K, V> added = new TrieEntry<K, V>(key, null, bitIndex);
-            addEntry(added, keyLength);
-            incrementSize(); // must increment because remove will decrement
-            TrieEntry<K, V> ceil = nextEntry(added);
-            removeEntry(added);
-            modCount -= 2; // we didn't really modify it.
-            return ceil;
+            int index = insertionIndex(key, keyLength, bitIndex);
+            return index < size() ? entryAt(index) : null;
         } else if (isNullBitKey(bitIndex)) {
             if (!root.isEmpty())
                 return firstEntry();
@@ -1683,16 +2092,13 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         //
         // - If we hit an empty root, return the first iterable item.
         //
-        // - If we have to add a new item, we temporarily add it,
-        //   find the successor to it, then remove the added item.
+        // - If we would have to add a new item, count the entries
+        //   that would be before it and return the one at that position.
         //
         // These steps ensure that the returned value is either the
         // entry for the key itself, or the first entry directly after
         // the key.
         
-        // TODO: Cleanup so that we don't actually have to add/remove from the
-        //       tree.  (We do it here because there are other well-defined 
-        //       functions to perform the search.)
         int keyLength = length(key);
         
         if (keyLength == 0) {
@@ -1708,13 +2114,8 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         
         int bitIndex = bitIndex(key, found.key);
         if (isValidBitIndex(bitIndex)) {
-            TrieEntry<K, V> added = new TrieEntry<K, V>(key, null, bitIndex);
-            addEntry(added, keyLength);
-            incrementSize(); // must increment because remove will decrement
-            TrieEntry<K, V> ceil = nextEntry(added);
-            removeEntry(added);
-            modCount -= 2; // we didn't really modify it.
-            return ceil;
+            int index = insertionIndex(key, keyLength, bitIndex);
+            return index < size() ? entryAt(index) : null;
         } else if (isNullBitKey(bitIndex)) {
             if (!root.isEmpty())
                 return root;
@@ -1741,15 +2142,12 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         //
         // - If we hit root (empty or not), return null.
         //
-        // - If we have to add a new item, we temporarily add it,
-        //   find the previousEntry to it, then remove the added item.
+        // - If we would have to add a new item, count the entries
+        //   that would be before it and return the last of those.
         //
         // These steps ensure that the returned value is always just before
         // the key or null (if there was nothing before it).
         
-        // TODO: Cleanup so that we don't actually have to add/remove from the
-        //       tree.  (We do it here because there are other well-defined 
-        //       functions to perform the search.)
         int keyLength = length(key);
         
         if (keyLength == 0) {
@@ -1762,13 +2160,8 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         
         int bitIndex = bitIndex(key, found.key);
         if (isValidBitIndex(bitIndex)) {
-            TrieEntry<K, V> added = new TrieEntry<K, V>(key, null, bitIndex);
-            addEntry(added, keyLength);
-            incrementSize(); // must increment because remove will decrement
-            TrieEntry<K, V> prior = previousEntry(added);
-            removeEntry(added);
-            modCount -= 2; // we didn't really modify it.
-            return prior;
+            int index = insertionIndex(key, keyLength, bitIndex);
+            return index > 0 ? entryAt(index - 1) : null;
         } else if (isNullBitKey(bitIndex)) {
             return null;
         } else if (isEqualBitKey(bitIndex)) {
@@ -1784,9 +2177,6 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
      * less than or equal to the given key, or null if there is no such key.
      */
     protected TrieEntry<K,V> floorEntry(K key) {        
-        // TODO: Cleanup so that we don't actually have to add/remove from the
-        //       tree.  (We do it here because there are other well-defined 
-        //       functions to perform the search.)
         int keyLength = length(key);
         
         if (keyLength == 0) {
@@ -1802,13 +2192,8 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
         
         int bitIndex = bitIndex(key, found.key);
         if (isValidBitIndex(bitIndex)) {
-            TrieEntry<K, V> added = new TrieEntry<K, V>(key, null, bitIndex);
-            addEntry(added, keyLength);
-            incrementSize(); // must increment because remove will decrement
-            TrieEntry<K, V> floor = previousEntry(added);
-            removeEntry(added);
-            modCount -= 2; // we didn't really modify it.
-            return floor;
+            int index = insertionIndex(key, keyLength, bitIndex);
+            return index > 0 ? entryAt(index - 1) : null;
         } else if (isNullBitKey(bitIndex)) {
             if (!root.isEmpty())
                 return root;
@@ -1941,34 +2326,26 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
             // The trie has changed since we last
             // found our toKey / fromKey
             if(modCount != keyModCount) {
-                Iterator<Map.Entry<K, V>> iter = entrySet().iterator();
+                TrieEntry<K, V> subtree = subtree(prefix, offset, length);
+                TrieEntry<K, V> first = null;
+                TrieEntry<K, V> last = null;
                 size = 0;
                 
-                Map.Entry<K, V> entry = null;
-                if(iter.hasNext()) {
-                    entry = iter.next();
-                    size = 1;
-                }
-                
-                fromKey = entry == null ? null : entry.getKey();
-                if(fromKey != null) {
-                    TrieEntry<K, V> prior = previousEntry((TrieEntry<K, V>)entry);
-                    fromKey = prior == null ? null : prior.getKey();
-                }
-                
-                toKey = fromKey;
-                
-                while(iter.hasNext()) {
-                    size++;
-                    entry = iter.next();
+                if(subtree != null) {
+                    if(length >= subtree.bitIndex) {
+                        first = last = subtree;
+                    } else {
+                        first = followLeft(subtree);
+                        last = followRight(subtree);
+                    }
+                    size = prefixCount(subtree, prefix, offset, length);
                 }
                 
-                toKey = entry == null ? null : entry.getKey();
+                TrieEntry<K, V> prior = first == null ? null : previousEntry(first);
+                fromKey = prior == null ? null : prior.getKey();
                 
-                if(toKey != null) {
-                    entry = nextEntry((TrieEntry<K, V>)entry);
-                    toKey = entry == null ? null : entry.getKey();
-                }
+                TrieEntry<K, V> next = last == null ? null : nextEntry(last);
+                toKey = next == null ? null : next.getKey();
                 
                 keyModCount = modCount;
             }
@@ -2122,12 +2499,13 @@ public class PatriciaTrie<K, V> extends AbstractMap<K, V> implements Trie<K, V>,
 
             public int size() {
                 if (size == -1 || sizeModCount != PatriciaTrie.this.modCount) {
-                    size = 0;  sizeModCount = PatriciaTrie.this.modCount;
-                    Iterator i = iterator();
-                    while (i.hasNext()) {
-                        size++;
-                        i.next();
-                    }
+                    // Same bounds as the iterator, but counted by position
+                    TrieEntry<K, V> first = (fromKey == null ? firstEntry() : ceilingEntry(fromKey));
+                    TrieEntry<K, V> firstExcluded = (toKey == null ? null : ceilingEntry(toKey));
+                    int from = first == null ? PatriciaTrie.this.size() : indexOf(first);
+                    int to = firstExcluded == null ? PatriciaTrie.this.size() : indexOf(firstExcluded);
+                    size = Math.max(0, to - from);
+                    sizeModCount = PatriciaTrie.this.modCount;
                 }
                 return size;
             }
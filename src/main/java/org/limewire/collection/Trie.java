@@ -1,5 +1,6 @@
 package org.limewire.collection;
 
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 
@@ -64,6 +65,15 @@ public interface Trie<K, V> extends SortedMap<K, V> {
      */
     public SortedMap<K, V> getPrefixedByBits(K key, int bitLength);
     
+    /**
+     * Removes all elements that are prefixed by the given key. This
+     * doesn't visit the elements one at a time, so it's much cheaper than
+     * removing them through {@link #getPrefixedBy(Object)}.
+     * 
+     * @return The number of elements removed.
+     */
+    public int removePrefix(K prefix);
+    
     /**
      * Returns the value for the entry whose key is closest in a bitwise
      * XOR metric to the given key.  This is NOT lexicographic closeness.
@@ -112,6 +122,106 @@ public interface Trie<K, V> extends SortedMap<K, V> {
      */
     public Map.Entry<K,V> traverse(Cursor<? super K, ? super V> cursor);
     
+    /**
+     * Traverses, in lexicographical order, only the entries that are
+     * prefixed by the given key, calling <code>Cursor.select</code> on
+     * each one. The cursor's return values mean the same as they do for
+     * {@link #traverse(Cursor)}.
+     * <p>
+     * Unlike iterating over {@link #getPrefixedBy(Object)}, no view or
+     * iterator is created and nothing is allocated per entry, so the
+     * cursor is the only garbage a lookup produces. The entries handed
+     * to the cursor are only valid until the Trie changes.
+     * 
+     * @return The entry the cursor returned EXIT on, or null if it continued
+     *         till the end.
+     */
+    public Map.Entry<K,V> traversePrefix(K prefix, Cursor<? super K, ? super V> cursor);
+    
+    /**
+     * Associates the value with the key only if the key isn't mapped
+     * to a non-null value already. The Trie is walked once either way.
+     * 
+     * @return The value already mapped to the key, or null if the
+     *         given value was stored.
+     */
+    public V putIfAbsent(K key, V value);
+    
+    /**
+     * Finds the entry for the key and replaces its value with whatever
+     * the remapper returns. The remapper is handed null if there's no such
+     * entry. Returning null removes the entry (or leaves it absent); returning
+     * the existing value leaves the Trie untouched.
+     * <p>
+     * The remapper is called while the Trie is in the middle of the
+     * operation and must not modify it.
+     * 
+     * @return The new value, or null if there's no entry for the key anymore.
+     */
+    public V computeEntry(K key, Remapper<? super K, V> remapper);
+    
+    /**
+     * Stores the value if the key isn't mapped yet, otherwise
+     * stores the result of merging the existing value with it.
+     * A merger that returns null removes the entry.
+     * 
+     * @return The new value, or null if there's no entry for the key anymore.
+     */
+    public V mergeEntry(K key, V value, Merger<V> merger);
+
+    /**
+     * Returns the position of the key in the Trie, counting from zero.
+     * If the key isn't in the Trie this returns
+     * <code>(-(insertion point) - 1)</code>, where the insertion point is
+     * the position of the first greater key (or the size of the Trie).
+     */
+    public int indexOf(K key);
+
+    /**
+     * Returns the entry at the given position in key order.
+     *
+     * @throws IndexOutOfBoundsException if the position is negative or
+     *         not less than the size of the Trie.
+     */
+    public Map.Entry<K, V> getEntryAt(int index);
+
+    /**
+     * Splits the entries prefixed by the key (all of them if the key is
+     * null or empty) into at most <code>parts</code> contiguous views of
+     * nearly equal size, in key order. Nothing is empty, so fewer views
+     * come back when there are fewer entries than parts.
+     *
+     * @throws IllegalArgumentException if parts isn't positive
+     */
+    public List<SortedMap<K, V>> partition(K prefix, int parts);
+
+    /**
+     * Computes the new value for a key in {@link Trie#computeEntry(Object, Remapper)}.
+     *
+     * @param <K> Key Type
+     * @param <V> Key Value
+     */
+    public static interface Remapper<K, V> {
+        
+        /**
+         * Returns the value to store for the key, given the value that's
+         * stored now (null if none). Return null to remove the entry.
+         */
+        public V remap(K key, V existing);
+    }
+    
+    /**
+     * Combines an existing value with a new one in 
+     * {@link Trie#mergeEntry(Object, Object, Merger)}.
+     *
+     * @param <V> Key Value
+     */
+    public static interface Merger<V> {
+        
+        /** Returns the value to keep, or null to remove the entry. */
+        public V merge(V existing, V value);
+    }
+    
     /**
      * An interface used by a {@link Trie}. A {@link Trie} selects items by 
      * closeness and passes the items to the <code>Cursor</code>. You can then 
@@ -47,6 +47,26 @@
                     <th># strings:</th>
                     <td>${size}</td>
                 </tr>
+                <tr>
+                    <th>keys / string:</th>
+                    <td>${expansion.keysPerString?string("0.##")} (max ${expansion.maxKeysPerString}, ${expansion.strings} strings indexed)</td>
+                </tr>
+                <tr>
+                    <th>histogram:</th>
+                    <td>${expansion.histogram}</td>
+                </tr>
+                <tr>
+                    <th>load:</th>
+                    <td>${load.state}<#if load.loading && load.percent gte 0> ${load.percent?string("0")}%</#if>,
+                        ${load.strings} strings in ${(load.millis / 1000)?string("0.#")}s (${load.rowsPerSecond?string("0")}/s)<#if load.loading && load.etaSeconds gte 0>,
+                        about ${load.etaSeconds}s left</#if><#if load.error??> - ${load.error}</#if></td>
+                </tr>
+            <#if queryLog.enabled>
+                <tr>
+                    <th>warm-up:</th>
+                    <td>${queryLog.warmed} queries in ${queryLog.warmupMillis}ms, ${queryLog.sampleSize} sampled</td>
+                </tr>
+            </#if>
             <#if firstKey ??>
                 <tr>
                     <th>first key:</th>
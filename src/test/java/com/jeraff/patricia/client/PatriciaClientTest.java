@@ -6,7 +6,10 @@ import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
 public class PatriciaClientTest {
     private static PatriciaClient patriciaClient;
@@ -113,4 +116,77 @@ public class PatriciaClientTest {
 
         Assert.assertEquals(s.length, head.getCount());
     }
+
+    @Test
+    public void testBatchGet() {
+        String time = String.valueOf(System.currentTimeMillis());
+        String missing = DigestUtils.md5Hex(time);
+
+        patriciaClient.post(new String[]{time + " batch one", time + " batch two", "batch " + time});
+        BatchGetResponse batch = patriciaClient.get(PatriciaClient.DEFAULT_CORE, time, "batch " + time, missing);
+
+        Assert.assertEquals(3, batch.size());
+        Assert.assertEquals(3, batch.get(time).size());
+        Assert.assertEquals(1, batch.get("batch " + time).size());
+        Assert.assertTrue(batch.get(missing).isEmpty());
+    }
+
+    @Test
+    public void testPages() {
+        String time = String.valueOf(System.currentTimeMillis());
+        String[] s = new String[30];
+
+        for (int i = 0; i < s.length; i++) {
+            s[i] = String.format("%s page %02d", time, i);
+        }
+
+        patriciaClient.post(s);
+
+        int pages = 0;
+        List<String> seen = new ArrayList<String>();
+        for (PageIterator iterator = patriciaClient.pages(time, 7); iterator.hasNext(); ) {
+            PageResponse page = iterator.next();
+            Assert.assertTrue(page.getEntries().size() <= 7);
+
+            for (Entry entry : page.getEntries()) {
+                seen.add(entry.getS());
+            }
+            pages++;
+        }
+
+        Assert.assertEquals(5, pages);
+        Assert.assertEquals(Arrays.asList(s), seen);
+    }
+
+    @Test
+    public void testPurge() {
+        String time = String.valueOf(System.currentTimeMillis());
+        patriciaClient.post(new String[]{time + " purge one", time + " purge two", time + "x purge three"});
+
+        Assert.assertEquals(3, patriciaClient.purge(time));
+        Assert.assertTrue(patriciaClient.get(time).isEmpty());
+        Assert.assertEquals(0, patriciaClient.purge(time));
+
+        // the other keys of the purged strings are left alone
+        Assert.assertFalse(patriciaClient.get("purge one").isEmpty());
+    }
+
+    @Test
+    public void testHash() {
+        String s = String.valueOf(System.currentTimeMillis()) + " Hash Me";
+        String hash = patriciaClient.post(s).get(s).getHash();
+
+        GetResponse found = patriciaClient.getByHash(hash);
+        Assert.assertEquals(1, found.size());
+        Assert.assertEquals(s, found.get(0).getS());
+
+        // a variant with different casing has the same hash, so it takes the original with it
+        Assert.assertEquals(s, patriciaClient.delete(s.toLowerCase()).get(s.toLowerCase()));
+        Assert.assertTrue(patriciaClient.getByHash(hash).isEmpty());
+        Assert.assertTrue(patriciaClient.get(s).isEmpty());
+
+        patriciaClient.post(s);
+        Assert.assertEquals(s, patriciaClient.deleteByHash(hash).get(hash));
+        Assert.assertTrue(patriciaClient.get(s).isEmpty());
+    }
 }
@@ -0,0 +1,148 @@
+package com.jeraff.patricia.server.analyzer;
+
+import com.jeraff.patricia.conf.Expansion;
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class PartialMatchAnalyzerTest extends TestCase {
+    private static final String STAR_WARS = "Star Wars: Episode IV - A New Hope";
+    private static final String NIGHTMARE = "A Nightmare on Elm Street";
+
+    public PartialMatchAnalyzerTest(String name) {
+        super(name);
+    }
+
+    public void testDefaultsIndexWhatTheyAlwaysDid() {
+        // what the analyzer keyed these as before the expansion settings were added
+        final String md5 = ".c86397b95cb8b388357e35f484364f6c";
+        assertEquals(keys(
+                "^star wars: episode iv - a new hope" + md5,
+                "a new hope" + md5,
+                "episode iv a new hope" + md5,
+                "episode iv new hope" + md5,
+                "hope" + md5,
+                "iv a new hope" + md5,
+                "iv new hope" + md5,
+                "new hope" + md5,
+                "star wars episode iv  a new hope" + md5,
+                "star wars episode iv a new hope" + md5,
+                "star wars episode iv new hope" + md5,
+                "wars episode iv a new hope" + md5,
+                "wars episode iv new hope" + md5),
+                keysOf(new PartialMatchAnalyzer(), STAR_WARS));
+
+        final String suffix = ".anightmareonelmstreet";
+        assertEquals(keys(
+                "^a nightmare on elm street" + suffix,
+                "a nightmare elm street" + suffix,
+                "a nightmare on elm street" + suffix,
+                "elm street" + suffix,
+                "nightmare elm street" + suffix,
+                "nightmare on elm street" + suffix,
+                "on elm street" + suffix,
+                "street" + suffix),
+                keysOf(new PartialMatchAnalyzer(), NIGHTMARE));
+
+        assertEquals(keys("^alien.alien", "alien.alien"), keysOf(new PartialMatchAnalyzer(), "Alien"));
+    }
+
+    public void testWholeStringIsFoundAcrossPunctuation() {
+        final String prefix = "star wars episode iv a";
+
+        boolean found = false;
+        for (String key : keysOf(new PartialMatchAnalyzer(), STAR_WARS)) {
+            found |= key.startsWith(prefix);
+        }
+        assertTrue(found);
+    }
+
+    public void testMaxSuffixes() {
+        final Expansion expansion = new Expansion();
+        expansion.setMaxSuffixes(2);
+
+        assertEquals(keys(
+                "^a nightmare on elm street",
+                "a nightmare on elm street",
+                "nightmare on elm street",
+                "a nightmare elm street",
+                "nightmare elm street"),
+                gramsOf(new PartialMatchAnalyzer(expansion), NIGHTMARE));
+
+        // both spellings of the whole string are one suffix
+        expansion.setMaxSuffixes(1);
+        assertEquals(keys(
+                "^star wars: episode iv - a new hope",
+                "star wars episode iv  a new hope",
+                "star wars episode iv a new hope",
+                "star wars episode iv new hope"),
+                gramsOf(new PartialMatchAnalyzer(expansion), STAR_WARS));
+    }
+
+    public void testStopWordVariants() {
+        final Expansion expansion = new Expansion();
+        expansion.setStopWordVariants(false);
+
+        assertEquals(keys(
+                "^a nightmare on elm street",
+                "a nightmare on elm street",
+                "nightmare on elm street",
+                "on elm street",
+                "elm street",
+                "street"),
+                gramsOf(new PartialMatchAnalyzer(expansion), NIGHTMARE));
+    }
+
+    public void testMinGramLength() {
+        final Expansion expansion = new Expansion();
+        expansion.setMinGramLength(12);
+
+        assertEquals(keys(
+                "^a nightmare on elm street",
+                "a nightmare on elm street",
+                "nightmare on elm street",
+                "on elm street",
+                "a nightmare elm street",
+                "nightmare elm street"),
+                gramsOf(new PartialMatchAnalyzer(expansion), NIGHTMARE));
+
+        // the whole string is kept however short it is
+        expansion.setMinGramLength(100);
+        assertEquals(keys("^alien", "alien"), gramsOf(new PartialMatchAnalyzer(expansion), "Alien"));
+    }
+
+    public void testLimitsCombine() {
+        final Expansion expansion = new Expansion();
+        expansion.setMaxSuffixes(3);
+        expansion.setStopWordVariants(false);
+        expansion.setMinGramLength(15);
+
+        assertEquals(keys(
+                "^a nightmare on elm street",
+                "a nightmare on elm street",
+                "nightmare on elm street"),
+                gramsOf(new PartialMatchAnalyzer(expansion), NIGHTMARE));
+    }
+
+    private static Set<String> keys(String... keys) {
+        return new TreeSet<String>(Arrays.asList(keys));
+    }
+
+    private static Set<String> keysOf(PartialMatchAnalyzer analyzer, String string) {
+        final Set<String> keys = new TreeSet<String>();
+        for (Map.Entry<String, String> entry : analyzer.getIndexEntry(string)) {
+            assertEquals(string, entry.getValue());
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    /** @return the keys without the string's suffix, which is the same on all of them */
+    private static Set<String> gramsOf(PartialMatchAnalyzer analyzer, String string) {
+        final Set<String> grams = new TreeSet<String>();
+        for (String key : keysOf(analyzer, string)) {
+            grams.add(key.substring(0, key.lastIndexOf('.')));
+        }
+        return grams;
+    }
+}
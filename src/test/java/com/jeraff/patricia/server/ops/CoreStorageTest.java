@@ -0,0 +1,266 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+import junit.framework.TestCase;
+import org.limewire.collection.Trie;
+
+import java.util.*;
+
+/**
+ * Runs random writes against a core split over several shards and a {@link TreeMap} side by side, and checks that
+ * lookups, pages and walks that cross shard boundaries read back the same way the map does.
+ */
+public class CoreStorageTest extends TestCase {
+    // the ends of the range, either side of the digits, and '^' between the digits and the letters
+    private static final String ALPHABET = " .09^aimrz~";
+    private static final int STEPS = 1500;
+    // more than there ever are; storage sizes its answer by the limit, so not Integer.MAX_VALUE
+    private static final int ALL = 100000;
+
+    public CoreStorageTest(String name) {
+        super(name);
+    }
+
+    public void testTwoShards() {
+        check(core(2), 1);
+    }
+
+    public void testSevenShards() {
+        check(core(7), 2);
+    }
+
+    public void testManyShards() {
+        check(core(100), 3);
+    }
+
+    public void testShardsOverABase() {
+        final Core core = core(5);
+        core.getLsm().setEnabled(true);
+        core.getLsm().setIntervalMillis(Long.MAX_VALUE / 2);
+        core.getTombstones().setEnabled(true);
+        core.getTombstones().setIntervalMillis(Long.MAX_VALUE / 2);
+        check(core, 4);
+    }
+
+    public void testStopWordKeysLandBetweenTheDigitsAndLetters() {
+        final CoreStorage storage = new CoreStorage(core(4));
+        final List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>();
+        for (String title : new String[]{"A Nightmare on Elm Street", "The Thing", "2001", "Zardoz"}) {
+            entries.addAll(storage.getAnalyzer().getIndexEntry(title));
+        }
+        storage.putAll(entries);
+
+        final List<Map.Entry<String, String>> starts = storage.getPrefixedBy("^", 100);
+        assertFalse(starts.isEmpty());
+        for (Map.Entry<String, String> entry : starts) {
+            assertTrue(entry.getKey(), entry.getKey().startsWith("^"));
+        }
+        assertEquals(starts.size(), storage.getPrefixedByCount("^"));
+        assertEquals("The Thing", storage.getPrefixedBy("^the t", 1).get(0).getValue());
+
+        // every key, in order, however it's split up
+        final List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : entries) {
+            keys.add(entry.getKey());
+        }
+        Collections.sort(keys);
+        assertEquals(keys, keysOf(storage.getRange("", null, null, 0, ALL)));
+        assertEquals(keys.get(0), storage.firstKey());
+        assertEquals(keys.get(keys.size() - 1), storage.lastKey());
+
+        int shards = 0;
+        for (int size : storage.getShardSizes()) {
+            shards += (size > 0) ? 1 : 0;
+        }
+        assertTrue(shards > 1);
+        storage.close();
+    }
+
+    private static Core core(int shards) {
+        final Core core = new Core();
+        core.setShards(shards);
+        return core;
+    }
+
+    private static void check(Core core, long seed) {
+        final CoreStorage storage = new CoreStorage(core);
+        final Random random = new Random(seed);
+        final TreeMap<String, String> control = new TreeMap<String, String>();
+
+        try {
+            for (int step = 0; step < STEPS; step++) {
+                final String key = randomKey(random);
+                final int op = random.nextInt(100);
+
+                if (op < 40) {
+                    final String value = "v" + step;
+                    assertEquals(control.put(key, value), storage.put(key, value));
+                } else if (op < 50) {
+                    final List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>();
+                    for (int i = random.nextInt(20); i > 0; i--) {
+                        final String k = randomKey(random);
+                        entries.add(new AbstractMap.SimpleImmutableEntry<String, String>(k, "p" + step));
+                        control.put(k, "p" + step);
+                    }
+                    storage.putAll(entries);
+                } else if (op < 65) {
+                    assertEquals(control.remove(key), storage.remove(key));
+                } else if (op < 75) {
+                    final String value = "c" + step;
+                    final boolean keep = random.nextBoolean();
+                    storage.compute(key, new Trie.Remapper<String, String>() {
+                        @Override
+                        public String remap(String k, String existing) {
+                            return keep ? value : null;
+                        }
+                    });
+                    if (keep) {
+                        control.put(key, value);
+                    } else {
+                        control.remove(key);
+                    }
+                } else if (op < 78) {
+                    final String prefix = key.substring(0, 1 + random.nextInt(Math.min(2, key.length())));
+                    final SortedMap<String, String> removed = subMap(control, prefix);
+                    final int expected = removed.size();
+                    removed.clear();
+                    assertEquals(expected, storage.removePrefix(prefix));
+                } else if (op < 80) {
+                    storage.fold();
+                }
+
+                if (step % 10 == 0) {
+                    verify(storage, control, random);
+                }
+            }
+
+            verify(storage, control, random);
+
+            int sum = 0;
+            for (int size : storage.getShardSizes()) {
+                sum += size;
+            }
+            assertEquals(control.size(), sum);
+        } finally {
+            storage.close();
+        }
+    }
+
+    private static void verify(CoreStorage storage, TreeMap<String, String> control, Random random) {
+        assertEquals(control.size(), storage.size());
+        assertEquals(control.isEmpty() ? null : control.firstKey(), storage.firstKey());
+        assertEquals(control.isEmpty() ? null : control.lastKey(), storage.lastKey());
+
+        final String key = randomKey(random);
+        assertEquals(control.get(key), storage.get(key));
+
+        // the empty prefix, every one char prefix and a longer one
+        final List<String> prefixes = new ArrayList<String>();
+        prefixes.add("");
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            prefixes.add(ALPHABET.substring(i, i + 1));
+        }
+        prefixes.add(key.substring(0, 1 + random.nextInt(key.length())));
+
+        for (String prefix : prefixes) {
+            final SortedMap<String, String> expected = subMap(control, prefix);
+            assertEquals(prefix, expected.size(), storage.getPrefixedByCount(prefix));
+            assertEquals(prefix, first(expected, 10), storage.getPrefixedBy(prefix, 10));
+            assertEquals(prefix, first(expected, ALL), storage.getPrefixedBy(prefix, ALL));
+            assertEquals(prefix, first(expected, ALL), storage.getRange(prefix, prefix, null, 0, ALL));
+
+            final Set<String> walked = Collections.synchronizedSet(new TreeSet<String>());
+            storage.parallelTraverse(prefix, new Trie.Cursor<String, String>() {
+                @Override
+                public SelectStatus select(Map.Entry<? extends String, ? extends String> entry) {
+                    assertTrue(walked.add(entry.getKey()));
+                    return SelectStatus.CONTINUE;
+                }
+            });
+            assertEquals(prefix, expected.keySet(), walked);
+        }
+
+        // every entry a page at a time, by offset and then by cursor, both of which run across the shards
+        final List<Map.Entry<String, String>> all = first(control, ALL);
+        final int limit = 1 + random.nextInt(7);
+        for (int offset = 0; offset <= all.size(); offset += limit) {
+            assertEquals(all.subList(offset, Math.min(all.size(), offset + limit)),
+                    storage.getRange("", null, null, offset, limit));
+        }
+
+        final List<Map.Entry<String, String>> paged = new ArrayList<Map.Entry<String, String>>();
+        String after = null;
+        while (true) {
+            final List<Map.Entry<String, String>> page = storage.getRange("", null, after, 0, limit);
+            paged.addAll(page);
+            if (page.size() < limit) {
+                break;
+            }
+            after = page.get(page.size() - 1).getKey();
+        }
+        assertEquals(all, paged);
+
+        // a range between two keys that may sit in different shards
+        final String from = randomKey(random);
+        final String to = randomKey(random);
+        if (from.compareTo(to) <= 0) {
+            final String end = Shard.successor(to);
+            final SortedMap<String, String> expected =
+                    (end == null) ? control.tailMap(from) : control.subMap(from, end);
+            assertEquals(first(expected, ALL), storage.getRange(from, to, null, 0, ALL));
+
+            final List<Map.Entry<String, String>> inRange = first(expected, ALL);
+            final int skip = random.nextInt(inRange.size() + 1);
+            assertEquals(inRange.subList(skip, Math.min(inRange.size(), skip + limit)),
+                    storage.getRange(from, to, null, skip, limit));
+
+            final List<Map.Entry<String, String>> resumed = new ArrayList<Map.Entry<String, String>>();
+            String last = null;
+            while (true) {
+                final List<Map.Entry<String, String>> page = storage.getRange(from, to, last, 0, limit);
+                resumed.addAll(page);
+                if (page.size() < limit) {
+                    break;
+                }
+                last = page.get(page.size() - 1).getKey();
+            }
+            assertEquals(inRange, resumed);
+        }
+    }
+
+    private static String randomKey(Random random) {
+        final StringBuilder key = new StringBuilder();
+        final int length = 1 + random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            key.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return key.toString();
+    }
+
+    private static SortedMap<String, String> subMap(TreeMap<String, String> map, String prefix) {
+        final String end = Shard.successor(prefix);
+        if (prefix.isEmpty()) {
+            return map;
+        }
+        return (end == null) ? map.tailMap(prefix) : map.subMap(prefix, end);
+    }
+
+    private static List<Map.Entry<String, String>> first(SortedMap<String, String> map, int limit) {
+        final List<Map.Entry<String, String>> rtn = new ArrayList<Map.Entry<String, String>>();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (rtn.size() == limit) {
+                break;
+            }
+            rtn.add(new AbstractMap.SimpleImmutableEntry<String, String>(entry));
+        }
+        return rtn;
+    }
+
+    private static List<String> keysOf(List<Map.Entry<String, String>> entries) {
+        final List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : entries) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+}
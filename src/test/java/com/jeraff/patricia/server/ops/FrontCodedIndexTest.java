@@ -0,0 +1,231 @@
+package com.jeraff.patricia.server.ops;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+public class FrontCodedIndexTest extends TestCase {
+    // plain chars, and ones from the escape char up that take three bytes each
+    private static final char[] CHARS = {'a', 'b', 'z', '\u00fe', '\u00ff', '\u0100', '\u4e2d', '\uffff'};
+
+    public FrontCodedIndexTest(String name) {
+        super(name);
+    }
+
+    public void testEmpty() {
+        final FrontCodedIndex index = new FrontCodedIndex.Builder(0).build();
+        assertEquals(0, index.size());
+        assertEquals(-1, index.indexOf("a"));
+        assertEquals(0, index.ceiling("a"));
+        assertFalse(index.keysFrom(0).hasNext());
+    }
+
+    public void testBlockBoundaries() {
+        // a partial block, exactly one, one and a bit, and several
+        for (int size : new int[]{1, FrontCodedIndex.BLOCK - 1, FrontCodedIndex.BLOCK, FrontCodedIndex.BLOCK + 1,
+                3 * FrontCodedIndex.BLOCK, 500}) {
+            check(randomKeys(new Random(size), size));
+        }
+    }
+
+    public void testLongSharedPrefixes() {
+        // each key is the one before it plus a char, across blocks
+        final List<String> keys = new ArrayList<String>();
+        final StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            prefix.append(CHARS[i % CHARS.length]);
+            keys.add(prefix.toString());
+        }
+        Collections.sort(keys);
+        check(keys);
+    }
+
+    public void testEscapedChars() {
+        final List<String> keys = Arrays.asList("\u00ff", "\u00ff\u00ff", "a\u00ffb", "a\u0100", "\u4e2d\u6587",
+                "\uffff", "\uffff\u00ff\uffff");
+        final List<String> sorted = new ArrayList<String>(keys);
+        Collections.sort(sorted);
+        final FrontCodedIndex index = check(sorted);
+
+        // a lookup that's cut short by an escaped char
+        assertEquals(Collections.binarySearch(sorted, "a\u00ff"), index.indexOf("a\u00ff"));
+        assertEquals(Collections.binarySearch(sorted, "\u00fe"), index.indexOf("\u00fe"));
+    }
+
+    public void testKeysInOrder() {
+        final FrontCodedIndex.Builder builder = new FrontCodedIndex.Builder(2);
+        builder.add("b", "1");
+        try {
+            builder.add("a", "2");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            builder.add("b", "2");
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testWriteAndMap() throws IOException {
+        final File dir = tempDir();
+        final ValueLog log = new ValueLog(new File(dir, "values"));
+        final List<String> keys = randomKeys(new Random(7), 200);
+
+        final FrontCodedIndex.Builder builder = new FrontCodedIndex.Builder(keys.size(), log);
+        for (String key : keys) {
+            builder.add(key, "value of " + key);
+        }
+        final File file = new File(dir, "index");
+        builder.write(file);
+        assertFalse(new File(dir, "index.tmp").exists());
+
+        final FrontCodedIndex mapped = FrontCodedIndex.map(file, log);
+        assertEquals(keys.size(), mapped.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(keys.get(i), mapped.keyAt(i));
+            assertEquals("value of " + keys.get(i), mapped.valueAt(i));
+            assertEquals(i, mapped.indexOf(keys.get(i)));
+        }
+
+        // and again from a log that's been reopened, as after a restart
+        final FrontCodedIndex reopened = FrontCodedIndex.map(file, new ValueLog(new File(dir, "values")));
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals("value of " + keys.get(i), reopened.valueAt(i));
+        }
+    }
+
+    public void testMapRejectsOtherFiles() throws IOException {
+        final File dir = tempDir();
+        final ValueLog log = new ValueLog(new File(dir, "values"));
+        final FrontCodedIndex.Builder builder = new FrontCodedIndex.Builder(3, log);
+        builder.add("a", "1");
+        builder.add("b", "2");
+        builder.add("c", "3");
+        final File file = new File(dir, "index");
+        builder.write(file);
+        final long length = file.length();
+
+        // another version
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(4);
+        raf.writeInt(1);
+        raf.close();
+        assertMapFails(file, log, "version 1");
+
+        // cut short
+        builder.write(file);
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(length - 1);
+        raf.close();
+        assertMapFails(file, log, "Truncated");
+
+        // not an index at all
+        raf = new RandomAccessFile(file, "rw");
+        raf.seek(0);
+        raf.writeInt(0);
+        raf.close();
+        assertMapFails(file, log, "Not an index");
+
+        final File tiny = new File(dir, "tiny");
+        raf = new RandomAccessFile(tiny, "rw");
+        raf.writeInt(0);
+        raf.close();
+        assertMapFails(tiny, log, "Not an index");
+    }
+
+    public void testOnlyALoggedIndexCanBeWritten() throws IOException {
+        try {
+            new FrontCodedIndex.Builder(0).write(new File(tempDir(), "index"));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static void assertMapFails(File file, ValueLog log, String message) {
+        try {
+            FrontCodedIndex.map(file, log);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    static File tempDir() throws IOException {
+        final File dir = File.createTempFile("patricia", "");
+        if (!dir.delete() || !dir.mkdir()) {
+            throw new IOException("Couldn't make " + dir);
+        }
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static FrontCodedIndex check(List<String> keys) {
+        final FrontCodedIndex.Builder builder = new FrontCodedIndex.Builder(keys.size());
+        for (String key : keys) {
+            builder.add(key, "value of " + key);
+        }
+        final FrontCodedIndex index = builder.build();
+
+        assertEquals(keys.size(), index.size());
+        for (int i = 0; i < keys.size(); i++) {
+            final String key = keys.get(i);
+            assertEquals(key, index.keyAt(i));
+            assertEquals("value of " + key, index.valueAt(i));
+            assertEquals(i, index.indexOf(key));
+            assertEquals(i, index.ceiling(key));
+        }
+
+        for (int i = 0; i <= keys.size(); i++) {
+            final List<String> from = new ArrayList<String>();
+            final Iterator<String> iterator = index.keysFrom(i);
+            while (iterator.hasNext()) {
+                from.add(iterator.next());
+            }
+            assertEquals(keys.subList(i, keys.size()), from);
+
+            try {
+                iterator.next();
+                fail();
+            } catch (NoSuchElementException expected) {
+            }
+        }
+
+        // keys that aren't there land where a binary search of the list puts them
+        final Random random = new Random(keys.size());
+        for (int i = 0; i < 200; i++) {
+            final String probe = randomKey(random);
+            final int expected = Collections.binarySearch(keys, probe);
+            assertEquals(probe, expected, index.indexOf(probe));
+            assertEquals(probe, (expected < 0) ? -expected - 1 : expected, index.ceiling(probe));
+        }
+
+        try {
+            index.keyAt(keys.size());
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+
+        return index;
+    }
+
+    private static List<String> randomKeys(Random random, int size) {
+        final TreeSet<String> keys = new TreeSet<String>();
+        while (keys.size() < size) {
+            keys.add(randomKey(random));
+        }
+        return new ArrayList<String>(keys);
+    }
+
+    private static String randomKey(Random random) {
+        final StringBuilder key = new StringBuilder();
+        final int length = 1 + random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            key.append(CHARS[random.nextInt(CHARS.length)]);
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,126 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.conf.Scheduler;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class HashIndexTest extends TestCase {
+    private Core core;
+    private LiveStorage live;
+    private PatriciaOps ops;
+
+    public HashIndexTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() {
+        core = new Core();
+        live = new LiveStorage(new CoreStorage(core));
+        ops = new PatriciaOps(core, live, new WorkScheduler(new Scheduler()).lane("test"));
+    }
+
+    public void testAddGetRemove() {
+        final HashIndex index = new HashIndex();
+        assertEquals(0, index.get("h").length);
+
+        index.add("h", "alien");
+        index.add("h", "ALIEN");
+        index.add("h", "alien");
+        assertEquals(Arrays.asList("alien", "ALIEN"), Arrays.asList(index.get("h")));
+        assertEquals(1, index.size());
+
+        // only what's still live is kept, and only if nobody's changed it since it was read
+        final String[] read = index.get("h");
+        index.retain("h", read, Collections.singletonList("ALIEN"));
+        assertEquals(Arrays.asList("ALIEN"), Arrays.asList(index.get("h")));
+        index.retain("h", read, Collections.<String>emptyList());
+        assertEquals(1, index.size());
+        index.retain("h", index.get("h"), Collections.<String>emptyList());
+        assertEquals(0, index.size());
+
+        index.add("h", "alien");
+        assertEquals(Arrays.asList("alien"), Arrays.asList(index.remove("h")));
+        assertEquals(0, index.remove("h").length);
+    }
+
+    public void testPut() {
+        ops.put(new String[]{"Alien", "Aliens"}, false);
+        final String hash = ops.getHash("Alien");
+
+        assertEquals("Alien", ops.getByHash(hash).getS());
+        assertEquals("Aliens", ops.getByHash(ops.getHash("Aliens")).getS());
+        assertNull(ops.getByHash(ops.getHash("Alien 3")));
+        assertEquals(2, live.get().getHashIndex().size());
+    }
+
+    public void testRemove() {
+        ops.put(new String[]{"Alien", "Aliens"}, false);
+        final String hash = ops.getHash("Alien");
+
+        // removed by string, the hash is forgotten the next time it's looked up
+        ops.remove(new String[]{"Alien"});
+        assertNull(ops.getByHash(hash));
+        assertEquals(1, live.get().getHashIndex().size());
+
+        // and by hash straight away
+        final String other = ops.getHash("Aliens");
+        assertEquals("Aliens", ops.removeByHash(new String[]{other}).get(other));
+        assertNull(ops.getByHash(other));
+        assertEquals(0, live.get().getHashIndex().size());
+        assertEquals(0, live.get().size());
+    }
+
+    public void testRePutWithAnotherVariant() {
+        final String hash = ops.getHash("alien");
+        ops.upsert("Alien");
+        assertEquals("Alien", ops.getByHash(hash).getS());
+
+        // the preferred variant replaces the one that's there, and a less preferred one doesn't
+        ops.upsert("ALIEN");
+        assertEquals("ALIEN", ops.getByHash(hash).getS());
+        ops.upsert("alien");
+        assertEquals("ALIEN", ops.getByHash(hash).getS());
+
+        // every variant written is remembered, since they all lead to the same keys
+        assertEquals(Arrays.asList("Alien", "ALIEN", "alien"), Arrays.asList(live.get().getHashIndex().get(hash)));
+
+        // removing any variant removes the lot
+        ops.remove(new String[]{"alien"});
+        assertNull(ops.getByHash(hash));
+        assertEquals(0, live.get().getHashIndex().size());
+    }
+
+    public void testRebuiltByReindex() throws InterruptedException {
+        ops.put(new String[]{"Alien", "The Thing"}, false);
+        ops.put(new String[]{"ALIEN"}, false);
+        final String hash = ops.getHash("alien");
+        final CoreStorage before = live.get();
+        assertEquals(2, before.getHashIndex().get(hash).length);
+
+        final Core target = core.copy();
+        target.getExpansion().setMaxSuffixes(0);
+        final Reindexer reindexer = new Reindexer(core, live);
+        assertTrue(reindexer.start(target, Reindexer.SOURCE_SNAPSHOT));
+        for (int i = 0; i < 500 && Reindexer.STATE_RUNNING.equals(reindexer.getState()); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Reindexer.STATE_DONE, reindexer.getState());
+
+        // the new storage has its own index, built from the strings that were stored rather than every one written
+        final CoreStorage after = live.get();
+        assertNotSame(before, after);
+        assertEquals(Arrays.asList("ALIEN"), Arrays.asList(after.getHashIndex().get(hash)));
+        assertEquals(2, after.getHashIndex().size());
+        assertEquals("ALIEN", ops.getByHash(hash).getS());
+        assertEquals("The Thing", ops.getByHash(ops.getHash("The Thing")).getS());
+
+        // and keeps up with writes after the swap
+        ops.remove(new String[]{"The Thing"});
+        assertNull(ops.getByHash(ops.getHash("The Thing")));
+        assertEquals(1, after.getHashIndex().size());
+    }
+}
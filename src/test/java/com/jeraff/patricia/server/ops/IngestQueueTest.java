@@ -0,0 +1,205 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.conf.Scheduler;
+import junit.framework.TestCase;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Drives an {@link IngestQueue} through an executor that only runs what it's been handed when it's told to, so each
+ * drain can be checked as it happens.
+ */
+public class IngestQueueTest extends TestCase {
+    private Core core;
+    private PatriciaOps ops;
+    private ManualExecutor executor;
+
+    public IngestQueueTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() {
+        core = new Core();
+        core.getIngest().setCapacity(3);
+        core.getIngest().setBatchSize(2);
+        core.getIngest().setThreads(2);
+
+        final WorkScheduler.Lane lane = new WorkScheduler(new Scheduler()).lane("test");
+        ops = new PatriciaOps(core, new LiveStorage(new CoreStorage(core)), lane);
+        executor = new ManualExecutor();
+    }
+
+    public void testCoalescesByHash() {
+        final IngestQueue queue = new IngestQueue(core, ops, executor);
+        final String hash = ops.getHash("alien");
+        assertEquals(hash, ops.getHash("Alien"));
+        assertEquals(hash, ops.getHash("ALIEN"));
+
+        // the same string twice in one PUT, and again in the next while it's still waiting
+        assertTrue(queue.offer(new String[]{"alien", "Alien"}));
+        assertEquals(1, queue.getDepth());
+        assertEquals(2, queue.getAccepted());
+        assertEquals(1, queue.getCoalesced());
+
+        assertTrue(queue.offer(new String[]{"ALIEN"}));
+        assertTrue(queue.offer(new String[]{"alien"}));
+        assertEquals(1, queue.getDepth());
+        assertEquals(4, queue.getAccepted());
+        assertEquals(3, queue.getCoalesced());
+
+        // the variant the analyzer prefers is the one applied
+        executor.runAll();
+        assertEquals(0, queue.getDepth());
+        assertEquals(1, queue.getApplied());
+        assertEquals("ALIEN", ops.getByHash(hash).getS());
+    }
+
+    public void testRejectsAllOrNothing() {
+        final IngestQueue queue = new IngestQueue(core, ops, executor);
+        assertTrue(queue.offer(new String[]{"alpha", "beta"}));
+
+        // two new slots wanted and only one left, so neither goes in
+        assertFalse(queue.offer(new String[]{"gamma", "delta"}));
+        assertEquals(2, queue.getDepth());
+        assertEquals(2, queue.getRejected());
+
+        // one that coalesces takes no slot, so this fits
+        assertTrue(queue.offer(new String[]{"Alpha", "gamma"}));
+        assertEquals(3, queue.getDepth());
+        assertTrue(queue.offer(new String[]{"beta"}));
+        assertEquals(3, queue.getDepth());
+
+        assertFalse(queue.offer(new String[]{"delta"}));
+        assertEquals(3, queue.getRejected());
+        assertEquals(5, queue.getAccepted());
+
+        executor.runAll();
+        assertEquals(3, queue.getApplied());
+        assertNull(ops.getByHash(ops.getHash("delta")));
+        assertEquals("gamma", ops.getByHash(ops.getHash("gamma")).getS());
+
+        // and there's room again once it's drained
+        assertTrue(queue.offer(new String[]{"delta", "epsilon", "zeta"}));
+    }
+
+    public void testDrainsABatchAtATimeUpToThreads() {
+        core.getIngest().setCapacity(100);
+        final IngestQueue queue = new IngestQueue(core, ops, executor);
+
+        assertTrue(queue.offer(new String[]{"a1", "b2"}));
+        assertEquals(2, executor.tasks.size());
+        assertTrue(queue.offer(new String[]{"c3", "d4", "e5"}));
+        assertEquals(2, executor.tasks.size());
+
+        // each drain applies one batch and goes to the back of the lane for the next
+        executor.runNext();
+        assertEquals(2, queue.getApplied());
+        assertEquals(3, queue.getDepth());
+        assertEquals(2, executor.tasks.size());
+
+        executor.runNext();
+        assertEquals(4, queue.getApplied());
+        executor.runNext();
+        assertEquals(5, queue.getApplied());
+        assertEquals(0, queue.getDepth());
+
+        // the ones left find nothing and stop
+        executor.runAll();
+        assertTrue(executor.tasks.isEmpty());
+        assertEquals(5, queue.getApplied());
+
+        // and new strings start them again
+        assertTrue(queue.offer(new String[]{"f6"}));
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(6, queue.getApplied());
+    }
+
+    public void testRejectedDrainIsRetriedByTheNextOffer() {
+        final IngestQueue queue = new IngestQueue(core, ops, executor);
+
+        // the strings are still queued when the lane won't take a drain
+        executor.rejecting = true;
+        assertTrue(queue.offer(new String[]{"alpha", "beta"}));
+        assertEquals(2, queue.getDepth());
+        assertTrue(executor.tasks.isEmpty());
+
+        // a drain that was never scheduled isn't counted, so the next PUT schedules it
+        executor.rejecting = false;
+        assertTrue(queue.offer(new String[]{"gamma"}));
+        assertEquals(2, executor.tasks.size());
+
+        executor.runAll();
+        assertEquals(0, queue.getDepth());
+        assertEquals(3, queue.getApplied());
+    }
+
+    public void testRejectedRescheduleIsRetriedByTheNextOffer() {
+        core.getIngest().setThreads(1);
+        final IngestQueue queue = new IngestQueue(core, ops, executor);
+        assertTrue(queue.offer(new String[]{"alpha", "beta", "gamma"}));
+        assertEquals(1, executor.tasks.size());
+
+        // the first batch goes in, but the drain can't put itself back on the lane for the rest
+        executor.rejecting = true;
+        executor.runNext();
+        assertEquals(2, queue.getApplied());
+        assertEquals(1, queue.getDepth());
+        assertTrue(executor.tasks.isEmpty());
+
+        executor.rejecting = false;
+        assertTrue(queue.offer(new String[]{"delta"}));
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(0, queue.getDepth());
+        assertEquals(4, queue.getApplied());
+    }
+
+    public void testDepthAndLag() throws InterruptedException {
+        final IngestQueue queue = new IngestQueue(core, ops, executor);
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, queue.getLagMillis());
+        assertEquals(3, queue.getCapacity());
+
+        assertTrue(queue.offer(new String[]{"alpha"}));
+        Thread.sleep(50);
+        assertTrue(queue.offer(new String[]{"beta"}));
+        assertEquals(2, queue.getDepth());
+
+        // it's the oldest string's wait, and coalescing into it doesn't reset it
+        assertTrue(queue.getLagMillis() >= 50);
+        assertTrue(queue.offer(new String[]{"Alpha"}));
+        assertTrue(queue.getLagMillis() >= 50);
+
+        executor.runAll();
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, queue.getLagMillis());
+    }
+
+    private static class ManualExecutor implements Executor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        private boolean rejecting;
+
+        @Override
+        public void execute(Runnable task) {
+            if (rejecting) {
+                throw new RejectedExecutionException("rejecting");
+            }
+            tasks.add(task);
+        }
+
+        void runNext() {
+            tasks.poll().run();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
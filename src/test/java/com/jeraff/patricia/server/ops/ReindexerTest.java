@@ -0,0 +1,149 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Core;
+import com.jeraff.patricia.conf.Scheduler;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps writing to a core from a few threads while it's reindexed, each thread keeping its own record of what it
+ * left there, and checks the storage that's swapped in against a fresh one loaded with just those strings.
+ */
+public class ReindexerTest extends TestCase {
+    private static final int LOADED = 2000;
+    private static final int WRITERS = 3;
+    private static final int POOL = 200;
+    private static final int AFTER = 200;
+
+    private Core core;
+    private LiveStorage live;
+    private PatriciaOps ops;
+
+    public ReindexerTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() {
+        core = new Core();
+        core.setShards(4);
+        live = new LiveStorage(new CoreStorage(core));
+        ops = new PatriciaOps(core, live, new WorkScheduler(new Scheduler()).lane("test"));
+    }
+
+    public void testWritesDuringAReindexEndUpInTheNewStorage() throws Exception {
+        final Set<String> loaded = new TreeSet<String>();
+        final List<String> batch = new ArrayList<String>();
+        for (int i = 0; i < LOADED; i++) {
+            batch.add("loaded " + i);
+        }
+        ops.put(batch.toArray(new String[batch.size()]), false);
+        loaded.addAll(batch);
+
+        final Core target = new Reindexer(core, live).newTarget();
+        target.getExpansion().setMaxSuffixes(0);
+        target.setEngine(Core.ENGINE_ADAPTIVE_RADIX);
+        final Reindexer reindexer = new Reindexer(core, live);
+
+        final AtomicInteger during = new AtomicInteger();
+        final Writer[] writers = new Writer[WRITERS];
+        for (int i = 0; i < WRITERS; i++) {
+            writers[i] = new Writer(i, reindexer, during);
+            writers[i].start();
+        }
+
+        assertTrue(reindexer.start(target, Reindexer.SOURCE_SNAPSHOT));
+        for (Writer writer : writers) {
+            writer.join();
+            if (writer.failure != null) {
+                throw writer.failure;
+            }
+        }
+        assertEquals(Reindexer.STATE_DONE, reindexer.getState());
+        assertTrue(during.get() > 0);
+
+        // the settings went in with the storage
+        final CoreStorage swapped = live.get();
+        assertSame(target, swapped.getCore());
+        assertSame(target.getExpansion(), core.getExpansion());
+        assertEquals(Core.ENGINE_ADAPTIVE_RADIX, core.getEngine());
+
+        final CoreStorage expected = new CoreStorage(target);
+        final PatriciaOps loader = PatriciaOps.loader(expected);
+        loader.put(loaded.toArray(new String[loaded.size()]), false);
+        for (Writer writer : writers) {
+            loader.put(writer.model.toArray(new String[writer.model.size()]), false);
+        }
+
+        assertEquals(expected.size(), swapped.size());
+        final List<Map.Entry<String, String>> all = expected.getRange("", null, null, 0, expected.size());
+        assertEquals(all, swapped.getRange("", null, null, 0, swapped.size() + 1));
+
+        for (Writer writer : writers) {
+            for (String string : writer.pool) {
+                final Entry entry = ops.getByHash(ops.getHash(string));
+                assertEquals(string, writer.model.contains(string), entry != null);
+            }
+        }
+
+        expected.close();
+    }
+
+    /** Puts and removes strings of its own, until a while after the reindex is done. */
+    private class Writer extends Thread {
+        private final List<String> pool = new ArrayList<String>();
+        private final Set<String> model = new TreeSet<String>();
+        private final Random random;
+        private final Reindexer reindexer;
+        private final AtomicInteger during;
+        private volatile Exception failure;
+
+        Writer(int id, Reindexer reindexer, AtomicInteger during) {
+            this.random = new Random(id);
+            this.reindexer = reindexer;
+            this.during = during;
+            for (int i = 0; i < POOL; i++) {
+                pool.add("writer " + id + " title " + i);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                // until the reindex has started, then until it's done, then some more
+                int after = 0;
+                while (after < AFTER) {
+                    final String state = reindexer.getState();
+                    write();
+                    if (Reindexer.STATE_RUNNING.equals(state)) {
+                        during.incrementAndGet();
+                    } else if (!Reindexer.STATE_IDLE.equals(state)) {
+                        after++;
+                    }
+                    // a pace that leaves the reindex time to get on with it
+                    Thread.sleep(1);
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        private void write() {
+            final String string = pool.get(random.nextInt(pool.size()));
+            if (random.nextInt(3) == 0) {
+                ops.remove(new String[]{string});
+                model.remove(string);
+            } else {
+                ops.put(new String[]{string}, false);
+                model.add(string);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Scheduler;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs the same batch of blocking writes through a {@link WorkScheduler} in platform mode, with the 20 threads the
+ * database pool used to have, and in virtual mode, and compares how long they took and how many OS threads they added
+ * at the peak.
+ * <p>
+ * Point it at an embedded database with the driver on the classpath and each task is an upsert shaped like the ones
+ * {@link PatriciaOps#persistString} does, through a pool of 20 connections:
+ * <pre>
+ * java -cp target/test-classes:target/classes:h2.jar:... -Dbench.url="jdbc:h2:mem:bench;MODE=MySQL" \
+ *     -Dbench.driver=org.h2.Driver com.jeraff.patricia.server.ops.SchedulerBenchmark
+ * </pre>
+ * Without {@code bench.url} each task sleeps for {@code bench.latencyMillis} (5 by default) in place of a round trip.
+ * {@code bench.tasks} is how many to run (10000) and {@code bench.permits} how many virtual mode lets block at once
+ * (1000). Virtual mode needs Java 21; on anything older it reports the platform fallback.
+ */
+public class SchedulerBenchmark {
+    private static final int PLATFORM_THREADS = 20;
+    private static final int CONNECTIONS = 20;
+    private static final String TABLE = "scheduler_benchmark";
+
+    public static void main(String[] args) throws Exception {
+        final int tasks = Integer.getInteger("bench.tasks", 10000);
+        final int permits = Integer.getInteger("bench.permits", 1000);
+        final long latency = Long.getLong("bench.latencyMillis", 5);
+        final String url = System.getProperty("bench.url");
+
+        final ComboPooledDataSource pool = (url == null) ? null : setup(url, System.getProperty("bench.driver"));
+        System.out.println(tasks + " tasks, " + ((pool == null) ? latency + "ms of sleep each" : "upserts to " + url));
+        System.out.println(String.format("%-10s %8s %10s %10s %12s",
+                "mode", "permits", "millis", "tasks/s", "os threads"));
+
+        // once each unmeasured, so neither pays for class loading and compilation
+        run(Scheduler.MODE_PLATFORM, PLATFORM_THREADS, tasks / 10, latency, pool, false);
+        run(Scheduler.MODE_VIRTUAL, permits, tasks / 10, latency, pool, false);
+
+        run(Scheduler.MODE_PLATFORM, PLATFORM_THREADS, tasks, latency, pool, true);
+        run(Scheduler.MODE_VIRTUAL, permits, tasks, latency, pool, true);
+
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    private static ComboPooledDataSource setup(String url, String driver) throws Exception {
+        final ComboPooledDataSource pool = new ComboPooledDataSource();
+        if (driver != null) {
+            pool.setDriverClass(driver);
+        }
+        pool.setJdbcUrl(url);
+        pool.setAutoCommitOnClose(true);
+        pool.setMaxPoolSize(CONNECTIONS);
+
+        final Connection connection = pool.getConnection();
+        try {
+            final Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE IF EXISTS " + TABLE);
+            statement.execute("CREATE TABLE " + TABLE + " (h VARCHAR(64) PRIMARY KEY, s VARCHAR(255))");
+        } finally {
+            connection.close();
+        }
+        return pool;
+    }
+
+    private static void run(String mode, int threads, int tasks, final long latency, final ComboPooledDataSource pool,
+                            boolean report) throws InterruptedException {
+        final Scheduler conf = new Scheduler();
+        conf.setMode(mode);
+        conf.setThreads(threads);
+        conf.setQuota(threads);
+
+        final WorkScheduler scheduler = new WorkScheduler(conf);
+        final WorkScheduler.Lane lane = scheduler.lane("benchmark");
+        final CountDownLatch done = new CountDownLatch(tasks);
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        // the schedulers from earlier runs keep their threads, so only count the ones this run adds
+        final int before = threadBean.getThreadCount();
+        threadBean.resetPeakThreadCount();
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < tasks; i++) {
+            final String string = "string " + i;
+            lane.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (pool == null) {
+                            Thread.sleep(latency);
+                        } else {
+                            upsert(pool, string);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        done.await();
+        final long millis = (System.nanoTime() - start) / 1000000;
+
+        if (report) {
+            final String name = scheduler.isVirtual() || mode.equals(Scheduler.MODE_PLATFORM) ? mode : mode + "*";
+            System.out.println(String.format("%-10s %8d %10d %10.0f %12d", name, scheduler.getThreads(), millis,
+                    tasks * 1000.0 / Math.max(1, millis), threadBean.getPeakThreadCount() - before));
+            if (!name.equals(mode)) {
+                System.out.println("* no virtual threads in this runtime, that was the platform fallback");
+            }
+        }
+    }
+
+    private static void upsert(ComboPooledDataSource pool, String string) throws SQLException {
+        final Connection connection = pool.getConnection();
+        try {
+            final PreparedStatement statement = connection.prepareStatement(String.format(
+                    "INSERT INTO %s(h, s) VALUES(?, ?) ON DUPLICATE KEY UPDATE s=?", TABLE));
+            statement.setString(1, Integer.toHexString(string.hashCode()));
+            statement.setString(2, string);
+            statement.setString(3, string);
+            statement.execute();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Lsm;
+import junit.framework.TestCase;
+import org.limewire.collection.Trie;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs random writes, folds and compactions against a shard and a {@link TreeMap} side by side, and checks after
+ * every step that the shard reads back the same way the map does.
+ */
+public class ShardTest extends TestCase {
+    private static final String ALPHABET = "abc";
+    private static final int STEPS = 3000;
+
+    public ShardTest(String name) {
+        super(name);
+    }
+
+    public void testTrieOnly() {
+        check(new Shard(TrieEngine.PATRICIA, false, Lsm.INDEX_ARRAY, null, null), 1, false);
+    }
+
+    public void testTrieOnlyWithTombstones() {
+        check(new Shard(TrieEngine.PATRICIA, true, Lsm.INDEX_ARRAY, null, null), 2, false);
+    }
+
+    public void testArrayBase() {
+        check(new Shard(TrieEngine.PATRICIA, false, Lsm.INDEX_ARRAY, null, null), 3, true);
+    }
+
+    public void testArrayBaseWithTombstones() {
+        check(new Shard(TrieEngine.PATRICIA, true, Lsm.INDEX_ARRAY, null, null), 4, true);
+    }
+
+    public void testFrontCodedBase() {
+        check(new Shard(TrieEngine.ADAPTIVE_RADIX, false, Lsm.INDEX_FRONT_CODED, null, null), 5, true);
+    }
+
+    public void testFrontCodedBaseWithTombstones() {
+        check(new Shard(TrieEngine.ADAPTIVE_RADIX, true, Lsm.INDEX_FRONT_CODED, null, null), 6, true);
+    }
+
+    public void testMappedBase() throws IOException {
+        final File dir = FrontCodedIndexTest.tempDir();
+        final ValueLog values = new ValueLog(new File(dir, "values"));
+        check(new Shard(TrieEngine.PATRICIA, true, Lsm.INDEX_MAPPED, new File(dir, "index"), values), 7, true);
+    }
+
+    public void testRestartMapsTheIndex() throws IOException {
+        final File dir = FrontCodedIndexTest.tempDir();
+        final File file = new File(dir, "index");
+        final Shard shard = new Shard(TrieEngine.PATRICIA, false, Lsm.INDEX_MAPPED, file,
+                new ValueLog(new File(dir, "values")));
+        shard.put("ab", "1");
+        shard.put("abc", "2");
+        shard.put("b", "3");
+        assertTrue(shard.fold());
+        assertTrue(file.exists());
+
+        // only what was folded is in the file
+        shard.put("c", "4");
+
+        final Shard restarted = new Shard(TrieEngine.PATRICIA, false, Lsm.INDEX_MAPPED, file,
+                new ValueLog(new File(dir, "values")));
+        assertEquals(3, restarted.getBaseSize());
+        assertEquals(0, restarted.getTrieSize());
+        assertEquals(3, restarted.size());
+        assertEquals(Arrays.asList("ab", "abc", "b"), keys(restarted));
+        assertEquals("2", restarted.get("abc"));
+        assertEquals(2, restarted.getPrefixedByCount("ab"));
+    }
+
+    public void testFoldKeepsMarksOverTheBase() {
+        final Shard shard = new Shard(TrieEngine.PATRICIA, true, Lsm.INDEX_ARRAY, null, null);
+        shard.put("ab", "1");
+        shard.put("abc", "2");
+        shard.put("b", "3");
+        assertTrue(shard.fold());
+        assertEquals(3, shard.getBaseSize());
+        assertEquals(0, shard.getTrieSize());
+
+        // a key removed from the base stays marked until the next fold, compaction or not
+        assertEquals("2", shard.remove("abc"));
+        assertEquals(1, shard.getTombstones());
+        assertEquals(0, shard.compact(10));
+        assertNull(shard.get("abc"));
+        assertEquals(2, shard.size());
+
+        // one that's only in the trie can be compacted away
+        shard.put("c", "4");
+        assertEquals("4", shard.remove("c"));
+        assertEquals(2, shard.getTombstones());
+        assertEquals(1, shard.compact(10));
+        assertEquals(1, shard.getTombstones());
+
+        assertTrue(shard.fold());
+        assertEquals(0, shard.getTombstones());
+        assertEquals(2, shard.getBaseSize());
+        assertEquals(0, shard.getTrieSize());
+        assertEquals(Arrays.asList("ab", "b"), keys(shard));
+    }
+
+    public void testRemovePrefixOverBaseAndTrie() {
+        final Shard shard = new Shard(TrieEngine.PATRICIA, false, Lsm.INDEX_ARRAY, null, null);
+        shard.put("aa", "1");
+        shard.put("ab", "2");
+        shard.put("b", "3");
+        shard.fold();
+        shard.put("ac", "4");
+        shard.put("ab", "5");
+
+        assertEquals(3, shard.getPrefixedByCount("a"));
+        assertEquals(3, shard.removePrefix("a"));
+        assertEquals(0, shard.getPrefixedByCount("a"));
+        assertEquals(1, shard.size());
+        assertEquals(Arrays.asList("b"), keys(shard));
+        assertEquals("b", shard.firstKey());
+        assertEquals("b", shard.lastKey());
+    }
+
+    public void testSuccessor() {
+        assertEquals("b", Shard.successor("a"));
+        assertEquals("ac", Shard.successor("ab"));
+        assertEquals("b", Shard.successor("a" + Character.MAX_VALUE));
+        assertNull(Shard.successor("" + Character.MAX_VALUE));
+        assertNull(Shard.successor(""));
+    }
+
+    private static void check(Shard shard, long seed, boolean folds) {
+        final Random random = new Random(seed);
+        final TreeMap<String, String> control = new TreeMap<String, String>();
+        int baseSize = 0;
+
+        for (int step = 0; step < STEPS; step++) {
+            final String key = randomKey(random);
+            final int op = random.nextInt(100);
+
+            if (op < 45) {
+                final String value = "v" + step;
+                assertEquals(control.put(key, value), shard.put(key, value));
+            } else if (op < 65) {
+                assertEquals(control.remove(key), shard.remove(key));
+            } else if (op < 80) {
+                final int choice = random.nextInt(3);
+                final String value = "c" + step;
+                final String remapped = shard.compute(key, new Trie.Remapper<String, String>() {
+                    @Override
+                    public String remap(String k, String existing) {
+                        return (choice == 0) ? null : (choice == 1) ? existing : value;
+                    }
+                });
+
+                final String expected = (choice == 0) ? null : (choice == 1) ? control.get(key) : value;
+                assertEquals(expected, remapped);
+                if (expected == null) {
+                    control.remove(key);
+                } else {
+                    control.put(key, expected);
+                }
+            } else if (op < 85) {
+                final String prefix = key.substring(0, 1 + random.nextInt(key.length()));
+                final SortedMap<String, String> removed = subMap(control, prefix);
+                final int expected = removed.size();
+                removed.clear();
+                assertEquals(expected, shard.removePrefix(prefix));
+            } else if (op < 93) {
+                if (folds) {
+                    shard.fold();
+                }
+            } else {
+                shard.compact(1 + random.nextInt(5));
+            }
+
+            verify(shard, control, random);
+            baseSize = Math.max(baseSize, shard.getBaseSize());
+        }
+
+        // or the base was never read from
+        assertEquals(folds, baseSize > 0);
+    }
+
+    private static void verify(Shard shard, TreeMap<String, String> control, Random random) {
+        assertEquals(control.size(), shard.size());
+        assertEquals(control.isEmpty() ? null : control.firstKey(), shard.firstKey());
+        assertEquals(control.isEmpty() ? null : control.lastKey(), shard.lastKey());
+
+        final List<Map.Entry<String, String>> all = new ArrayList<Map.Entry<String, String>>();
+        shard.prefixed("", Integer.MAX_VALUE, all);
+        assertEquals(new ArrayList<Map.Entry<String, String>>(control.entrySet()), all);
+
+        final String key = randomKey(random);
+        assertEquals(control.get(key), shard.get(key));
+
+        final String prefix = key.substring(0, 1 + random.nextInt(key.length()));
+        final SortedMap<String, String> expected = subMap(control, prefix);
+        assertEquals(expected.size(), shard.getPrefixedByCount(prefix));
+
+        final List<Map.Entry<String, String>> prefixed = new ArrayList<Map.Entry<String, String>>();
+        shard.prefixed(prefix, 3, prefixed);
+        assertEquals(first(expected, 3), prefixed);
+
+        // a page from somewhere in the middle, by offset and then resuming after a key
+        final List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>(control.entrySet());
+        final int skip = random.nextInt(control.size() + 1);
+        final List<Map.Entry<String, String>> page = new ArrayList<Map.Entry<String, String>>();
+        shard.range("", false, null, new int[]{skip}, 5, page);
+        assertEquals(entries.subList(skip, Math.min(entries.size(), skip + 5)), page);
+
+        if (!page.isEmpty()) {
+            final String last = page.get(page.size() - 1).getKey();
+            final List<Map.Entry<String, String>> next = new ArrayList<Map.Entry<String, String>>();
+            shard.range(last, true, null, new int[]{0}, 5, next);
+            assertEquals(first(control.tailMap(last, false), 5), next);
+        }
+
+        final List<Map.Entry<String, String>> walked = new ArrayList<Map.Entry<String, String>>();
+        shard.walk(prefix, Shard.successor(prefix), new Trie.Cursor<String, String>() {
+            @Override
+            public SelectStatus select(Map.Entry<? extends String, ? extends String> entry) {
+                walked.add(new AbstractMap.SimpleImmutableEntry<String, String>(entry));
+                return SelectStatus.CONTINUE;
+            }
+        }, new AtomicBoolean());
+        assertEquals(new ArrayList<Map.Entry<String, String>>(expected.entrySet()), walked);
+    }
+
+    private static String randomKey(Random random) {
+        final StringBuilder key = new StringBuilder();
+        final int length = 1 + random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            key.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return key.toString();
+    }
+
+    private static SortedMap<String, String> subMap(TreeMap<String, String> map, String prefix) {
+        final String end = Shard.successor(prefix);
+        return (end == null) ? map.tailMap(prefix) : map.subMap(prefix, end);
+    }
+
+    private static List<Map.Entry<String, String>> first(SortedMap<String, String> map, int limit) {
+        final List<Map.Entry<String, String>> rtn = new ArrayList<Map.Entry<String, String>>();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (rtn.size() == limit) {
+                break;
+            }
+            rtn.add(new AbstractMap.SimpleImmutableEntry<String, String>(entry));
+        }
+        return rtn;
+    }
+
+    private static List<String> keys(Shard shard) {
+        final List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>();
+        shard.prefixed("", Integer.MAX_VALUE, entries);
+
+        final List<String> keys = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : entries) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,139 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Lsm;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+public class ValueLogTest extends TestCase {
+    public ValueLogTest(String name) {
+        super(name);
+    }
+
+    public void testAppendAndRead() throws IOException {
+        final ValueLog log = new ValueLog(new File(FrontCodedIndexTest.tempDir(), "values"));
+        final String[] values = {"", "a", "\u00ff\u4e2d\uffff", repeat('x', 127), repeat('y', 128), repeat('z', 20000)};
+
+        final long[] offsets = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            offsets[i] = log.append(values[i]);
+        }
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], log.read(offsets[i]));
+        }
+    }
+
+    public void testSegmentBoundary() throws IOException {
+        final ValueLog log = new ValueLog(new File(FrontCodedIndexTest.tempDir(), "values"));
+        final int length = 1 << 20;
+
+        // append until a string doesn't fit in what's left of the first segment
+        final List<String> values = new ArrayList<String>();
+        final List<Long> offsets = new ArrayList<Long>();
+        long offset = 0;
+        for (int i = 0; offset < ValueLog.SEGMENT; i++) {
+            final String value = repeat((char) ('a' + i % 26), length);
+            offset = log.append(value);
+            values.add(value);
+            offsets.add(offset);
+        }
+
+        // it starts the next segment rather than straddling the two
+        assertEquals(ValueLog.SEGMENT, offset);
+        assertTrue(offsets.get(offsets.size() - 2) + length < ValueLog.SEGMENT);
+
+        values.add("after");
+        offsets.add(log.append("after"));
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(values.get(i), log.read(offsets.get(i)));
+        }
+
+        try {
+            log.append(repeat('x', ValueLog.SEGMENT));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testReopen() throws IOException {
+        final File file = new File(FrontCodedIndexTest.tempDir(), "values");
+        final ValueLog log = new ValueLog(file);
+        final long first = log.append("first");
+        final long big = log.append(repeat('x', ValueLog.SEGMENT / 2));
+        final long last = log.append(repeat('y', ValueLog.SEGMENT / 2));
+        log.flush();
+
+        final ValueLog reopened = new ValueLog(file);
+        assertEquals(log.size(), reopened.size());
+        assertEquals("first", reopened.read(first));
+        assertEquals(repeat('x', ValueLog.SEGMENT / 2), reopened.read(big));
+        assertEquals(repeat('y', ValueLog.SEGMENT / 2), reopened.read(last));
+
+        // appends carry on from where the old log stopped
+        final long next = reopened.append("next");
+        assertEquals(log.size(), next);
+        assertEquals("next", reopened.read(next));
+        assertEquals("first", reopened.read(first));
+    }
+
+    public void testReopenRejectsOtherFiles() throws IOException {
+        final File file = new File(FrontCodedIndexTest.tempDir(), "values");
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[32]);
+        raf.close();
+
+        try {
+            new ValueLog(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Not a value log"));
+        }
+    }
+
+    public void testFoldReusesOffsets() throws IOException {
+        final File dir = FrontCodedIndexTest.tempDir();
+        final File file = new File(dir, "index");
+        final ValueLog log = new ValueLog(new File(dir, "values"));
+        final Shard shard = new Shard(TrieEngine.PATRICIA, false, Lsm.INDEX_MAPPED, file, log);
+        shard.put("a", "1");
+        shard.put("b", "2");
+        shard.put("c", "3");
+        assertTrue(shard.fold());
+        final FrontCodedIndex before = FrontCodedIndex.map(file, log);
+
+        // only the new value is appended, and the ones already in the log are pointed at where they were
+        shard.put("bb", "4");
+        final long size = log.size();
+        assertTrue(shard.fold());
+        assertEquals(size + 2, log.size());
+
+        final FrontCodedIndex after = FrontCodedIndex.map(file, log);
+        assertEquals(4, after.size());
+        assertEquals(before.valueOffsetAt(0), after.valueOffsetAt(0));
+        assertEquals(before.valueOffsetAt(1), after.valueOffsetAt(1));
+        assertEquals(before.valueOffsetAt(2), after.valueOffsetAt(3));
+        assertEquals("4", after.valueAt(2));
+
+        // a value that changes is appended again
+        shard.put("a", "5");
+        assertTrue(shard.fold());
+        final FrontCodedIndex changed = FrontCodedIndex.map(file, log);
+        assertFalse(before.valueOffsetAt(0) == changed.valueOffsetAt(0));
+        assertEquals("5", changed.valueAt(0));
+        assertEquals(before.valueOffsetAt(1), changed.valueOffsetAt(1));
+
+        // heap backed indexes have no offsets
+        final FrontCodedIndex.Builder builder = new FrontCodedIndex.Builder(1);
+        builder.add("a", "1");
+        assertEquals(-1, builder.build().valueOffsetAt(0));
+    }
+
+    private static String repeat(char c, int length) {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
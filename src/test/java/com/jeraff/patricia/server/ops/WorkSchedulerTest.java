@@ -0,0 +1,317 @@
+package com.jeraff.patricia.server.ops;
+
+import com.jeraff.patricia.conf.Scheduler;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the scheduler's limits through both of its modes. Virtual mode is given plain threads in place of virtual
+ * ones, so it's tried out whatever the runtime.
+ */
+public class WorkSchedulerTest extends TestCase {
+    private static final long WAIT_SECONDS = 10;
+    private static final int THREADS = 3;
+    private static final int QUOTA = 2;
+
+    public WorkSchedulerTest(String name) {
+        super(name);
+    }
+
+    public void testLanesKeepTheirShareWhileBootstrapsRun() throws Exception {
+        final Scheduler config = new Scheduler();
+        config.setThreads(2);
+        config.setQuota(1);
+        final WorkScheduler scheduler = new WorkScheduler(config);
+        final WorkScheduler.Lane loading = scheduler.lane("loading");
+        final WorkScheduler.Lane other = scheduler.lane("other");
+
+        // as many bootstraps as there are threads, none of which finish until the end
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch bootstrapping = new CountDownLatch(2);
+        for (WorkScheduler.Lane lane : new WorkScheduler.Lane[]{loading, other}) {
+            lane.executeLong(new Runnable() {
+                @Override
+                public void run() {
+                    bootstrapping.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        assertTrue(bootstrapping.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+        // both lanes' work, the loading one's included, still gets done meanwhile
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 10; i++) {
+            for (WorkScheduler.Lane lane : new WorkScheduler.Lane[]{loading, other}) {
+                lane.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, release.getCount());
+
+        awaitCompleted(loading, 10);
+        awaitCompleted(other, 10);
+        assertEquals(0, scheduler.getQueued());
+        assertTrue(scheduler.getStarted() <= 2);
+        release.countDown();
+    }
+
+    public void testPoolKeepsToItsLimits() throws Exception {
+        final WorkScheduler scheduler = newScheduler(null);
+        assertFalse(scheduler.isVirtual());
+        checkLimits(scheduler);
+        assertTrue(scheduler.getStarted() <= THREADS);
+    }
+
+    public void testVirtualModeKeepsToItsLimits() throws Exception {
+        final WorkScheduler scheduler = newScheduler(new RecordingThreadFactory());
+        assertTrue(scheduler.isVirtual());
+        checkLimits(scheduler);
+        assertEquals(10, scheduler.getStarted());
+    }
+
+    private static void checkLimits(final WorkScheduler scheduler) throws Exception {
+        final WorkScheduler.Lane a = scheduler.lane("a");
+        final WorkScheduler.Lane b = scheduler.lane("b");
+        final Blocker blocker = new Blocker();
+        for (int i = 0; i < 5; i++) {
+            a.execute(blocker.task(a));
+            b.execute(blocker.task(b));
+        }
+
+        // every thread busy, neither lane over its quota, and the rest waiting
+        await(THREADS, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return scheduler.getRunning();
+            }
+        });
+        Thread.sleep(50);
+        assertEquals(THREADS, scheduler.getRunning());
+        assertEquals(THREADS, blocker.running.get());
+        assertTrue(a.getRunning() <= QUOTA);
+        assertTrue(b.getRunning() <= QUOTA);
+        assertEquals(10 - THREADS, scheduler.getQueued());
+        assertEquals(10 - THREADS, a.getQueued() + b.getQueued());
+
+        blocker.release.countDown();
+        awaitCompleted(a, 5);
+        awaitCompleted(b, 5);
+        assertEquals(THREADS, blocker.maxRunning.get());
+        assertTrue(blocker.maxRunning(a) <= QUOTA);
+        assertTrue(blocker.maxRunning(b) <= QUOTA);
+        assertEquals(0, scheduler.getQueued());
+        assertEquals(0, scheduler.getRunning());
+        assertEquals(0, a.getFailed() + b.getFailed());
+    }
+
+    public void testInterruptedWhileWaitingForPermits() throws Exception {
+        final RecordingThreadFactory threads = new RecordingThreadFactory();
+        final WorkScheduler scheduler = newScheduler(threads);
+        final WorkScheduler.Lane a = scheduler.lane("a");
+        final WorkScheduler.Lane b = scheduler.lane("b");
+        final Blocker blocker = new Blocker();
+        final AtomicInteger ran = new AtomicInteger();
+        final Runnable never = new Runnable() {
+            @Override
+            public void run() {
+                ran.incrementAndGet();
+            }
+        };
+
+        // a has its quota running, so the next one waits for the lane's permit
+        a.execute(blocker.task(a));
+        a.execute(blocker.task(a));
+        awaitRunning(a, QUOTA);
+        a.execute(never);
+        assertEquals(1, a.getQueued());
+        interruptWhenBlocked(threads.last());
+        awaitFailed(a, 1);
+        assertEquals(0, a.getQueued());
+
+        // b gets its lane's permit but there's no thread to spare, so it waits for the scheduler's
+        b.execute(blocker.task(b));
+        awaitRunning(b, 1);
+        b.execute(never);
+        assertEquals(1, b.getQueued());
+        assertEquals(1, scheduler.getQueued());
+        interruptWhenBlocked(threads.last());
+        awaitFailed(b, 1);
+        assertEquals(0, scheduler.getQueued());
+        assertEquals(THREADS, scheduler.getRunning());
+
+        blocker.release.countDown();
+        awaitCompleted(a, 2);
+        awaitCompleted(b, 1);
+        assertEquals(0, ran.get());
+        assertEquals(3, a.getSubmitted());
+        assertEquals(2, b.getSubmitted());
+
+        // the permits the interrupted ones had taken were given back: b can have its whole quota again, and all the
+        // threads are there to be had
+        final Blocker again = new Blocker();
+        for (int i = 0; i < QUOTA; i++) {
+            b.execute(again.task(b));
+        }
+        awaitRunning(b, QUOTA);
+        for (int i = 0; i < QUOTA; i++) {
+            a.execute(again.task(a));
+        }
+        await(THREADS, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return scheduler.getRunning();
+            }
+        });
+        assertEquals(2 * QUOTA - THREADS, scheduler.getQueued());
+
+        again.release.countDown();
+        awaitCompleted(a, 2 + QUOTA);
+        awaitCompleted(b, 1 + QUOTA);
+        assertEquals(1, a.getFailed());
+        assertEquals(1, b.getFailed());
+    }
+
+    private static WorkScheduler newScheduler(ThreadFactory virtualThreads) {
+        final Scheduler config = new Scheduler();
+        config.setThreads(THREADS);
+        config.setQuota(QUOTA);
+        return new WorkScheduler(config, virtualThreads);
+    }
+
+    /** Interrupts the thread once it's parked waiting for a permit, rather than before it's got that far. */
+    private static void interruptWhenBlocked(final Thread thread) throws Exception {
+        await(Thread.State.WAITING, new Callable<Thread.State>() {
+            @Override
+            public Thread.State call() {
+                return thread.getState();
+            }
+        });
+        thread.interrupt();
+    }
+
+    /** Waits for the lane to count its tasks done, which it does just after they've run. */
+    private static void awaitCompleted(final WorkScheduler.Lane lane, long completed) throws Exception {
+        await(completed, new Callable<Long>() {
+            @Override
+            public Long call() {
+                return lane.getCompleted();
+            }
+        });
+    }
+
+    private static void awaitFailed(final WorkScheduler.Lane lane, long failed) throws Exception {
+        await(failed, new Callable<Long>() {
+            @Override
+            public Long call() {
+                return lane.getFailed();
+            }
+        });
+    }
+
+    private static void awaitRunning(final WorkScheduler.Lane lane, int running) throws Exception {
+        await(running, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return lane.getRunning();
+            }
+        });
+    }
+
+    private static <T> void await(T expected, Callable<T> actual) throws Exception {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(WAIT_SECONDS);
+        while (!expected.equals(actual.call()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, actual.call());
+    }
+
+    /** Hands out tasks that hold their thread until they're released, keeping count of how many run at once. */
+    private static class Blocker {
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final List<WorkScheduler.Lane> lanes = new ArrayList<WorkScheduler.Lane>();
+        private final List<AtomicInteger[]> counts = new ArrayList<AtomicInteger[]>();
+
+        synchronized Runnable task(WorkScheduler.Lane lane) {
+            final AtomicInteger[] lanes = counts(lane);
+            return new Runnable() {
+                @Override
+                public void run() {
+                    raise(running, maxRunning);
+                    raise(lanes[0], lanes[1]);
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        lanes[0].decrementAndGet();
+                        running.decrementAndGet();
+                    }
+                }
+            };
+        }
+
+        synchronized int maxRunning(WorkScheduler.Lane lane) {
+            return counts(lane)[1].get();
+        }
+
+        // called holding this; the lane's running and most running
+        private AtomicInteger[] counts(WorkScheduler.Lane lane) {
+            final int i = lanes.indexOf(lane);
+            if (i >= 0) {
+                return counts.get(i);
+            }
+            final AtomicInteger[] count = {new AtomicInteger(), new AtomicInteger()};
+            lanes.add(lane);
+            counts.add(count);
+            return count;
+        }
+
+        private static void raise(AtomicInteger count, AtomicInteger max) {
+            final int now = count.incrementAndGet();
+            while (true) {
+                final int was = max.get();
+                if (now <= was || max.compareAndSet(was, now)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Makes plain threads where virtual mode would make virtual ones, and keeps them so they can be interrupted. */
+    private static class RecordingThreadFactory implements ThreadFactory {
+        private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "WorkSchedulerTest.Virtual." + threads.size());
+            thread.setDaemon(true);
+            threads.add(thread);
+            return thread;
+        }
+
+        /** @return the thread made for the last task submitted */
+        Thread last() {
+            return threads.get(threads.size() - 1);
+        }
+    }
+}
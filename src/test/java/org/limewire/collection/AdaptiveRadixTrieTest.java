@@ -0,0 +1,111 @@
+package org.limewire.collection;
+
+
+import junit.framework.TestCase;
+import org.limewire.collection.Trie.Cursor;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+
+/**
+ * What's particular to the {@link AdaptiveRadixTrie}; the rest of the Trie contract is in {@link TrieConformanceTest}.
+ */
+public class AdaptiveRadixTrieTest extends TestCase {
+
+    public AdaptiveRadixTrieTest(String name) {
+        super(name);
+    }
+
+    public void testNodeGrowthAndShrink() {
+        // enough distinct bytes under one node to go through every node size and back down again
+        AdaptiveRadixTrie<String> trie = new AdaptiveRadixTrie<String>();
+        SortedMap<String, String> control = new TreeMap<String, String>();
+        for (int i = 0; i < 300; i++) {
+            String key = "k" + (char) i;
+            trie.put(key, key);
+            control.put(key, key);
+            assertEquals(control.size(), trie.size());
+        }
+        assertEquals(new ArrayList<String>(control.keySet()), new ArrayList<String>(trie.keySet()));
+
+        for (int i = 0; i < 300; i += 2) {
+            String key = "k" + (char) i;
+            assertEquals(key, trie.remove(key));
+            control.remove(key);
+        }
+        assertEquals(new ArrayList<String>(control.keySet()), new ArrayList<String>(trie.keySet()));
+        for (String key : control.keySet()) {
+            assertEquals(key, trie.get(key));
+        }
+        for (int i = 1; i < 300; i += 2) {
+            trie.remove("k" + (char) i);
+        }
+        assertTrue(trie.isEmpty());
+    }
+
+    public void testSameAsPatriciaTrie() {
+        Random random = new Random(2468);
+        for (int round = 0; round < 50; round++) {
+            AdaptiveRadixTrie<String> trie = new AdaptiveRadixTrie<String>();
+            PatriciaTrie<String, String> patricia
+                    = new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
+
+            for (int i = 0; i < 200; i++) {
+                String key = randomWideKey(random);
+                if (random.nextInt(4) == 0) {
+                    assertEquals(patricia.remove(key), trie.remove(key));
+                } else {
+                    assertEquals(patricia.put(key, key + i), trie.put(key, key + i));
+                }
+            }
+
+            assertEquals(patricia.size(), trie.size());
+            assertEquals(new ArrayList<String>(patricia.keySet()), new ArrayList<String>(trie.keySet()));
+            assertEquals(new ArrayList<String>(patricia.values()), new ArrayList<String>(trie.values()));
+
+            for (int i = 0; i < 20; i++) {
+                String key = randomWideKey(random);
+                assertEquals(patricia.get(key), trie.get(key));
+                assertEquals(patricia.indexOf(key), trie.indexOf(key));
+                assertEquals(patricia.select(key), trie.select(key));
+                assertEquals(selectOrder(patricia, key), selectOrder(trie, key));
+
+                String prefix = key.substring(0, 1 + random.nextInt(key.length()));
+                assertEquals(new ArrayList<String>(patricia.getPrefixedBy(prefix).keySet()),
+                        new ArrayList<String>(trie.getPrefixedBy(prefix).keySet()));
+                assertEquals(new ArrayList<String>(patricia.getPrefixedByBits(key, 16).keySet()),
+                        new ArrayList<String>(trie.getPrefixedByBits(key, 16).keySet()));
+                assertEquals(new ArrayList<String>(patricia.tailMap(key).keySet()),
+                        new ArrayList<String>(trie.tailMap(key).keySet()));
+                assertEquals(new ArrayList<String>(patricia.headMap(key).keySet()),
+                        new ArrayList<String>(trie.headMap(key).keySet()));
+            }
+
+            for (int i = 0; i < trie.size(); i++) {
+                assertEquals(patricia.getEntryAt(i).getKey(), trie.getEntryAt(i).getKey());
+            }
+        }
+    }
+
+    private static List<String> selectOrder(Trie<String, String> trie, String key) {
+        final List<String> keys = new ArrayList<String>();
+        trie.select(key, new Cursor<String, String>() {
+            public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                keys.add(entry.getKey());
+                return SelectStatus.CONTINUE;
+            }
+        });
+        return keys;
+    }
+
+    // spreads keys over both bytes of a char, so the ones in the high byte get nodes of their own too
+    private static String randomWideKey(Random random) {
+        int length = 1 + random.nextInt(4);
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            key.append((char) ((random.nextInt(3) << 8) | ('a' + random.nextInt(3))));
+        }
+        return key.toString();
+    }
+}
@@ -995,6 +995,406 @@ public class PatriciaTrieTest extends TestCase {
         assertEquals(1, strings.size());
     }
     
+    public void testPutIfAbsent() {
+        PatriciaTrie<String, String> trie 
+            = new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
+        
+        assertNull(trie.putIfAbsent("Lime", "Lime"));
+        assertEquals("Lime", trie.putIfAbsent("Lime", "LimeWire"));
+        assertEquals("Lime", trie.get("Lime"));
+        assertEquals(1, trie.size());
+        
+        // the root is a special case for both the empty and the all zero bit key
+        assertNull(trie.putIfAbsent("", "Empty"));
+        assertEquals("Empty", trie.putIfAbsent("", "NotEmpty"));
+        assertEquals(2, trie.size());
+        
+        trie.put("Lax", null);
+        assertNull(trie.putIfAbsent("Lax", "Lax"));
+        assertEquals("Lax", trie.get("Lax"));
+        assertEquals(3, trie.size());
+    }
+    
+    public void testCompute() {
+        PatriciaTrie<String, String> trie 
+            = new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
+        final Trie.Remapper<String, String> append = new Trie.Remapper<String, String>() {
+            public String remap(String key, String existing) {
+                return existing == null ? key : existing + key;
+            }
+        };
+        final Trie.Remapper<String, String> delete = new Trie.Remapper<String, String>() {
+            public String remap(String key, String existing) {
+                return null;
+            }
+        };
+        
+        String[] keys = { "Lime", "LimeWire", "LimeRadio", "Lax", "Later", "Lake", "Lovely", "" };
+        for (String key : keys) {
+            assertEquals(key, trie.computeEntry(key, append));
+        }
+        assertEquals(keys.length, trie.size());
+        
+        for (String key : keys) {
+            assertEquals(key + key, trie.computeEntry(key, append));
+            assertEquals(key + key, trie.get(key));
+        }
+        assertEquals(keys.length, trie.size());
+        
+        assertNull(trie.computeEntry("Lime", delete));
+        assertFalse(trie.containsKey("Lime"));
+        assertNull(trie.computeEntry("Lime", delete));
+        assertEquals(keys.length - 1, trie.size());
+        
+        SortedMap<String, String> prefixed = trie.getPrefixedBy("Lime");
+        assertEquals(2, prefixed.size());
+        assertEquals("LimeRadio", prefixed.firstKey());
+        assertEquals("LimeWire", prefixed.lastKey());
+        
+        // Handing back the existing value doesn't count as a modification
+        Iterator<String> iter = trie.keySet().iterator();
+        trie.computeEntry("Lax", new Trie.Remapper<String, String>() {
+            public String remap(String key, String existing) {
+                return existing;
+            }
+        });
+        iter.next();
+        
+        trie.computeEntry("Lax", append);
+        try {
+            iter.next();
+            fail("should have thrown CME");
+        } catch(ConcurrentModificationException expected) {}
+    }
+    
+    public void testMerge() {
+        PatriciaTrie<String, String> trie 
+            = new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
+        final Trie.Merger<String> shortest = new Trie.Merger<String>() {
+            public String merge(String existing, String value) {
+                return value.length() < existing.length() ? value : existing;
+            }
+        };
+        
+        assertEquals("Lovely Day", trie.mergeEntry("Lo", "Lovely Day", shortest));
+        assertEquals("Lovely", trie.mergeEntry("Lo", "Lovely", shortest));
+        assertEquals("Lovely", trie.mergeEntry("Lo", "Lovelier", shortest));
+        assertEquals("Lovely", trie.get("Lo"));
+        assertEquals(1, trie.size());
+        
+        assertNull(trie.mergeEntry("Lo", "Lo", new Trie.Merger<String>() {
+            public String merge(String existing, String value) {
+                return null;
+            }
+        }));
+        assertTrue(trie.isEmpty());
+    }
+    
+    public void testPositionsAndCounts() {
+        PatriciaTrie<String, String> trie 
+            = new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
+        Random random = new Random(1234);
+        
+        trie.put("", "");
+        for (int i = 0; i < 2000; i++) {
+            String key = randomKey(random);
+            trie.put(key, key);
+        }
+        assertCounts(trie);
+        
+        // removing exercises both the internal and external cases
+        List<String> keys = new ArrayList<String>(trie.keySet());
+        Collections.shuffle(keys, random);
+        for (String key : keys.subList(0, keys.size() / 2)) {
+            trie.remove(key);
+        }
+        assertCounts(trie);
+        
+        trie.remove("");
+        assertCounts(trie);
+        
+        for (String key : keys.subList(keys.size() / 2, keys.size())) {
+            trie.remove(key);
+        }
+        assertTrue(trie.isEmpty());
+        assertEquals(-1, trie.indexOf("a"));
+        try {
+            trie.getEntryAt(0);
+            fail("should have thrown IOOBE");
+        } catch(IndexOutOfBoundsException expected) {}
+    }
+    
+    public void testTraversePrefix() {
+        PatriciaTrie<String, String> trie 
+            = new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
+        Random random = new Random(4321);
+        
+        trie.put("", "");
+        for (int i = 0; i < 1000; i++) {
+            String key = randomKey(random);
+            trie.put(key, key);
+        }
+        
+        Set<String> prefixes = new TreeSet<String>();
+        for (String key : trie.keySet()) {
+            for (int i = 0; i <= key.length(); i++) {
+                prefixes.add(key.substring(0, i));
+            }
+        }
+        prefixes.add("zz");
+        
+        for (String prefix : prefixes) {
+            final List<String> visited = new ArrayList<String>();
+            assertNull(trie.traversePrefix(prefix, new Cursor<String, String>() {
+                public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                    visited.add(entry.getKey());
+                    return SelectStatus.CONTINUE;
+                }
+            }));
+            assertEquals(prefix, new ArrayList<String>(trie.getPrefixedBy(prefix).keySet()), visited);
+            
+            if (visited.size() > 1) {
+                final String stop = visited.get(visited.size() / 2);
+                Entry<String, String> exited = trie.traversePrefix(prefix, new Cursor<String, String>() {
+                    public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                        return entry.getKey().equals(stop) ? SelectStatus.EXIT : SelectStatus.CONTINUE;
+                    }
+                });
+                assertEquals(stop, exited.getKey());
+            }
+        }
+        
+        // remove every other key under a few prefixes, including ones
+        // whose subtree entry is the first thing removed
+        for (String prefix : new String[] { "ab", "c", "dd", "a", "" }) {
+            List<String> before = new ArrayList<String>(trie.getPrefixedBy(prefix).keySet());
+            final boolean[] odd = new boolean[1];
+            final List<String> seen = new ArrayList<String>();
+            final List<String> removed = new ArrayList<String>();
+            trie.traversePrefix(prefix, new Cursor<String, String>() {
+                public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                    seen.add(entry.getKey());
+                    odd[0] = !odd[0];
+                    if (odd[0]) {
+                        removed.add(entry.getKey());
+                        return SelectStatus.REMOVE;
+                    }
+                    return SelectStatus.CONTINUE;
+                }
+            });
+            
+            assertEquals(prefix, before, seen);
+            before.removeAll(removed);
+            assertEquals(prefix, before, new ArrayList<String>(trie.getPrefixedBy(prefix).keySet()));
+            for (String key : removed) {
+                assertFalse(trie.containsKey(key));
+            }
+        }
+        
+        Entry<String, String> last = trie.traversePrefix("b", new Cursor<String, String>() {
+            public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                return SelectStatus.REMOVE_AND_EXIT;
+            }
+        });
+        assertFalse(trie.containsKey(last.getKey()));
+        assertTrue(last.getKey().startsWith("b"));
+    }
+    
+    public void testPartition() throws Exception {
+        final PatriciaTrie<String, String> trie 
+            = new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
+        Random random = new Random(5678);
+        
+        assertTrue(trie.partition(null, 4).isEmpty());
+        
+        trie.put("", "");
+        for (int i = 0; i < 1500; i++) {
+            String key = randomKey(random);
+            trie.put(key, key);
+        }
+        
+        for (String prefix : new String[] { null, "", "a", "ab", "abc", "dddd", "b", "zz" }) {
+            List<String> expected = new ArrayList<String>(
+                    prefix == null ? trie.keySet() : trie.getPrefixedBy(prefix).keySet());
+            
+            for (int parts = 1; parts <= 9; parts++) {
+                List<SortedMap<String, String>> views = trie.partition(prefix, parts);
+                assertEquals(prefix, Math.min(parts, expected.size()), views.size());
+                
+                List<String> joined = new ArrayList<String>();
+                for (SortedMap<String, String> view : views) {
+                    assertFalse(view.isEmpty());
+                    assertTrue(Math.abs(view.size() - expected.size() / views.size()) <= 1);
+                    joined.addAll(view.keySet());
+                }
+                assertEquals(prefix, expected, joined);
+            }
+        }
+        
+        try {
+            trie.partition("a", 0);
+            fail("should have thrown IAE");
+        } catch(IllegalArgumentException expected) {}
+        
+        // each view can be walked on its own thread
+        List<SortedMap<String, String>> views = trie.partition(null, 4);
+        final int[] counts = new int[views.size()];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < views.size(); i++) {
+            final int part = i;
+            final SortedMap<String, String> view = views.get(i);
+            threads.add(new Thread() {
+                public void run() {
+                    for (String key : view.keySet()) {
+                        if (trie.containsKey(key))
+                            counts[part]++;
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        int total = 0;
+        for (int i = 0; i < threads.size(); i++) {
+            threads.get(i).join();
+            total += counts[i];
+        }
+        assertEquals(trie.size(), total);
+    }
+    
+    public void testRemovePrefix() {
+        PatriciaTrie<String, String> trie 
+            = new PatriciaTrie<String, String>(new CharSequenceKeyAnalyzer());
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        Random random = new Random(8765);
+        
+        assertEquals(0, trie.removePrefix("a"));
+        
+        for (int round = 0; round < 40; round++) {
+            if (round % 10 == 0) {
+                trie.put("", "");
+                expected.put("", "");
+            }
+            for (int i = 0; i < 300; i++) {
+                String key = randomKey(random);
+                trie.put(key, key);
+                expected.put(key, key);
+            }
+            
+            String prefix = randomKey(random);
+            prefix = prefix.substring(0, 1 + random.nextInt(Math.min(3, prefix.length())));
+            
+            int count = 0;
+            for (Iterator<String> i = expected.keySet().iterator(); i.hasNext(); ) {
+                if (i.next().startsWith(prefix)) {
+                    i.remove();
+                    count++;
+                }
+            }
+            
+            assertEquals(prefix, count, trie.removePrefix(prefix));
+            assertEquals(prefix, expected.size(), trie.size());
+            assertEquals(prefix, new ArrayList<String>(expected.keySet()), new ArrayList<String>(trie.keySet()));
+            assertTrue(trie.getPrefixedBy(prefix).isEmpty());
+            for (String key : expected.keySet()) {
+                assertEquals(key, trie.get(key));
+            }
+            assertCounts(trie);
+        }
+        
+        // a single matching key, and one that's the root
+        trie.put("zzz", "zzz");
+        assertEquals(1, trie.removePrefix("zz"));
+        assertFalse(trie.containsKey("zzz"));
+        
+        int size = trie.size();
+        assertEquals(size, trie.removePrefix(""));
+        assertTrue(trie.isEmpty());
+        trie.put("a", "a");
+        assertEquals("a", trie.get("a"));
+    }
+    
+    private static String randomKey(Random random) {
+        int length = 1 + random.nextInt(6);
+        StringBuilder buffer = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            buffer.append((char)('a' + random.nextInt(4)));
+        }
+        return buffer.toString();
+    }
+    
+    private static void assertCounts(PatriciaTrie<String, String> trie) {
+        List<String> keys = new ArrayList<String>(trie.keySet());
+        assertEquals(trie.size(), keys.size());
+        
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, trie.indexOf(keys.get(i)));
+            assertEquals(keys.get(i), trie.getEntryAt(i).getKey());
+        }
+        
+        Set<String> prefixes = new TreeSet<String>();
+        for (String key : keys) {
+            for (int i = 0; i <= key.length(); i++) {
+                prefixes.add(key.substring(0, i));
+            }
+        }
+        prefixes.add("zz");
+        
+        // absent keys must come back as their insertion point
+        Random random = new Random(keys.size());
+        for (int i = 0; i < 500; i++) {
+            String probe = randomKey(random) + (i % 2 == 0 ? "e" : "");
+            int insertion = 0;
+            while (insertion < keys.size() && keys.get(insertion).compareTo(probe) < 0)
+                insertion++;
+            
+            if (keys.contains(probe)) {
+                assertEquals(probe, insertion, trie.indexOf(probe));
+            } else {
+                assertEquals(probe, -insertion - 1, trie.indexOf(probe));
+            }
+            
+            SortedMap<String, String> tail = trie.tailMap(probe);
+            assertEquals(probe, keys.size() - insertion, tail.size());
+            if (insertion < keys.size())
+                assertEquals(probe, keys.get(insertion), tail.firstKey());
+            
+            SortedMap<String, String> head = trie.headMap(probe);
+            assertEquals(probe, insertion, head.size());
+            if (insertion > 0)
+                assertEquals(probe, keys.get(insertion - 1), head.lastKey());
+        }
+        
+        for (String prefix : prefixes) {
+            int count = 0;
+            String first = null;
+            String last = null;
+            for (String key : keys) {
+                if (key.startsWith(prefix)) {
+                    if (first == null)
+                        first = key;
+                    last = key;
+                    count++;
+                }
+            }
+            
+            SortedMap<String, String> prefixed = trie.getPrefixedBy(prefix);
+            assertEquals(prefix, count, prefixed.size());
+            if (count > 0) {
+                assertEquals(prefix, first, prefixed.firstKey());
+                assertEquals(prefix, last, prefixed.lastKey());
+            }
+            
+            // '~' sorts after all the generated characters, so it's never in the Trie
+            int from = trie.indexOf(prefix);
+            if (from < 0)
+                from = -from - 1;
+            int to = -trie.indexOf(prefix + "~") - 1;
+            assertEquals(prefix, count, to - from);
+            assertEquals(prefix, count, trie.subMap(prefix, prefix + "~").size());
+        }
+    }
+    
     private static class TestCursor implements Cursor<Object, Object> {
         private List<Object> keys;
         private List<Object> values;
@@ -0,0 +1,171 @@
+package org.limewire.collection;
+
+import com.jeraff.patricia.server.analyzer.PartialMatchAnalyzer;
+import com.jeraff.patricia.server.ops.TrieEngine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * Head to head numbers for the built in {@link TrieEngine}s on the bundled corpora: hamlet.txt from the test resources and
+ * everything under etc/data, keyed the way a core would key them with the {@link PartialMatchAnalyzer}.
+ * <p>
+ * Run it from the project root with the test classpath, optionally passing other files or directories to load:
+ * <pre>
+ * java -cp target/test-classes:target/classes:... org.limewire.collection.TrieBenchmark [path...]
+ * </pre>
+ * Each engine is warmed up for a few rounds before the measured one, so the numbers are steady state rather than
+ * interpreted code.
+ */
+public class TrieBenchmark {
+    private static final int WARMUP = 5;
+    private static final int PREFIXES = 20000;
+
+    public static void main(String[] args) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        if (args.length == 0) {
+            read(ClassLoader.getSystemResourceAsStream("org/limewire/collection/hamlet.txt"), lines);
+            load(new File("etc/data"), lines);
+        } else {
+            for (String arg : args) {
+                load(new File(arg), lines);
+            }
+        }
+
+        final PartialMatchAnalyzer analyzer = new PartialMatchAnalyzer();
+        final List<Entry<String, String>> entries = new ArrayList<Entry<String, String>>();
+        for (String line : lines) {
+            entries.addAll(analyzer.getIndexEntry(line));
+        }
+
+        final List<String> keys = new ArrayList<String>(entries.size());
+        for (Entry<String, String> entry : entries) {
+            keys.add(entry.getKey());
+        }
+
+        final Random random = new Random(42);
+        final List<String> prefixes = new ArrayList<String>(PREFIXES);
+        for (int i = 0; i < PREFIXES; i++) {
+            final String key = keys.get(random.nextInt(keys.size()));
+            prefixes.add(key.substring(0, Math.min(key.length(), 1 + random.nextInt(4))));
+        }
+
+        System.out.println(lines.size() + " lines, " + entries.size() + " index entries");
+        System.out.println(String.format("%-18s %10s %10s %12s %14s %10s %10s",
+                "engine", "put ns/op", "get ns/op", "prefix ns/op", "traverse ns/op", "iter ns/op", "heap KB"));
+
+        for (TrieEngine engine : TrieEngine.BUILT_IN) {
+            for (int i = 0; i < WARMUP; i++) {
+                run(engine, entries, keys, prefixes, false);
+            }
+            run(engine, entries, keys, prefixes, true);
+        }
+    }
+
+    private static void run(TrieEngine engine, List<Entry<String, String>> entries, List<String> keys,
+                            List<String> prefixes, boolean report) {
+        final long before = usedHeap();
+
+        long start = System.nanoTime();
+        final Trie<String, String> trie = engine.newTrie();
+        for (Entry<String, String> entry : entries) {
+            trie.put(entry.getKey(), entry.getValue());
+        }
+        final long put = System.nanoTime() - start;
+
+        final long heap = usedHeap() - before;
+
+        int found = 0;
+        start = System.nanoTime();
+        for (String key : keys) {
+            if (trie.get(key) != null) {
+                found++;
+            }
+        }
+        final long get = System.nanoTime() - start;
+
+        // what a prefix search does: the first few matches through the sorted view
+        start = System.nanoTime();
+        for (String prefix : prefixes) {
+            final Iterator<String> iterator = trie.getPrefixedBy(prefix).keySet().iterator();
+            for (int i = 0; i < 10 && iterator.hasNext(); i++) {
+                found += iterator.next().length();
+            }
+        }
+        final long prefix = System.nanoTime() - start;
+
+        final int[] counter = new int[1];
+        start = System.nanoTime();
+        for (String p : prefixes) {
+            trie.traversePrefix(p, new Trie.Cursor<String, String>() {
+                public SelectStatus select(Map.Entry<? extends String, ? extends String> entry) {
+                    return (++counter[0] % 10 == 0) ? SelectStatus.EXIT : SelectStatus.CONTINUE;
+                }
+            });
+        }
+        final long traverse = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (Entry<String, String> entry : trie.entrySet()) {
+            found += entry.getKey().length();
+        }
+        final long iterate = System.nanoTime() - start;
+
+        if (report) {
+            System.out.println(String.format("%-18s %10d %10d %12d %14d %10d %10d",
+                    engine.getName(), put / entries.size(), get / keys.size(), prefix / prefixes.size(),
+                    traverse / prefixes.size(), iterate / trie.size(), heap / 1024));
+        }
+
+        if (found + counter[0] == 42) {
+            // keeps the loops above from being optimized away
+            System.out.println();
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void load(File file, List<String> lines) throws IOException {
+        if (file.isDirectory()) {
+            final File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) {
+                    load(child, lines);
+                }
+            }
+        } else {
+            read(new FileInputStream(file), lines);
+        }
+    }
+
+    private static void read(InputStream in, List<String> lines) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,935 @@
+package org.limewire.collection;
+
+import com.jeraff.patricia.server.ops.TrieEngine;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.limewire.collection.Trie.Cursor;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.*;
+import java.util.Map.Entry;
+
+import static org.junit.Assert.*;
+
+/**
+ * The String keyed tests from {@link PatriciaTrieTest}, run against every {@link TrieEngine}: the built in ones, and
+ * any others named, comma separated, in the {@code patricia.engines} system property. An engine a core can be
+ * configured with has to pass all of them.
+ */
+@RunWith(Parameterized.class)
+public class TrieConformanceTest {
+    private final TrieEngine engine;
+
+    public TrieConformanceTest(TrieEngine engine) {
+        this.engine = engine;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> engines() {
+        final List<Object[]> engines = new ArrayList<Object[]>();
+        for (TrieEngine engine : TrieEngine.BUILT_IN) {
+            engines.add(new Object[]{engine});
+        }
+
+        final String others = System.getProperty("patricia.engines");
+        if (others != null) {
+            for (String name : others.split(",")) {
+                if (name.trim().length() > 0) {
+                    engines.add(new Object[]{TrieEngine.forName(name.trim())});
+                }
+            }
+        }
+        return engines;
+    }
+
+    @Test
+    public void testHamlet() throws Exception {
+        // Make sure that Hamlet is read & stored in the same order as a SortedSet.
+        List<String> original = new ArrayList<String>();
+        List<String> control = new ArrayList<String>();
+        SortedMap<String, String> sortedControl = new TreeMap<String, String>();
+        Trie<String, String> trie = engine.newTrie();
+        
+        InputStream hamlet = ClassLoader.getSystemResource("org/limewire/collection/hamlet.txt").openStream();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(hamlet));
+        String read = null;
+        while( (read = reader.readLine()) != null) {
+            StringTokenizer st = new StringTokenizer(read);
+            while(st.hasMoreTokens()) {
+                String token = st.nextToken();
+                original.add(token);
+                sortedControl.put(token, token);
+                trie.put(token, token);
+            }
+        }
+        control.addAll(sortedControl.values());
+
+        assertEquals(control.size(), sortedControl.size());
+        assertEquals(sortedControl.size(), trie.size());
+        Iterator<String> iter = trie.values().iterator();
+        for(int i = 0; i < control.size(); i++) {
+            assertEquals(control.get(i), iter.next());
+        }
+        
+        Random rnd = new Random();
+        int item = 0;
+        iter = trie.values().iterator();
+        int removed = 0;
+        for(; item < control.size(); item++) {
+            assertEquals(control.get(item), iter.next());
+            if(rnd.nextBoolean()) {
+                iter.remove();
+                removed++;
+            }
+        }
+        
+        assertEquals(control.size(), item);
+        assertTrue(removed > 0);
+        assertEquals(control.size(), trie.size() + removed);
+        
+        // reset hamlet
+        trie.clear();
+        for(int i = 0; i < original.size(); i++) 
+            trie.put(original.get(i), original.get(i));
+        
+        assertEquals(Arrays.asList(sortedControl.values().toArray()), Arrays.asList(trie.values().toArray()));
+        assertEquals(Arrays.asList(sortedControl.keySet().toArray()), Arrays.asList(trie.keySet().toArray()));
+        assertEquals(Arrays.asList(sortedControl.entrySet().toArray()), Arrays.asList(trie.entrySet().toArray()));
+        
+        assertEquals(sortedControl.firstKey(), trie.firstKey());
+        assertEquals(sortedControl.lastKey(), trie.lastKey());
+        
+        SortedMap<String, String> sub = trie.headMap(control.get(523));
+        assertEquals(523, sub.size());
+        for(int i = 0; i < control.size(); i++) {
+            if(i < 523)
+                assertTrue(sub.containsKey(control.get(i)));
+            else
+                assertFalse(sub.containsKey(control.get(i)));
+        }
+        // Too slow to check values on all, so just do a few.
+        assertTrue(sub.containsValue(control.get(522)));
+        assertFalse(sub.containsValue(control.get(523)));
+        assertFalse(sub.containsValue(control.get(524)));
+        
+        try {
+            sub.headMap(control.get(524));
+            fail("should have thrown IAE");
+        } catch(IllegalArgumentException expected) {}
+        
+        assertEquals(sub.lastKey(), control.get(522));
+        assertEquals(sub.firstKey(), control.get(0));
+        
+        sub = sub.tailMap(control.get(234));
+        assertEquals(289, sub.size());
+        assertEquals(control.get(234), sub.firstKey());
+        assertEquals(control.get(522), sub.lastKey());
+        for(int i = 0; i < control.size(); i++) {
+            if(i < 523 && i > 233)
+                assertTrue(sub.containsKey(control.get(i)));
+            else
+                assertFalse(sub.containsKey(control.get(i)));
+        }
+
+        try {
+            sub.tailMap(control.get(232));
+            fail("should have thrown IAE");
+        } catch(IllegalArgumentException expected) {}
+        
+        sub = sub.subMap(control.get(300), control.get(400));
+        assertEquals(100, sub.size());
+        assertEquals(control.get(300), sub.firstKey());
+        assertEquals(control.get(399), sub.lastKey());
+        
+        for(int i = 0; i < control.size(); i++) {
+            if(i < 400 && i > 299)
+                assertTrue(sub.containsKey(control.get(i)));
+            else
+                assertFalse(sub.containsKey(control.get(i)));
+        }
+    }
+    
+    @Test
+    public void testPrefixedBy() {
+        Trie<String, String> trie = engine.newTrie();
+        
+        final String[] keys = new String[]{
+                "", 
+                "Albert", "Xavier", "XyZ", "Anna", "Alien", "Alberto",
+                "Alberts", "Allie", "Alliese", "Alabama", "Banane",
+                "Blabla", "Amber", "Ammun", "Akka", "Akko", "Albertoo",
+                "Amma"
+        };
+
+        for (String key : keys) {
+            trie.put(key, key);
+        }
+        
+        SortedMap<String, String> map;
+        Iterator<String> iterator;
+        Iterator<Map.Entry<String, String>> entryIterator;
+        Map.Entry<String, String> entry;
+        
+        map = trie.getPrefixedBy("Al");
+        assertEquals(8, map.size());
+        assertEquals("Alabama", map.firstKey());
+        assertEquals("Alliese", map.lastKey());
+        assertEquals("Albertoo", map.get("Albertoo"));
+        assertNotNull(trie.get("Xavier"));
+        assertNull(map.get("Xavier"));
+        assertNull(trie.get("Alice"));
+        assertNull(map.get("Alice"));
+        iterator = map.values().iterator();
+        assertEquals("Alabama", iterator.next());
+        assertEquals("Albert", iterator.next());
+        assertEquals("Alberto", iterator.next());
+        assertEquals("Albertoo", iterator.next());
+        assertEquals("Alberts", iterator.next());
+        assertEquals("Alien", iterator.next());
+        assertEquals("Allie", iterator.next());
+        assertEquals("Alliese", iterator.next());
+        assertFalse(iterator.hasNext());
+        
+        map = trie.getPrefixedBy("Albert");
+        iterator = map.keySet().iterator();
+        assertEquals("Albert", iterator.next());
+        assertEquals("Alberto", iterator.next());
+        assertEquals("Albertoo", iterator.next());
+        assertEquals("Alberts", iterator.next());
+        assertFalse(iterator.hasNext());
+        assertEquals(4, map.size());
+        assertEquals("Albert", map.firstKey());
+        assertEquals("Alberts", map.lastKey());
+        assertNull(trie.get("Albertz"));
+        map.put("Albertz", "Albertz");
+        assertEquals("Albertz", trie.get("Albertz"));
+        assertEquals(5, map.size());
+        assertEquals("Albertz", map.lastKey());
+        iterator = map.keySet().iterator();
+        assertEquals("Albert", iterator.next());
+        assertEquals("Alberto", iterator.next());
+        assertEquals("Albertoo", iterator.next());
+        assertEquals("Alberts", iterator.next());
+        assertEquals("Albertz", iterator.next());
+        assertFalse(iterator.hasNext());
+        assertEquals("Albertz", map.remove("Albertz"));
+        
+        map = trie.getPrefixedBy("Alberto");
+        assertEquals(2, map.size());
+        assertEquals("Alberto", map.firstKey());
+        assertEquals("Albertoo", map.lastKey());
+        entryIterator = map.entrySet().iterator();
+        entry = entryIterator.next();
+        assertEquals("Alberto", entry.getKey());
+        assertEquals("Alberto", entry.getValue());
+        entry = entryIterator.next();
+        assertEquals("Albertoo", entry.getKey());
+        assertEquals("Albertoo", entry.getValue());
+        assertFalse(entryIterator.hasNext());
+        trie.put("Albertoad", "Albertoad");
+        assertEquals(3, map.size());
+        assertEquals("Alberto", map.firstKey());
+        assertEquals("Albertoo", map.lastKey());
+        entryIterator = map.entrySet().iterator();
+        entry = entryIterator.next();
+        assertEquals("Alberto", entry.getKey());
+        assertEquals("Alberto", entry.getValue());
+        entry = entryIterator.next();
+        assertEquals("Albertoad", entry.getKey());
+        assertEquals("Albertoad", entry.getValue());
+        entry = entryIterator.next();
+        assertEquals("Albertoo", entry.getKey());
+        assertEquals("Albertoo", entry.getValue());
+        assertFalse(entryIterator.hasNext());
+        assertEquals("Albertoo", trie.remove("Albertoo"));
+        assertEquals("Alberto", map.firstKey());
+        assertEquals("Albertoad", map.lastKey());
+        assertEquals(2, map.size());
+        entryIterator = map.entrySet().iterator();
+        entry = entryIterator.next();
+        assertEquals("Alberto", entry.getKey());
+        assertEquals("Alberto", entry.getValue());
+        entry = entryIterator.next();
+        assertEquals("Albertoad", entry.getKey());
+        assertEquals("Albertoad", entry.getValue());
+        assertFalse(entryIterator.hasNext());
+        assertEquals("Albertoad", trie.remove("Albertoad"));
+        trie.put("Albertoo", "Albertoo");
+        
+        map = trie.getPrefixedBy("X");
+        assertEquals(2, map.size());
+        assertFalse(map.containsKey("Albert"));
+        assertTrue(map.containsKey("Xavier"));
+        assertFalse(map.containsKey("Xalan"));
+        iterator = map.values().iterator();
+        assertEquals("Xavier", iterator.next());
+        assertEquals("XyZ", iterator.next());
+        assertFalse(iterator.hasNext());
+        
+        map = trie.getPrefixedBy("An");
+        assertEquals(1, map.size());
+        assertEquals("Anna", map.firstKey());
+        assertEquals("Anna", map.lastKey());
+        iterator = map.keySet().iterator();
+        assertEquals("Anna", iterator.next());
+        assertFalse(iterator.hasNext());
+        
+        map = trie.getPrefixedBy("Ban");
+        assertEquals(1, map.size());
+        assertEquals("Banane", map.firstKey());
+        assertEquals("Banane", map.lastKey());
+        iterator = map.keySet().iterator();
+        assertEquals("Banane", iterator.next());
+        assertFalse(iterator.hasNext());
+        
+        map = trie.getPrefixedBy("Am");
+        assertFalse(map.isEmpty());
+        assertEquals(3, map.size());
+        assertEquals("Amber", trie.remove("Amber"));
+        iterator = map.keySet().iterator();
+        assertEquals("Amma", iterator.next());
+        assertEquals("Ammun", iterator.next());
+        assertFalse(iterator.hasNext());
+        iterator = map.keySet().iterator();
+        map.put("Amber", "Amber");
+        assertEquals(3, map.size());
+        try {
+            iterator.next();
+            fail("CME expected");
+        } catch(ConcurrentModificationException expected) {}
+        assertEquals("Amber", map.firstKey());
+        assertEquals("Ammun", map.lastKey());
+        
+        map = trie.getPrefixedBy("Ak\0");
+        assertTrue(map.isEmpty());
+        
+        map = trie.getPrefixedBy("Ak");
+        assertEquals(2, map.size());
+        assertEquals("Akka", map.firstKey());
+        assertEquals("Akko", map.lastKey());
+        map.put("Ak", "Ak");
+        assertEquals("Ak", map.firstKey());
+        assertEquals("Akko", map.lastKey());
+        assertEquals(3, map.size());
+        trie.put("Al", "Al");
+        assertEquals(3, map.size());
+        assertEquals("Ak", map.remove("Ak"));
+        assertEquals("Akka", map.firstKey());
+        assertEquals("Akko", map.lastKey());
+        assertEquals(2, map.size());
+        iterator = map.keySet().iterator();
+        assertEquals("Akka", iterator.next());
+        assertEquals("Akko", iterator.next());
+        assertFalse(iterator.hasNext());
+        assertEquals("Al", trie.remove("Al"));
+        
+        map = trie.getPrefixedBy("Akka");
+        assertEquals(1, map.size());
+        assertEquals("Akka", map.firstKey());
+        assertEquals("Akka", map.lastKey());
+        iterator = map.keySet().iterator();
+        assertEquals("Akka", iterator.next());
+        assertFalse(iterator.hasNext());
+        
+        map = trie.getPrefixedBy("Ab");
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        try {
+            Object o = map.firstKey();
+            fail("got a first key: " + o);
+        } catch(NoSuchElementException nsee) {}
+        try {
+            Object o = map.lastKey();
+            fail("got a last key: " + o);
+        } catch(NoSuchElementException nsee) {}
+        iterator = map.values().iterator();
+        assertFalse(iterator.hasNext());
+        
+        map = trie.getPrefixedBy("Albertooo");
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        try {
+            Object o = map.firstKey();
+            fail("got a first key: " + o);
+        } catch(NoSuchElementException nsee) {}
+        try {
+            Object o = map.lastKey();
+            fail("got a last key: " + o);
+        } catch(NoSuchElementException nsee) {}
+        iterator = map.values().iterator();
+        assertFalse(iterator.hasNext());
+        
+        map = trie.getPrefixedBy("");
+        assertSame(trie, map);
+        
+        map = trie.getPrefixedBy("\0");
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        try {
+            Object o = map.firstKey();
+            fail("got a first key: " + o);
+        } catch(NoSuchElementException nsee) {}
+        try {
+            Object o = map.lastKey();
+            fail("got a last key: " + o);
+        } catch(NoSuchElementException nsee) {}
+        iterator = map.values().iterator();
+        assertFalse(iterator.hasNext());
+    }
+    
+    @Test
+    public void testPrefixByOffsetAndLength() {
+        Trie<String, String> trie = engine.newTrie();
+        
+        final String[] keys = new String[]{
+                "Albert", "Xavier", "XyZ", "Anna", "Alien", "Alberto",
+                "Alberts", "Allie", "Alliese", "Alabama", "Banane",
+                "Blabla", "Amber", "Ammun", "Akka", "Akko", "Albertoo",
+                "Amma"
+        };
+    
+        for (String key : keys) {
+            trie.put(key, key);
+        }
+        
+        SortedMap<String, String> map;
+        Iterator<String> iterator;
+        
+        map = trie.getPrefixedBy("Alice", 2);
+        assertEquals(8, map.size());
+        assertEquals("Alabama", map.firstKey());
+        assertEquals("Alliese", map.lastKey());
+        assertEquals("Albertoo", map.get("Albertoo"));
+        assertNotNull(trie.get("Xavier"));
+        assertNull(map.get("Xavier"));
+        assertNull(trie.get("Alice"));
+        assertNull(map.get("Alice"));
+        iterator = map.values().iterator();
+        assertEquals("Alabama", iterator.next());
+        assertEquals("Albert", iterator.next());
+        assertEquals("Alberto", iterator.next());
+        assertEquals("Albertoo", iterator.next());
+        assertEquals("Alberts", iterator.next());
+        assertEquals("Alien", iterator.next());
+        assertEquals("Allie", iterator.next());
+        assertEquals("Alliese", iterator.next());
+        assertFalse(iterator.hasNext());
+        
+        map = trie.getPrefixedBy("BAlice", 1, 2);
+        assertEquals(8, map.size());
+        assertEquals("Alabama", map.firstKey());
+        assertEquals("Alliese", map.lastKey());
+        assertEquals("Albertoo", map.get("Albertoo"));
+        assertNotNull(trie.get("Xavier"));
+        assertNull(map.get("Xavier"));
+        assertNull(trie.get("Alice"));
+        assertNull(map.get("Alice"));
+        iterator = map.values().iterator();
+        assertEquals("Alabama", iterator.next());
+        assertEquals("Albert", iterator.next());
+        assertEquals("Alberto", iterator.next());
+        assertEquals("Albertoo", iterator.next());
+        assertEquals("Alberts", iterator.next());
+        assertEquals("Alien", iterator.next());
+        assertEquals("Allie", iterator.next());
+        assertEquals("Alliese", iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+    
+    @Test
+    public void testPrefixedByRemoval() {
+        Trie<String, String> trie = engine.newTrie();
+        
+        final String[] keys = new String[]{
+                "Albert", "Xavier", "XyZ", "Anna", "Alien", "Alberto",
+                "Alberts", "Allie", "Alliese", "Alabama", "Banane",
+                "Blabla", "Amber", "Ammun", "Akka", "Akko", "Albertoo",
+                "Amma"
+        };
+
+        for (String key : keys) {
+            trie.put(key, key);
+        }
+        
+        SortedMap<String, String> map = trie.getPrefixedBy("Al");
+        assertEquals(8, map.size());
+        Iterator<String> iter = map.keySet().iterator();
+        assertEquals("Alabama", iter.next());
+        assertEquals("Albert", iter.next());
+        assertEquals("Alberto", iter.next());
+        assertEquals("Albertoo", iter.next());
+        assertEquals("Alberts", iter.next());
+        assertEquals("Alien", iter.next());
+        iter.remove();
+        assertEquals(7, map.size());
+        assertEquals("Allie", iter.next());
+        assertEquals("Alliese", iter.next());
+        assertFalse(iter.hasNext());
+        
+        map = trie.getPrefixedBy("Ak");
+        assertEquals(2, map.size());
+        iter = map.keySet().iterator();
+        assertEquals("Akka", iter.next());
+        iter.remove();
+        assertEquals(1, map.size());
+        assertEquals("Akko", iter.next());
+        if(iter.hasNext())
+            fail("shouldn't have next (but was: " + iter.next() + ")");
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testTraverseWithAllNullBitKey() {
+        Trie<String, String> trie = engine.newTrie();
+        
+        //
+        // One entry in the Trie
+        // Entry is stored at the root
+        //
+        
+        // trie.put("", "All Bits Are Zero");
+        trie.put("\0", "All Bits Are Zero");
+        
+        //
+        //  / ("")   <-- root
+        //  \_/  \
+        //       null
+        //
+        
+        final List<String> strings = new ArrayList<String>();
+        trie.traverse(new Cursor<String, String>() {
+            public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                strings.add(entry.getValue());
+                return SelectStatus.CONTINUE;
+            }
+        });
+        
+        assertEquals(1, strings.size());
+        
+        strings.clear();
+        for (String s : trie.values()) {
+            strings.add(s);
+        }
+        assertEquals(1, strings.size());
+    }
+    
+    @Test
+    public void testSelectWithAllNullBitKey() {
+        Trie<String, String> trie = engine.newTrie();
+        
+        // trie.put("", "All Bits Are Zero");
+        trie.put("\0", "All Bits Are Zero");
+        
+        final List<String> strings = new ArrayList<String>();
+        trie.select("Hello", new Cursor<String, String>() {
+            public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                strings.add(entry.getValue());
+                return SelectStatus.CONTINUE;
+            }
+        });
+        assertEquals(1, strings.size());
+    }
+    
+    @Test
+    public void testPutIfAbsent() {
+        Trie<String, String> trie = engine.newTrie();
+        
+        assertNull(trie.putIfAbsent("Lime", "Lime"));
+        assertEquals("Lime", trie.putIfAbsent("Lime", "LimeWire"));
+        assertEquals("Lime", trie.get("Lime"));
+        assertEquals(1, trie.size());
+        
+        // the root is a special case for both the empty and the all zero bit key
+        assertNull(trie.putIfAbsent("", "Empty"));
+        assertEquals("Empty", trie.putIfAbsent("", "NotEmpty"));
+        assertEquals(2, trie.size());
+        
+        trie.put("Lax", null);
+        assertNull(trie.putIfAbsent("Lax", "Lax"));
+        assertEquals("Lax", trie.get("Lax"));
+        assertEquals(3, trie.size());
+    }
+    
+    @Test
+    public void testCompute() {
+        Trie<String, String> trie = engine.newTrie();
+        final Trie.Remapper<String, String> append = new Trie.Remapper<String, String>() {
+            public String remap(String key, String existing) {
+                return existing == null ? key : existing + key;
+            }
+        };
+        final Trie.Remapper<String, String> delete = new Trie.Remapper<String, String>() {
+            public String remap(String key, String existing) {
+                return null;
+            }
+        };
+        
+        String[] keys = { "Lime", "LimeWire", "LimeRadio", "Lax", "Later", "Lake", "Lovely", "" };
+        for (String key : keys) {
+            assertEquals(key, trie.computeEntry(key, append));
+        }
+        assertEquals(keys.length, trie.size());
+        
+        for (String key : keys) {
+            assertEquals(key + key, trie.computeEntry(key, append));
+            assertEquals(key + key, trie.get(key));
+        }
+        assertEquals(keys.length, trie.size());
+        
+        assertNull(trie.computeEntry("Lime", delete));
+        assertFalse(trie.containsKey("Lime"));
+        assertNull(trie.computeEntry("Lime", delete));
+        assertEquals(keys.length - 1, trie.size());
+        
+        SortedMap<String, String> prefixed = trie.getPrefixedBy("Lime");
+        assertEquals(2, prefixed.size());
+        assertEquals("LimeRadio", prefixed.firstKey());
+        assertEquals("LimeWire", prefixed.lastKey());
+        
+        // Handing back the existing value doesn't count as a modification
+        Iterator<String> iter = trie.keySet().iterator();
+        trie.computeEntry("Lax", new Trie.Remapper<String, String>() {
+            public String remap(String key, String existing) {
+                return existing;
+            }
+        });
+        iter.next();
+        
+        trie.computeEntry("Lax", append);
+        try {
+            iter.next();
+            fail("should have thrown CME");
+        } catch(ConcurrentModificationException expected) {}
+    }
+    
+    @Test
+    public void testMerge() {
+        Trie<String, String> trie = engine.newTrie();
+        final Trie.Merger<String> shortest = new Trie.Merger<String>() {
+            public String merge(String existing, String value) {
+                return value.length() < existing.length() ? value : existing;
+            }
+        };
+        
+        assertEquals("Lovely Day", trie.mergeEntry("Lo", "Lovely Day", shortest));
+        assertEquals("Lovely", trie.mergeEntry("Lo", "Lovely", shortest));
+        assertEquals("Lovely", trie.mergeEntry("Lo", "Lovelier", shortest));
+        assertEquals("Lovely", trie.get("Lo"));
+        assertEquals(1, trie.size());
+        
+        assertNull(trie.mergeEntry("Lo", "Lo", new Trie.Merger<String>() {
+            public String merge(String existing, String value) {
+                return null;
+            }
+        }));
+        assertTrue(trie.isEmpty());
+    }
+    
+    @Test
+    public void testPositionsAndCounts() {
+        Trie<String, String> trie = engine.newTrie();
+        Random random = new Random(1234);
+        
+        trie.put("", "");
+        for (int i = 0; i < 2000; i++) {
+            String key = randomKey(random);
+            trie.put(key, key);
+        }
+        assertCounts(trie);
+        
+        // removing exercises both the internal and external cases
+        List<String> keys = new ArrayList<String>(trie.keySet());
+        Collections.shuffle(keys, random);
+        for (String key : keys.subList(0, keys.size() / 2)) {
+            trie.remove(key);
+        }
+        assertCounts(trie);
+        
+        trie.remove("");
+        assertCounts(trie);
+        
+        for (String key : keys.subList(keys.size() / 2, keys.size())) {
+            trie.remove(key);
+        }
+        assertTrue(trie.isEmpty());
+        assertEquals(-1, trie.indexOf("a"));
+        try {
+            trie.getEntryAt(0);
+            fail("should have thrown IOOBE");
+        } catch(IndexOutOfBoundsException expected) {}
+    }
+    
+    @Test
+    public void testTraversePrefix() {
+        Trie<String, String> trie = engine.newTrie();
+        Random random = new Random(4321);
+        
+        trie.put("", "");
+        for (int i = 0; i < 1000; i++) {
+            String key = randomKey(random);
+            trie.put(key, key);
+        }
+        
+        Set<String> prefixes = new TreeSet<String>();
+        for (String key : trie.keySet()) {
+            for (int i = 0; i <= key.length(); i++) {
+                prefixes.add(key.substring(0, i));
+            }
+        }
+        prefixes.add("zz");
+        
+        for (String prefix : prefixes) {
+            final List<String> visited = new ArrayList<String>();
+            assertNull(trie.traversePrefix(prefix, new Cursor<String, String>() {
+                public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                    visited.add(entry.getKey());
+                    return SelectStatus.CONTINUE;
+                }
+            }));
+            assertEquals(prefix, new ArrayList<String>(trie.getPrefixedBy(prefix).keySet()), visited);
+            
+            if (visited.size() > 1) {
+                final String stop = visited.get(visited.size() / 2);
+                Entry<String, String> exited = trie.traversePrefix(prefix, new Cursor<String, String>() {
+                    public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                        return entry.getKey().equals(stop) ? SelectStatus.EXIT : SelectStatus.CONTINUE;
+                    }
+                });
+                assertEquals(stop, exited.getKey());
+            }
+        }
+        
+        // remove every other key under a few prefixes, including ones
+        // whose subtree entry is the first thing removed
+        for (String prefix : new String[] { "ab", "c", "dd", "a", "" }) {
+            List<String> before = new ArrayList<String>(trie.getPrefixedBy(prefix).keySet());
+            final boolean[] odd = new boolean[1];
+            final List<String> seen = new ArrayList<String>();
+            final List<String> removed = new ArrayList<String>();
+            trie.traversePrefix(prefix, new Cursor<String, String>() {
+                public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                    seen.add(entry.getKey());
+                    odd[0] = !odd[0];
+                    if (odd[0]) {
+                        removed.add(entry.getKey());
+                        return SelectStatus.REMOVE;
+                    }
+                    return SelectStatus.CONTINUE;
+                }
+            });
+            
+            assertEquals(prefix, before, seen);
+            before.removeAll(removed);
+            assertEquals(prefix, before, new ArrayList<String>(trie.getPrefixedBy(prefix).keySet()));
+            for (String key : removed) {
+                assertFalse(trie.containsKey(key));
+            }
+        }
+        
+        Entry<String, String> last = trie.traversePrefix("b", new Cursor<String, String>() {
+            public SelectStatus select(Entry<? extends String, ? extends String> entry) {
+                return SelectStatus.REMOVE_AND_EXIT;
+            }
+        });
+        assertFalse(trie.containsKey(last.getKey()));
+        assertTrue(last.getKey().startsWith("b"));
+    }
+    
+    @Test
+    public void testPartition() throws Exception {
+        final Trie<String, String> trie = engine.newTrie();
+        Random random = new Random(5678);
+        
+        assertTrue(trie.partition(null, 4).isEmpty());
+        
+        trie.put("", "");
+        for (int i = 0; i < 1500; i++) {
+            String key = randomKey(random);
+            trie.put(key, key);
+        }
+        
+        for (String prefix : new String[] { null, "", "a", "ab", "abc", "dddd", "b", "zz" }) {
+            List<String> expected = new ArrayList<String>(
+                    prefix == null ? trie.keySet() : trie.getPrefixedBy(prefix).keySet());
+            
+            for (int parts = 1; parts <= 9; parts++) {
+                List<SortedMap<String, String>> views = trie.partition(prefix, parts);
+                assertEquals(prefix, Math.min(parts, expected.size()), views.size());
+                
+                List<String> joined = new ArrayList<String>();
+                for (SortedMap<String, String> view : views) {
+                    assertFalse(view.isEmpty());
+                    assertTrue(Math.abs(view.size() - expected.size() / views.size()) <= 1);
+                    joined.addAll(view.keySet());
+                }
+                assertEquals(prefix, expected, joined);
+            }
+        }
+        
+        try {
+            trie.partition("a", 0);
+            fail("should have thrown IAE");
+        } catch(IllegalArgumentException expected) {}
+        
+        // each view can be walked on its own thread
+        List<SortedMap<String, String>> views = trie.partition(null, 4);
+        final int[] counts = new int[views.size()];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < views.size(); i++) {
+            final int part = i;
+            final SortedMap<String, String> view = views.get(i);
+            threads.add(new Thread() {
+                public void run() {
+                    for (String key : view.keySet()) {
+                        if (trie.containsKey(key))
+                            counts[part]++;
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads)
+            thread.start();
+        int total = 0;
+        for (int i = 0; i < threads.size(); i++) {
+            threads.get(i).join();
+            total += counts[i];
+        }
+        assertEquals(trie.size(), total);
+    }
+    
+    @Test
+    public void testRemovePrefix() {
+        Trie<String, String> trie = engine.newTrie();
+        TreeMap<String, String> expected = new TreeMap<String, String>();
+        Random random = new Random(8765);
+        
+        assertEquals(0, trie.removePrefix("a"));
+        
+        for (int round = 0; round < 40; round++) {
+            if (round % 10 == 0) {
+                trie.put("", "");
+                expected.put("", "");
+            }
+            for (int i = 0; i < 300; i++) {
+                String key = randomKey(random);
+                trie.put(key, key);
+                expected.put(key, key);
+            }
+            
+            String prefix = randomKey(random);
+            prefix = prefix.substring(0, 1 + random.nextInt(Math.min(3, prefix.length())));
+            
+            int count = 0;
+            for (Iterator<String> i = expected.keySet().iterator(); i.hasNext(); ) {
+                if (i.next().startsWith(prefix)) {
+                    i.remove();
+                    count++;
+                }
+            }
+            
+            assertEquals(prefix, count, trie.removePrefix(prefix));
+            assertEquals(prefix, expected.size(), trie.size());
+            assertEquals(prefix, new ArrayList<String>(expected.keySet()), new ArrayList<String>(trie.keySet()));
+            assertTrue(trie.getPrefixedBy(prefix).isEmpty());
+            for (String key : expected.keySet()) {
+                assertEquals(key, trie.get(key));
+            }
+            assertCounts(trie);
+        }
+        
+        // a single matching key, and one that's the root
+        trie.put("zzz", "zzz");
+        assertEquals(1, trie.removePrefix("zz"));
+        assertFalse(trie.containsKey("zzz"));
+        
+        int size = trie.size();
+        assertEquals(size, trie.removePrefix(""));
+        assertTrue(trie.isEmpty());
+        trie.put("a", "a");
+        assertEquals("a", trie.get("a"));
+    }
+    
+    private static String randomKey(Random random) {
+        int length = 1 + random.nextInt(6);
+        StringBuilder buffer = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            buffer.append((char)('a' + random.nextInt(4)));
+        }
+        return buffer.toString();
+    }
+    
+    private static void assertCounts(Trie<String, String> trie) {
+        List<String> keys = new ArrayList<String>(trie.keySet());
+        assertEquals(trie.size(), keys.size());
+        
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(i, trie.indexOf(keys.get(i)));
+            assertEquals(keys.get(i), trie.getEntryAt(i).getKey());
+        }
+        
+        Set<String> prefixes = new TreeSet<String>();
+        for (String key : keys) {
+            for (int i = 0; i <= key.length(); i++) {
+                prefixes.add(key.substring(0, i));
+            }
+        }
+        prefixes.add("zz");
+        
+        // absent keys must come back as their insertion point
+        Random random = new Random(keys.size());
+        for (int i = 0; i < 500; i++) {
+            String probe = randomKey(random) + (i % 2 == 0 ? "e" : "");
+            int insertion = 0;
+            while (insertion < keys.size() && keys.get(insertion).compareTo(probe) < 0)
+                insertion++;
+            
+            if (keys.contains(probe)) {
+                assertEquals(probe, insertion, trie.indexOf(probe));
+            } else {
+                assertEquals(probe, -insertion - 1, trie.indexOf(probe));
+            }
+            
+            SortedMap<String, String> tail = trie.tailMap(probe);
+            assertEquals(probe, keys.size() - insertion, tail.size());
+            if (insertion < keys.size())
+                assertEquals(probe, keys.get(insertion), tail.firstKey());
+            
+            SortedMap<String, String> head = trie.headMap(probe);
+            assertEquals(probe, insertion, head.size());
+            if (insertion > 0)
+                assertEquals(probe, keys.get(insertion - 1), head.lastKey());
+        }
+        
+        for (String prefix : prefixes) {
+            int count = 0;
+            String first = null;
+            String last = null;
+            for (String key : keys) {
+                if (key.startsWith(prefix)) {
+                    if (first == null)
+                        first = key;
+                    last = key;
+                    count++;
+                }
+            }
+            
+            SortedMap<String, String> prefixed = trie.getPrefixedBy(prefix);
+            assertEquals(prefix, count, prefixed.size());
+            if (count > 0) {
+                assertEquals(prefix, first, prefixed.firstKey());
+                assertEquals(prefix, last, prefixed.lastKey());
+            }
+            
+            // '~' sorts after all the generated characters, so it's never in the Trie
+            int from = trie.indexOf(prefix);
+            if (from < 0)
+                from = -from - 1;
+            int to = -trie.indexOf(prefix + "~") - 1;
+            assertEquals(prefix, count, to - from);
+            assertEquals(prefix, count, trie.subMap(prefix, prefix + "~").size());
+        }
+    }
+}